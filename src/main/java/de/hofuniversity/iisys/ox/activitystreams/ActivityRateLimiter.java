@@ -0,0 +1,266 @@
+package de.hofuniversity.iisys.ox.activitystreams;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket rate limiter for activities, keyed by actor and by context.
+ * Every activity takes a token from its actor's and its context's bucket,
+ * which refill continuously at a fixed rate up to their burst size. Once
+ * either bucket is empty, activities are rejected, so a single misbehaving
+ * client looping on updates cannot flood the delivery pipeline.
+ * Activities rejected for an actor are counted, so they can be summarized
+ * once the actor's activities are let through again.
+ * Buckets are only locked individually; buckets that have been full for a
+ * while are removed periodically by a single caller, along with rejections
+ * that were never summarized. Instances are thread-safe.
+ */
+public class ActivityRateLimiter
+{
+    /**
+     * Reason for activities rejected because of their actor's rate.
+     */
+    public static final String ACTOR = "actor";
+    
+    /**
+     * Reason for activities rejected because of their context's rate.
+     */
+    public static final String CONTEXT = "context";
+    
+    private static final long MINUTE = 60000L;
+    
+    private final double fActorRate;
+    private final int fActorBurst;
+    private final double fContextRate;
+    private final int fContextBurst;
+    
+    private final long fSweepInterval;
+    
+    private final ConcurrentMap<Long, Bucket> fActors;
+    private final ConcurrentMap<Integer, Bucket> fContexts;
+    
+    private final AtomicLong fSwept;
+    
+    /**
+     * Creates a rate limiter with the given rates and burst sizes.
+     *
+     * @param actorRate activities per minute allowed per actor
+     * @param actorBurst maximum number of activities per actor at once
+     * @param contextRate activities per minute allowed per context
+     * @param contextBurst maximum number of activities per context at once
+     */
+    public ActivityRateLimiter(int actorRate, int actorBurst,
+        int contextRate, int contextBurst)
+    {
+        this(actorRate, actorBurst, contextRate, contextBurst, MINUTE);
+    }
+    
+    /**
+     * Creates a rate limiter removing idle buckets at the given interval,
+     * unless buckets take longer to fill up again.
+     *
+     * @param actorRate activities per minute allowed per actor
+     * @param actorBurst maximum number of activities per actor at once
+     * @param contextRate activities per minute allowed per context
+     * @param contextBurst maximum number of activities per context at once
+     * @param sweepInterval minimum time in milliseconds between removing
+     *  idle buckets
+     */
+    ActivityRateLimiter(int actorRate, int actorBurst, int contextRate,
+        int contextBurst, long sweepInterval)
+    {
+        fActorRate = Math.max(1, actorRate) / (double) MINUTE;
+        fActorBurst = Math.max(1, actorBurst);
+        fContextRate = Math.max(1, contextRate) / (double) MINUTE;
+        fContextBurst = Math.max(1, contextBurst);
+        
+        //idle buckets are full again after this time at the latest
+        fSweepInterval = Math.max(sweepInterval,
+            (long) Math.ceil(Math.max(fActorBurst / fActorRate,
+            fContextBurst / fContextRate)));
+        
+        fActors = new ConcurrentHashMap<Long, Bucket>();
+        fContexts = new ConcurrentHashMap<Integer, Bucket>();
+        
+        fSwept = new AtomicLong(System.currentTimeMillis());
+    }
+    
+    /**
+     * Takes a token for an activity of the given user in the given context.
+     *
+     * @param contextId ID of the context
+     * @param userId ID of the acting user or a negative value if unknown
+     * @return null if the activity may be sent, ACTOR or CONTEXT if it was
+     *  rejected for its actor or context
+     */
+    public String acquire(int contextId, int userId)
+    {
+        final long now = System.currentTimeMillis();
+        sweep(now);
+        
+        Bucket actor = null;
+        if(userId >= 0)
+        {
+            actor = getActor(contextId, userId, now);
+            if(!actor.take(now, fActorRate, fActorBurst))
+            {
+                return ACTOR;
+            }
+        }
+        
+        Bucket context = getContext(contextId, now);
+        if(!context.take(now, fContextRate, fContextBurst))
+        {
+            //the activity is not sent, return the actor's token
+            if(actor != null)
+            {
+                actor.reject(fActorBurst);
+            }
+            return CONTEXT;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Returns and resets the number of activities rejected for a user since
+     * the last call.
+     *
+     * @param contextId ID of the context
+     * @param userId ID of the user
+     * @return number of rejected activities
+     */
+    public int takeRejected(int contextId, int userId)
+    {
+        Bucket actor = fActors.get(getKey(contextId, userId));
+        return actor != null ? actor.takeRejected() : 0;
+    }
+    
+    /**
+     * @return number of buckets currently held
+     */
+    public int size()
+    {
+        return fActors.size() + fContexts.size();
+    }
+    
+    private Bucket getActor(int contextId, int userId, long now)
+    {
+        Long key = getKey(contextId, userId);
+        
+        Bucket bucket = fActors.get(key);
+        if(bucket == null)
+        {
+            bucket = new Bucket(fActorBurst, now);
+            Bucket existing = fActors.putIfAbsent(key, bucket);
+            if(existing != null)
+            {
+                bucket = existing;
+            }
+        }
+        
+        return bucket;
+    }
+    
+    private Bucket getContext(int contextId, long now)
+    {
+        Integer key = Integer.valueOf(contextId);
+        
+        Bucket bucket = fContexts.get(key);
+        if(bucket == null)
+        {
+            bucket = new Bucket(fContextBurst, now);
+            Bucket existing = fContexts.putIfAbsent(key, bucket);
+            if(existing != null)
+            {
+                bucket = existing;
+            }
+        }
+        
+        return bucket;
+    }
+    
+    private void sweep(long now)
+    {
+        long last = fSwept.get();
+        
+        //only one caller sweeps per interval
+        if(now - last < fSweepInterval
+            || !fSwept.compareAndSet(last, now))
+        {
+            return;
+        }
+        
+        removeIdle(fActors.values().iterator(), now);
+        removeIdle(fContexts.values().iterator(), now);
+    }
+    
+    private void removeIdle(Iterator<Bucket> buckets, long now)
+    {
+        while(buckets.hasNext())
+        {
+            if(buckets.next().isIdle(now, fSweepInterval))
+            {
+                buckets.remove();
+            }
+        }
+    }
+    
+    private static Long getKey(int contextId, int userId)
+    {
+        return Long.valueOf(((long) contextId << 32)
+            | (userId & 0xFFFFFFFFL));
+    }
+    
+    private static class Bucket
+    {
+        private double fTokens;
+        private long fLast;
+        private int fRejected;
+        
+        private Bucket(int burst, long now)
+        {
+            fTokens = burst;
+            fLast = now;
+        }
+        
+        private synchronized boolean take(long now, double rate, int burst)
+        {
+            //refill for the time passed since the last activity
+            if(now > fLast)
+            {
+                fTokens = Math.min(burst, fTokens + (now - fLast) * rate);
+                fLast = now;
+            }
+            
+            if(fTokens >= 1.0)
+            {
+                fTokens -= 1.0;
+                return true;
+            }
+            
+            ++fRejected;
+            return false;
+        }
+        
+        private synchronized void reject(int burst)
+        {
+            fTokens = Math.min(burst, fTokens + 1.0);
+            ++fRejected;
+        }
+        
+        private synchronized int takeRejected()
+        {
+            int rejected = fRejected;
+            fRejected = 0;
+            return rejected;
+        }
+        
+        private synchronized boolean isIdle(long now, long idleTime)
+        {
+            return now - fLast >= idleTime;
+        }
+    }
+}
@@ -17,6 +17,8 @@ public class ActivityStreamsActivator extends HousekeepingActivator
 {
     private static final org.slf4j.Logger LOG =
         org.slf4j.LoggerFactory.getLogger(ActivityStreamsActivator.class);
+    
+    private ActivityStreamsEventProcessor fProcessor;
 
     @Override
     protected Class<?>[] getNeededServices()
@@ -44,14 +46,33 @@ public class ActivityStreamsActivator extends HousekeepingActivator
             //register service
             Services.setServiceLookup(this);
             
+            fProcessor = new ActivityStreamsEventProcessor();
+            
+            //only subscribe to events of enabled modules
+            String[] topics = fProcessor.getTopics();
+            if(topics.length == 0)
+            {
+                LOG.warn("all activity modules disabled, not registering "
+                    + "event handler");
+                
+                //stop the processor's threads and unregister its MBean
+                fProcessor.shutdown();
+                fProcessor = null;
+                return;
+            }
+            
             //register event handling
             final Dictionary<String, Object> serviceProperties =
-                new Hashtable<String, Object>(1);
-            serviceProperties.put(EventConstants.EVENT_TOPIC,
-                new String[]
-                { "com/openexchange/groupware/*",
-                "com/openexchange/groupware/infostore/*" });
-            registerService(EventHandler.class, new ActivityStreamsEventProcessor(),
+                new Hashtable<String, Object>(2);
+            serviceProperties.put(EventConstants.EVENT_TOPIC, topics);
+            
+            String filter = fProcessor.getEventFilter();
+            if(filter != null)
+            {
+                serviceProperties.put(EventConstants.EVENT_FILTER, filter);
+            }
+            
+            registerService(EventHandler.class, fProcessor,
                 serviceProperties);
         }
         catch (final Throwable t)
@@ -67,6 +88,14 @@ public class ActivityStreamsActivator extends HousekeepingActivator
         try
         {
             cleanUp();
+            
+            //finish processing of already received events
+            if(fProcessor != null)
+            {
+                fProcessor.shutdown();
+                fProcessor = null;
+            }
+            
             Services.setServiceLookup(null);
         }
         catch (final Throwable t)
@@ -38,12 +38,97 @@ public class ActivityStreamsConfiguration
         "filter_private_folder_contents";
     public static final String FILTER_SYSTEM_FOLDERS = "filter_system_folders";
     
+    public static final String ASYNC_DISPATCH = "async_dispatch";
+    public static final String DISPATCH_QUEUE_SIZE = "dispatch_queue_size";
+    public static final String DISPATCH_THREADS = "dispatch_threads";
+    
+    public static final String HTTP_POOL_SIZE = "http_pool_size";
+    public static final String HTTP_CONNECT_TIMEOUT = "http_connect_timeout";
+    public static final String HTTP_READ_TIMEOUT = "http_read_timeout";
+    
+    public static final String BATCH_ACTIVITIES = "batch_activities";
+    public static final String BATCH_SIZE = "batch_size";
+    public static final String BATCH_LINGER = "batch_linger";
+    
+    public static final String OUTBOX_ENABLED = "outbox_enabled";
+    public static final String OUTBOX_DIRECTORY = "outbox_directory";
+    public static final String OUTBOX_SEGMENT_SIZE = "outbox_segment_size";
+    public static final String OUTBOX_SYNC_INTERVAL = "outbox_sync_interval";
+    
+    public static final String RETRY_ATTEMPTS = "retry_attempts";
+    public static final String RETRY_DELAY = "retry_delay";
+    public static final String RETRY_MAX_DELAY = "retry_max_delay";
+    
+    public static final String BREAKER_FAILURES = "breaker_failures";
+    public static final String BREAKER_FAILURE_RATE = "breaker_failure_rate";
+    public static final String BREAKER_WINDOW = "breaker_window";
+    public static final String BREAKER_OPEN_TIME = "breaker_open_time";
+    
+    public static final String DELIVERY_LANES = "delivery_lanes";
+    public static final String LANE_QUEUE_SIZE = "lane_queue_size";
+    public static final String LANE_HIGH_WATERMARK = "lane_high_watermark";
+    public static final String LANE_LOW_WATERMARK = "lane_low_watermark";
+    public static final String INVITE_PARALLELISM = "invite_parallelism";
+    
+    public static final String COALESCE_UPDATES = "coalesce_updates";
+    public static final String COALESCE_WINDOW = "coalesce_window";
+    
+    public static final String SINKS = "sinks";
+    public static final String SINK_QUEUE_SIZE = "sink_queue_size";
+    public static final String FILE_SINK_PATH = "file_sink_path";
+    public static final String FILE_SINK_MAX_SIZE = "file_sink_max_size";
+    public static final String FILE_SINK_FILES = "file_sink_files";
+    public static final String FILE_SINK_ROTATE_INTERVAL =
+        "file_sink_rotate_interval";
+    public static final String FILE_SINK_COMPRESS = "file_sink_compress";
+    public static final String WEBHOOK_URL = "webhook_url";
+    
+    public static final String ACTOR_CACHE_SIZE = "actor_cache_size";
+    public static final String ACTOR_CACHE_TTL = "actor_cache_ttl";
+    public static final String FOLDER_CACHE_SIZE = "folder_cache_size";
+    public static final String FOLDER_CACHE_TTL = "folder_cache_ttl";
+    
+    public static final String RATE_LIMIT = "rate_limit";
+    public static final String ACTOR_RATE = "actor_rate";
+    public static final String ACTOR_BURST = "actor_burst";
+    public static final String CONTEXT_RATE = "context_rate";
+    public static final String CONTEXT_BURST = "context_burst";
+    public static final String RATE_LIMIT_SUMMARY = "rate_limit_summary";
+    
+    public static final String LOG_ASYNC = "log_async";
+    public static final String LOG_BUFFER_SIZE = "log_buffer_size";
+    public static final String LOG_OVERFLOW = "log_overflow";
+    public static final String LOG_MAX_SIZE = "log_max_size";
+    public static final String LOG_ROTATE_INTERVAL = "log_rotate_interval";
+    public static final String LOG_FILES = "log_files";
+    public static final String LOG_COMPRESS = "log_compress";
+    public static final String LOG_FIELDS = "log_fields";
+    
+    public static final String JMX_ENABLED = "jmx_enabled";
+    public static final String TRACE_SAMPLING = "trace_sampling";
+    public static final String TRACE_SLOW_THRESHOLD = "trace_slow_threshold";
     
     private static final String[] OPTIONS = {OX_URL, SHINDIG_URL,
         LOGGING_ENABLED, LOG_FILE, LOG_ACTIVITIES, SEND_ACTIVITIES,
         CAL_ACTIVITIES, CON_ACTIVITIES, TASK_ACTIVITIES, RSVP_ACTIVITIES,
         CON_DELETIONS, SEND_INVITES, FILTER_UNNAMED, FILTER_RSVP_UPDATES,
-        FILTER_PRIV_FOL_CON, FILTER_SYSTEM_FOLDERS};
+        FILTER_PRIV_FOL_CON, FILTER_SYSTEM_FOLDERS, ASYNC_DISPATCH,
+        DISPATCH_QUEUE_SIZE, DISPATCH_THREADS, HTTP_POOL_SIZE,
+        HTTP_CONNECT_TIMEOUT, HTTP_READ_TIMEOUT, BATCH_ACTIVITIES, BATCH_SIZE,
+        BATCH_LINGER, OUTBOX_ENABLED, OUTBOX_DIRECTORY, OUTBOX_SEGMENT_SIZE,
+        OUTBOX_SYNC_INTERVAL, RETRY_ATTEMPTS, RETRY_DELAY, RETRY_MAX_DELAY,
+        BREAKER_FAILURES, BREAKER_FAILURE_RATE, BREAKER_WINDOW,
+        BREAKER_OPEN_TIME, DELIVERY_LANES, LANE_QUEUE_SIZE,
+        LANE_HIGH_WATERMARK, LANE_LOW_WATERMARK, INVITE_PARALLELISM,
+        COALESCE_UPDATES,
+        COALESCE_WINDOW, SINKS, SINK_QUEUE_SIZE, FILE_SINK_PATH,
+        FILE_SINK_MAX_SIZE, FILE_SINK_FILES, WEBHOOK_URL, ACTOR_CACHE_SIZE,
+        ACTOR_CACHE_TTL, FOLDER_CACHE_SIZE, FOLDER_CACHE_TTL,
+        RATE_LIMIT, ACTOR_RATE, ACTOR_BURST, CONTEXT_RATE,
+        CONTEXT_BURST, RATE_LIMIT_SUMMARY, LOG_ASYNC, LOG_BUFFER_SIZE,
+        LOG_OVERFLOW, LOG_MAX_SIZE, LOG_ROTATE_INTERVAL, LOG_FILES,
+        LOG_COMPRESS, FILE_SINK_ROTATE_INTERVAL, FILE_SINK_COMPRESS,
+        LOG_FIELDS, JMX_ENABLED, TRACE_SAMPLING, TRACE_SLOW_THRESHOLD};
     
     /**
      * Reads the configuration, extracting property values into a key-value
@@ -69,4 +154,34 @@ public class ActivityStreamsConfiguration
         
         return config;
     }
+    
+    /**
+     * Reads an integer value from a configuration map, falling back to the
+     * given default if the value is missing or not a valid number.
+     * 
+     * @param config configuration map as returned by getConfiguration()
+     * @param option option to read, without the package prefix
+     * @param defValue value to use if the option is not set
+     * @return configured or default value
+     */
+    public static int getInt(Map<String, String> config, String option,
+        int defValue)
+    {
+        String value = config.get(option);
+        
+        if(value == null
+            || value.trim().isEmpty())
+        {
+            return defValue;
+        }
+        
+        try
+        {
+            return Integer.parseInt(value.trim());
+        }
+        catch(NumberFormatException e)
+        {
+            return defValue;
+        }
+    }
 }
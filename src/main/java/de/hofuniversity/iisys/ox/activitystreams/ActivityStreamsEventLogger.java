@@ -1,54 +1,120 @@
 package de.hofuniversity.iisys.ox.activitystreams;
 
-import java.io.File;
-import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.osgi.service.event.Event;
 
 import com.openexchange.event.CommonEvent;
 import com.openexchange.groupware.contexts.Context;
-import com.openexchange.groupware.contexts.impl.ContextStorage;
 import com.openexchange.groupware.ldap.User;
-import com.openexchange.groupware.ldap.UserStorage;
 import com.openexchange.session.Session;
 
+import de.hofuniversity.iisys.ox.activitystreams.logging.ILogOutput;
+import de.hofuniversity.iisys.ox.activitystreams.logging.LogRecord;
+
 /**
  * Utility class for development and debugging logging all passed events and
  * other Strings to a file.
+ * Each event or message is formatted into a single record on the calling
+ * thread and then handed to the log output as a whole, which numbers the
+ * records in the order they are written.
+ * Only the configured fields of common events are written, given by name,
+ * such as "session.login", or by group, such as "user". Passwords, session
+ * secrets and tokens are never written, since they are not known fields.
+ * Context and user are taken from the event's context, so logging them does
+ * not cause any lookups beyond those needed for the event anyway.
  */
 public class ActivityStreamsEventLogger
 {
-    private final String fLogFile;
-    private final PrintWriter fWriter;
+    private static final String SESSION = "session";
+    private static final String CONTEXT = "context";
+    private static final String USER = "user";
+    
+    //all fields that may be logged, secrets are deliberately left out
+    private static final String[] FIELDS = {"event.action",
+        "event.actionObject", "event.affectedUsersWithFolder",
+        "event.sourceFolder", "event.destinationFolder", "event.module",
+        "event.userId", "event.oldObject", "session.authId", "session.client",
+        "session.contextId", "session.localIp", "session.login",
+        "session.loginName", "session.userId", "session.userLogin",
+        "context.contextId", "context.filestoreName", "context.name",
+        "user.contactId", "user.displayName", "user.givenName", "user.id",
+        "user.imapLogin", "user.imapServer", "user.loginInfo", "user.mail",
+        "user.mailDomain", "user.preferredLanguage", "user.smtpServer",
+        "user.surname", "user.timeZone", "user.aliases", "user.groups"};
+    
+    private final ILogOutput fOutput;
     
-    private int fNumber;
+    private final Set<String> fFields;
+    private final boolean fSession;
+    private final boolean fContext;
+    private final boolean fUser;
     
-    public ActivityStreamsEventLogger(String logFile) throws Exception
+    /**
+     * Creates a logger writing records to the given output, including the
+     * given fields of common events. Unknown fields are ignored.
+     * The given output must not be null.
+     * 
+     * @param output output to write records to
+     * @param fields comma-separated names of fields or field groups to log
+     */
+    public ActivityStreamsEventLogger(ILogOutput output, String fields)
     {
-        fLogFile = logFile;
+        fOutput = output;
         
-        File file = new File(fLogFile);
-        if(!file.exists())
+        Set<String> configured = new HashSet<String>();
+        if(fields != null)
         {
-            file.createNewFile();
+            for(String field : fields.split(","))
+            {
+                configured.add(field.trim());
+            }
         }
         
-        fWriter = new PrintWriter(file);
-        fNumber = 0;
+        //expand groups into their fields
+        fFields = new HashSet<String>();
+        for(String field : FIELDS)
+        {
+            if(configured.contains(field)
+                || configured.contains(field.substring(0, field.indexOf('.'))))
+            {
+                fFields.add(field);
+            }
+        }
+        
+        fSession = hasGroup(SESSION);
+        fContext = hasGroup(CONTEXT);
+        fUser = hasGroup(USER);
     }
     
+    /**
+     * Logs a message as a record of its own.
+     * 
+     * @param message message to log
+     */
     public void logOther(String message)
     {
-        fWriter.println("\n" + message + "\n");
-        fWriter.flush();
+        fOutput.write(new LogRecord("\n#", " " + message + "\n\n"));
     }
     
-    public void logEvent(Event event)
+    /**
+     * Logs an event including all its properties. The configured fields of
+     * common events are resolved using the given context, if it belongs to
+     * the logged common event.
+     * 
+     * @param event event to log
+     * @param context context of the contained common event or null
+     */
+    public void logEvent(Event event, EventContext context)
     {
-        fWriter.println("event " + ++fNumber);
-        fWriter.println("event.class: " + event.getClass());
+        StringBuilder record = new StringBuilder(2048);
+        
+        //the record's number follows "event " once it is written
+        record.append('\n');
+        println(record, "event.class: " + event.getClass());
 
-        fWriter.println("\nproperties:");
+        println(record, "\nproperties:");
         Object property = null;
         for(String key : event.getPropertyNames())
         {
@@ -56,159 +122,193 @@ public class ActivityStreamsEventLogger
             
             if(property instanceof CommonEvent)
             {
-                fWriter.println("\ncommon event (" + key + "):");
-                process((CommonEvent)property);
-                fWriter.println();
+                println(record, "\ncommon event (" + key + "):");
+                process(record, getContext((CommonEvent)property, context));
+                record.append('\n');
             }
             else
             {
-                fWriter.println(key + ": " + property);
-                fWriter.println(key + ".class: " + property.getClass());
+                println(record, key + ": " + property);
+                println(record, key + ".class: " + property.getClass());
             }
         }
         
         if(event instanceof CommonEvent)
         {
-            fWriter.println("\ncommon event:");
-            process((CommonEvent)event);
+            println(record, "\ncommon event:");
+            process(record, getContext((CommonEvent)event, context));
         }
         
-        fWriter.println("\n\n");
-        fWriter.flush();
+        println(record, "\n\n");
+        fOutput.write(new LogRecord("event ", record.toString()));
+    }
+    
+    /**
+     * Writes remaining records and closes the log output.
+     */
+    public void close()
+    {
+        fOutput.close();
+    }
+    
+    private void process(StringBuilder record, EventContext context)
+    {
+        CommonEvent event = context.getEvent();
+        
+        try
+        {
+            field(record, "event.action", getAction(event.getAction()));
+            
+            typedField(record, "event.actionObject", event.getActionObj());
+            
+            field(record, "event.affectedUsersWithFolder",
+                event.getAffectedUsersWithFolder());
+            
+            field(record, "event.sourceFolder", event.getSourceFolder());
+            
+            typedField(record, "event.destinationFolder",
+                event.getDestinationFolder());
+            
+            field(record, "event.module", event.getModule());
+            
+            field(record, "event.userId", event.getUserId());
+            
+            typedField(record, "event.oldObject", event.getOldObj());
+            
+            Session session = context.getSession();
+            if(fSession
+                && session != null)
+            {
+                field(record, "session.authId", session.getAuthId());
+                field(record, "session.client", session.getClient());
+                field(record, "session.contextId", session.getContextId());
+                field(record, "session.localIp", session.getLocalIp());
+                field(record, "session.login", session.getLogin());
+                field(record, "session.loginName", session.getLoginName());
+                field(record, "session.userId", session.getUserId());
+                field(record, "session.userLogin", session.getUserlogin());
+            }
+            
+            if(fContext)
+            {
+                Context ctx = context.getContext();
+                if(ctx != null)
+                {
+                    field(record, "context.contextId", ctx.getContextId());
+                    field(record, "context.filestoreName",
+                        ctx.getFilestoreName());
+                    field(record, "context.name", ctx.getName());
+                }
+            }
+            
+            if(fUser)
+            {
+                User user = context.getUser();
+                if(user != null)
+                {
+                    field(record, "user.contactId", user.getContactId());
+                    field(record, "user.displayName", user.getDisplayName());
+                    field(record, "user.givenName", user.getGivenName());
+                    field(record, "user.id", user.getId());
+                    field(record, "user.imapLogin", user.getImapLogin());
+                    field(record, "user.imapServer", user.getImapServer());
+                    field(record, "user.loginInfo", user.getLoginInfo());
+                    field(record, "user.mail", user.getMail());
+                    field(record, "user.mailDomain", user.getMailDomain());
+                    field(record, "user.preferredLanguage",
+                        user.getPreferredLanguage());
+                    field(record, "user.smtpServer", user.getSmtpServer());
+                    field(record, "user.surname", user.getSurname());
+                    field(record, "user.timeZone", user.getTimeZone());
+                    field(record, "user.aliases", user.getAliases());
+                    field(record, "user.groups", user.getGroups());
+                }
+            }
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace();
+        }
     }
     
-    public void process(CommonEvent event)
+    private static String getAction(int action)
     {
-        String action = null;
-        switch(event.getAction())
+        switch(action)
         {
             case CommonEvent.INSERT:
-                action = "insert";
-                break;
+                return "insert";
                 
             case CommonEvent.UPDATE:
-                action = "update";
-                break;
+                return "update";
             
             case CommonEvent.DELETE:
-                action = "delete";
-                break;
+                return "delete";
                 
             case CommonEvent.MOVE:
-                action = "move";
-                break;
+                return "move";
                 
             case CommonEvent.CONFIRM_ACCEPTED:
-                action = "confirm_accepted";
-                break;
+                return "confirm_accepted";
                 
             case CommonEvent.CONFIRM_DECLINED:
-                action = "confirm_declined";
-                break;
+                return "confirm_declined";
                 
             case CommonEvent.CONFIRM_TENTATIVE:
-                action = "confirm_tentative";
-                break;
+                return "confirm_tentative";
                 
             case CommonEvent.CONFIRM_WAITING:
-                action = "confirm_waiting";
-                break;
+                return "confirm_waiting";
                 
             default:
-                action = Integer.toString(event.getAction());
-                break;
+                return Integer.toString(action);
         }
-        
-        Object actionObject = event.getActionObj();
-        Session session = event.getSession();
-        
-        try
+    }
+    
+    private static EventContext getContext(CommonEvent event,
+        EventContext context)
+    {
+        if(context != null
+            && context.getEvent() == event)
         {
-            fWriter.println("action: " + action);
-
-            fWriter.println("actionObject: " + actionObject);
-            if(actionObject != null)
-            {
-                fWriter.println("actionObject class: " + actionObject.getClass());
-            }
-            
-            fWriter.println("affectedUsersWithFolder: " + event.getAffectedUsersWithFolder());
-
-            fWriter.println("sourceFolder: " + event.getSourceFolder());
-            
-            fWriter.println("destinationFolder: " + event.getDestinationFolder());
-            if(event.getDestinationFolder() != null)
-            {
-                fWriter.println("destinationFolder.class: "
-                    + event.getDestinationFolder().getClass());
-            }
-            
-            fWriter.println("module: " + event.getModule());
-            
-            fWriter.println("userId: " + event.getUserId());
-            
-            fWriter.println("oldObject: " + event.getOldObj());
-            if(event.getOldObj() != null)
-            {
-                fWriter.println("oldObject.class: " + event.getOldObj().getClass());
-            }
-            
-            fWriter.println("session: " + session);
-            if(session != null)
-            {
-                fWriter.println("session.authId: " + session.getAuthId());
-                fWriter.println("session.client: " + session.getClient());
-                fWriter.println("session.contextId: " + session.getContextId());
-                fWriter.println("session.hash: " + session.getHash());
-                fWriter.println("session.localIp: " + session.getLocalIp());
-                fWriter.println("session.login: " + session.getLogin());
-                fWriter.println("session.loginName: " + session.getLoginName());
-                fWriter.println("session.password: " + session.getPassword());
-                fWriter.println("session.randomToken: " + session.getRandomToken());
-                fWriter.println("session.secret: " + session.getSecret());
-                fWriter.println("session.sessionID: " + session.getSessionID());
-                fWriter.println("session.userId: " + session.getUserId());
-                fWriter.println("session.userLogin: " + session.getUserlogin());
-            }
-            
-            int contextId = event.getContextId();
-            Context context = ContextStorage.getInstance().getContext(contextId);
-            fWriter.println("context: " + context);
-            if(context != null)
-            {
-                fWriter.println("context.contextId: " + context.getContextId());
-                fWriter.println("context.filestoreName: " + context.getFilestoreName());
-                fWriter.println("context.name: " + context.getName());
-            }
-            
-            User user = UserStorage.getInstance().getUser(
-                session.getUserId(), context);
-            fWriter.println("user: " + user);
-            if(user != null)
+            return context;
+        }
+        return new EventContext(event);
+    }
+    
+    private boolean hasGroup(String group)
+    {
+        for(String field : fFields)
+        {
+            if(field.startsWith(group + "."))
             {
-                fWriter.println("user.contactId: " + user.getContactId());
-                fWriter.println("user.displayName: " + user.getDisplayName());
-                fWriter.println("user.givenName: " + user.getGivenName());
-                fWriter.println("user.id: " + user.getId());
-                fWriter.println("user.imapLogin: " + user.getImapLogin());
-                fWriter.println("user.imapServer: " + user.getImapServer());
-                fWriter.println("user.loginInfo: " + user.getLoginInfo());
-                fWriter.println("user.mail: " + user.getMail());
-                fWriter.println("user.mailDomain: " + user.getMailDomain());
-                fWriter.println("user.passwordMech: " + user.getPasswordMech());
-                fWriter.println("user.preferredLanguage: " + user.getPreferredLanguage());
-                fWriter.println("user.smtpServer: " + user.getSmtpServer());
-                fWriter.println("user.surname: " + user.getSurname());
-                fWriter.println("user.timeZone: " + user.getTimeZone());
-                fWriter.println("user.userPassword: " + user.getUserPassword());
-                fWriter.println("user.aliases: " + user.getAliases());
-                fWriter.println("user.attributes: " + user.getAttributes());
-                fWriter.println("user.groups: " + user.getGroups());
+                return true;
             }
         }
-        catch(Exception e)
+        return false;
+    }
+    
+    private void field(StringBuilder record, String field, Object value)
+    {
+        if(fFields.contains(field))
         {
-            e.printStackTrace();
+            println(record, field + ": " + value);
         }
     }
+    
+    private void typedField(StringBuilder record, String field, Object value)
+    {
+        if(fFields.contains(field))
+        {
+            println(record, field + ": " + value);
+            if(value != null)
+            {
+                println(record, field + ".class: " + value.getClass());
+            }
+        }
+    }
+    
+    private static void println(StringBuilder record, String line)
+    {
+        record.append(line).append('\n');
+    }
 }
@@ -1,28 +1,50 @@
 package de.hofuniversity.iisys.ox.activitystreams;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.LinkedList;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
 
-import org.json.JSONObject;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventHandler;
 
 import com.openexchange.event.CommonEvent;
-import com.openexchange.groupware.container.FolderObject;
-import com.openexchange.groupware.contexts.Context;
-import com.openexchange.groupware.contexts.impl.ContextStorage;
-import com.openexchange.groupware.ldap.User;
-import com.openexchange.groupware.ldap.UserStorage;
-import com.openexchange.session.Session;
+import com.openexchange.groupware.Types;
+import com.openexchange.groupware.container.Contact;
 
+import de.hofuniversity.iisys.ox.activitystreams.cache.Actor;
+import de.hofuniversity.iisys.ox.activitystreams.cache.ActorCache;
+import de.hofuniversity.iisys.ox.activitystreams.cache.FolderTargetCache;
+import de.hofuniversity.iisys.ox.activitystreams.dispatch.ActivityBundle;
+import de.hofuniversity.iisys.ox.activitystreams.dispatch.ActivityCoalescer;
+import de.hofuniversity.iisys.ox.activitystreams.dispatch.ActivityFanOut;
+import de.hofuniversity.iisys.ox.activitystreams.dispatch.FileSink;
+import de.hofuniversity.iisys.ox.activitystreams.dispatch.IActivitySink;
+import de.hofuniversity.iisys.ox.activitystreams.dispatch.Outbox;
+import de.hofuniversity.iisys.ox.activitystreams.dispatch.ShindigSender;
+import de.hofuniversity.iisys.ox.activitystreams.dispatch.WebhookSink;
+import de.hofuniversity.iisys.ox.activitystreams.dispatch.WorkQueue;
 import de.hofuniversity.iisys.ox.activitystreams.extractors.CalendarExtractor;
 import de.hofuniversity.iisys.ox.activitystreams.extractors.ContactExtractor;
 import de.hofuniversity.iisys.ox.activitystreams.extractors.TaskExtractor;
+import de.hofuniversity.iisys.ox.activitystreams.logging.AsyncLogOutput;
+import de.hofuniversity.iisys.ox.activitystreams.logging.ILogOutput;
+import de.hofuniversity.iisys.ox.activitystreams.logging.LogFile;
+import de.hofuniversity.iisys.ox.activitystreams.logging.SyncLogOutput;
+import de.hofuniversity.iisys.ox.activitystreams.metrics.DropCounters;
+import de.hofuniversity.iisys.ox.activitystreams.metrics.PipelineMetrics;
+import de.hofuniversity.iisys.ox.activitystreams.metrics.StageTrace;
+import de.hofuniversity.iisys.ox.activitystreams.model.Activity;
+import de.hofuniversity.iisys.ox.activitystreams.model.ActivityObject;
+import de.hofuniversity.iisys.ox.activitystreams.model.ObjectType;
+import de.hofuniversity.iisys.ox.activitystreams.transport.CircuitBreaker;
+import de.hofuniversity.iisys.ox.activitystreams.transport.RetryPolicy;
+import de.hofuniversity.iisys.ox.activitystreams.transport.ShindigClient;
+import de.hofuniversity.iisys.ox.activitystreams.transport.ShindigTransport;
 
 /**
  * Event handler evaluating Open-Xchange groupware events, generating
@@ -33,7 +55,81 @@ import de.hofuniversity.iisys.ox.activitystreams.extractors.TaskExtractor;
  */
 public class ActivityStreamsEventProcessor implements EventHandler
 {
-    private static final String ACT_STR_FRAG = "social/rest/activitystreams/";
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(ActivityStreamsEventProcessor.class);
+    
+    private static final String DROP_FILTERED = "filtered";
+    private static final String DROP_RATE_LIMITED = "rate_limited";
+    
+    private static final ObjectType SUMMARY_TYPE =
+        new ObjectType("open-xchange-summary");
+    
+    private static final String OX_EVENT = "OX_EVENT";
+    private static final String UNKNOWN_TOPIC = "unknown";
+    private static final String EXTRACTOR = "extractor";
+    
+    private static final String MONITOR_NAME =
+        "de.hofuniversity.iisys.ox.activitystreams:type=ActivityStreams";
+    
+    private static final int DEF_LOG_BUFFER_SIZE = 8192;
+    private static final String LOG_BLOCK = "block";
+    private static final int DEF_LOG_MAX_SIZE = 100 * 1024 * 1024;
+    private static final int DEF_LOG_ROTATE_INTERVAL = 1440;
+    private static final int DEF_LOG_FILES = 10;
+    private static final String DEF_LOG_FIELDS = "event,session,context,user";
+    
+    private static final int DEF_QUEUE_SIZE = 10000;
+    private static final int DEF_THREADS = 2;
+    private static final long SHUTDOWN_TIMEOUT = 10000L;
+    
+    private static final int DEF_POOL_SIZE = 8;
+    private static final int DEF_CONNECT_TIMEOUT = 5000;
+    private static final int DEF_READ_TIMEOUT = 15000;
+    
+    private static final int DEF_BATCH_SIZE = 50;
+    private static final int DEF_BATCH_LINGER = 200;
+    
+    private static final int DEF_LANES = 4;
+    private static final int DEF_LANE_SIZE = 1000;
+    private static final int DEF_HIGH_WATERMARK = 800;
+    private static final int DEF_LOW_WATERMARK = 500;
+    private static final int DEF_INVITE_PARALLELISM = 4;
+    
+    private static final int DEF_COALESCE_WINDOW = 30000;
+    
+    private static final int DEF_ACTOR_RATE = 60;
+    private static final int DEF_ACTOR_BURST = 30;
+    private static final int DEF_CONTEXT_RATE = 1200;
+    private static final int DEF_CONTEXT_BURST = 300;
+    
+    private static final int DEF_ACTOR_CACHE_SIZE = 10000;
+    private static final int DEF_ACTOR_CACHE_TTL = 600000;
+    private static final int DEF_FOLDER_CACHE_SIZE = 5000;
+    private static final int DEF_FOLDER_CACHE_TTL = 600000;
+    
+    private static final int DEF_SINK_QUEUE_SIZE = 10000;
+    private static final String DEF_FILE_SINK_PATH =
+        "/var/log/open-xchange/activitystreams.jsonl";
+    private static final int DEF_FILE_SINK_MAX_SIZE = 64 * 1024 * 1024;
+    private static final int DEF_FILE_SINK_FILES = 5;
+    private static final int DEF_FILE_SINK_ROTATE_INTERVAL = 1440;
+    
+    private static final String DEF_OUTBOX_DIR =
+        "/var/spool/open-xchange/activitystreams";
+    private static final int DEF_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int DEF_SYNC_INTERVAL = 5;
+    
+    private static final int DEF_RETRY_ATTEMPTS = 5;
+    private static final int DEF_RETRY_DELAY = 500;
+    private static final int DEF_RETRY_MAX_DELAY = 60000;
+    
+    private static final int DEF_BREAKER_FAILURES = 5;
+    private static final int DEF_BREAKER_RATE = 50;
+    private static final int DEF_BREAKER_WINDOW = 20;
+    private static final int DEF_BREAKER_OPEN_TIME = 30000;
+    
+    private static final int DEF_TRACE_SAMPLING = 10;
+    private static final int DEF_TRACE_SLOW_THRESHOLD = 1000;
     
     private final String fShindigUrl;
     private final String fOxUrl;
@@ -49,18 +145,32 @@ public class ActivityStreamsEventProcessor implements EventHandler
     private final boolean fTaskActivities;
     private final boolean fRsvpActivities;
     
-    private final boolean fFilterPrivFolders;
-    private final boolean fFilterSysFolders;
-    
     private final ActivityStreamsEventLogger fLogger;
     
-    private final CalendarExtractor fCalendarEx;
-    private final ContactExtractor fContactEx;
-    private final TaskExtractor fTaskEx;
+    private final TopicTable fTopicTable;
+    
+    private final ActivityObject fGenerator;
+    
+    private final EventPreFilter fPreFilter;
+    private final DropCounters fDrops;
+    private final PipelineMetrics fMetrics;
+    
+    private final ActorCache fActorCache;
+    private final FolderTargetCache fFolderCache;
+    
+    private final ShindigClient fClient;
+    private final ShindigSender fSender;
+    private final IActivitySink fSink;
+    private final ActivityCoalescer fCoalescer;
     
-    private final JSONObject fGenerator;
+    private final ActivityRateLimiter fRateLimiter;
+    private final boolean fRateSummary;
+    private final AtomicLong fRateLimited;
     
-    private final LinkedList<Object[]> fActivityQueue;
+    private final boolean fAsyncDispatch;
+    private final WorkQueue<EventWorkItem> fEventQueue;
+    
+    private final ObjectName fMonitorName;
     
     /**
      * Creates an event processor using parameters from its configuration,
@@ -70,8 +180,6 @@ public class ActivityStreamsEventProcessor implements EventHandler
      */
     public ActivityStreamsEventProcessor() throws Exception
     {
-        fActivityQueue = new LinkedList<Object[]>();
-        
         //read and set configuration
         Map<String, String> config =
             new ActivityStreamsConfiguration().getConfiguration();
@@ -96,9 +204,9 @@ public class ActivityStreamsEventProcessor implements EventHandler
         fRsvpActivities = Boolean.parseBoolean(
             config.get(ActivityStreamsConfiguration.RSVP_ACTIVITIES));
         
-        fFilterPrivFolders = Boolean.parseBoolean(
+        boolean filterPrivFolders = Boolean.parseBoolean(
             config.get(ActivityStreamsConfiguration.FILTER_PRIV_FOL_CON));
-        fFilterSysFolders = Boolean.parseBoolean(
+        boolean filterSysFolders = Boolean.parseBoolean(
             config.get(ActivityStreamsConfiguration.FILTER_SYSTEM_FOLDERS));
         
         boolean sendInvites = Boolean.parseBoolean(
@@ -114,341 +222,843 @@ public class ActivityStreamsEventProcessor implements EventHandler
         //activate logger if configured
         if(fLogging)
         {
-            fLogger = new ActivityStreamsEventLogger(fLogFile);
+            //rotate by size in bytes and by time in minutes
+            LogFile logFile = new LogFile(new File(fLogFile),
+                ActivityStreamsConfiguration.getInt(config,
+                    ActivityStreamsConfiguration.LOG_MAX_SIZE,
+                    DEF_LOG_MAX_SIZE),
+                ActivityStreamsConfiguration.getInt(config,
+                    ActivityStreamsConfiguration.LOG_ROTATE_INTERVAL,
+                    DEF_LOG_ROTATE_INTERVAL) * 60000L,
+                ActivityStreamsConfiguration.getInt(config,
+                    ActivityStreamsConfiguration.LOG_FILES, DEF_LOG_FILES),
+                Boolean.parseBoolean(config.get(
+                    ActivityStreamsConfiguration.LOG_COMPRESS)));
+            ILogOutput logOutput = null;
+            
+            //write in the background unless configured otherwise
+            if(Boolean.parseBoolean(
+                config.get(ActivityStreamsConfiguration.LOG_ASYNC)))
+            {
+                logOutput = new AsyncLogOutput(logFile,
+                    ActivityStreamsConfiguration.getInt(config,
+                        ActivityStreamsConfiguration.LOG_BUFFER_SIZE,
+                        DEF_LOG_BUFFER_SIZE),
+                    LOG_BLOCK.equals(config.get(
+                        ActivityStreamsConfiguration.LOG_OVERFLOW)));
+            }
+            else
+            {
+                logOutput = new SyncLogOutput(logFile);
+            }
+            
+            String logFields = config.get(
+                ActivityStreamsConfiguration.LOG_FIELDS);
+            if(logFields == null
+                || logFields.trim().isEmpty())
+            {
+                logFields = DEF_LOG_FIELDS;
+            }
+            fLogger = new ActivityStreamsEventLogger(logOutput, logFields);
         }
         else
         {
             fLogger = null;
         }
         
-        //create extractors
-        fCalendarEx = new CalendarExtractor(fOxUrl, sendInvites, filterUnnamed,
-            filterRsvpUpdates, this);
-        fContactEx = new ContactExtractor(fOxUrl, sendDelContacts,
-            filterUnnamed);
-        fTaskEx = new TaskExtractor(fOxUrl, filterUnnamed);
+        //create filter rejecting events before any processing
+        fPreFilter = new EventPreFilter(fCalendarActivities,
+            fContactActivities, fTaskActivities, fRsvpActivities,
+            filterRsvpUpdates, sendDelContacts, filterPrivFolders,
+            filterSysFolders);
+        fDrops = new DropCounters();
+        
+        //trace a percentage of events, keeping those slower than given ms
+        fMetrics = new PipelineMetrics(
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.TRACE_SAMPLING,
+                DEF_TRACE_SAMPLING),
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.TRACE_SLOW_THRESHOLD,
+                DEF_TRACE_SLOW_THRESHOLD) * 1000000L);
+        
+        //create extractors sharing cached folder targets
+        fFolderCache = new FolderTargetCache(
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.FOLDER_CACHE_SIZE,
+                DEF_FOLDER_CACHE_SIZE),
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.FOLDER_CACHE_TTL,
+                DEF_FOLDER_CACHE_TTL));
         
-        //create reusable generator object
-        fGenerator = new JSONObject();
-        fGenerator.put("id", "open-xchange");
-        fGenerator.put("displayName", "Open-Xchange");
-        fGenerator.put("objectType", "application");
-        fGenerator.put("url", fOxUrl);
+        CalendarExtractor calendarEx = new CalendarExtractor(fOxUrl,
+            sendInvites, filterUnnamed, filterRsvpUpdates, this, fFolderCache);
+        ContactExtractor contactEx = new ContactExtractor(fOxUrl,
+            sendDelContacts, filterUnnamed, fFolderCache);
+        TaskExtractor taskEx = new TaskExtractor(fOxUrl, filterUnnamed,
+            fFolderCache);
+        
+        //map topics and modules to extractors once
+        fTopicTable = new TopicTable(calendarEx, contactEx, taskEx);
+        
+        //create reusable, pre-encoded generator object
+        fGenerator = new ActivityObject("open-xchange",
+            ObjectType.APPLICATION, "Open-Xchange", fOxUrl).encode();
+        
+        //cache actors of active users
+        fActorCache = new ActorCache(
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.ACTOR_CACHE_SIZE,
+                DEF_ACTOR_CACHE_SIZE),
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.ACTOR_CACHE_TTL,
+                DEF_ACTOR_CACHE_TTL));
+        
+        //create client reusing connections to shindig
+        ShindigTransport transport = new ShindigTransport(fShindigUrl,
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.HTTP_POOL_SIZE, DEF_POOL_SIZE),
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.HTTP_CONNECT_TIMEOUT,
+                DEF_CONNECT_TIMEOUT),
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.HTTP_READ_TIMEOUT,
+                DEF_READ_TIMEOUT));
+        CircuitBreaker breaker = new CircuitBreaker(
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.BREAKER_FAILURES,
+                DEF_BREAKER_FAILURES),
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.BREAKER_FAILURE_RATE,
+                DEF_BREAKER_RATE),
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.BREAKER_WINDOW,
+                DEF_BREAKER_WINDOW),
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.BREAKER_OPEN_TIME,
+                DEF_BREAKER_OPEN_TIME));
+        fClient = new ShindigClient(transport, breaker, fMetrics);
+        
+        RetryPolicy retryPolicy = new RetryPolicy(
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.RETRY_ATTEMPTS,
+                DEF_RETRY_ATTEMPTS),
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.RETRY_DELAY, DEF_RETRY_DELAY),
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.RETRY_MAX_DELAY,
+                DEF_RETRY_MAX_DELAY));
+        
+        //create configured sinks
+        List<IActivitySink> sinks = new ArrayList<IActivitySink>();
+        ShindigSender sender = null;
+        int sinkQueueSize = ActivityStreamsConfiguration.getInt(config,
+            ActivityStreamsConfiguration.SINK_QUEUE_SIZE, DEF_SINK_QUEUE_SIZE);
+        
+        String sinkNames = config.get(ActivityStreamsConfiguration.SINKS);
+        if(sinkNames == null
+            || sinkNames.trim().isEmpty())
+        {
+            sinkNames = ShindigSender.NAME;
+        }
+        
+        for(String name : sinkNames.split(","))
+        {
+            name = name.trim();
+            
+            if(ShindigSender.NAME.equals(name))
+            {
+                sender = createShindigSender(config, retryPolicy);
+                sinks.add(sender);
+            }
+            else if(FileSink.NAME.equals(name))
+            {
+                String path = config.get(
+                    ActivityStreamsConfiguration.FILE_SINK_PATH);
+                if(path == null
+                    || path.trim().isEmpty())
+                {
+                    path = DEF_FILE_SINK_PATH;
+                }
+                
+                sinks.add(new FileSink(new File(path.trim()),
+                    ActivityStreamsConfiguration.getInt(config,
+                        ActivityStreamsConfiguration.FILE_SINK_MAX_SIZE,
+                        DEF_FILE_SINK_MAX_SIZE),
+                    ActivityStreamsConfiguration.getInt(config,
+                        ActivityStreamsConfiguration.FILE_SINK_ROTATE_INTERVAL,
+                        DEF_FILE_SINK_ROTATE_INTERVAL) * 60000L,
+                    ActivityStreamsConfiguration.getInt(config,
+                        ActivityStreamsConfiguration.FILE_SINK_FILES,
+                        DEF_FILE_SINK_FILES),
+                    Boolean.parseBoolean(config.get(
+                        ActivityStreamsConfiguration.FILE_SINK_COMPRESS)),
+                    sinkQueueSize));
+            }
+            else if(WebhookSink.NAME.equals(name))
+            {
+                String url = config.get(
+                    ActivityStreamsConfiguration.WEBHOOK_URL);
+                if(url == null
+                    || url.trim().isEmpty())
+                {
+                    throw new Exception("no URL configured for webhook sink");
+                }
+                
+                sinks.add(new WebhookSink(url.trim(),
+                    ActivityStreamsConfiguration.getInt(config,
+                        ActivityStreamsConfiguration.HTTP_CONNECT_TIMEOUT,
+                        DEF_CONNECT_TIMEOUT),
+                    ActivityStreamsConfiguration.getInt(config,
+                        ActivityStreamsConfiguration.HTTP_READ_TIMEOUT,
+                        DEF_READ_TIMEOUT),
+                    retryPolicy, sinkQueueSize));
+            }
+            else if(!name.isEmpty())
+            {
+                LOG.warn("unknown activity sink: {}", name);
+            }
+        }
+        
+        fSender = sender;
+        if(sinks.size() == 1)
+        {
+            fSink = sinks.get(0);
+        }
+        else
+        {
+            fSink = new ActivityFanOut(sinks);
+        }
+        
+        //limit activities per actor and context if configured
+        if(Boolean.parseBoolean(
+            config.get(ActivityStreamsConfiguration.RATE_LIMIT)))
+        {
+            fRateLimiter = new ActivityRateLimiter(
+                ActivityStreamsConfiguration.getInt(config,
+                    ActivityStreamsConfiguration.ACTOR_RATE, DEF_ACTOR_RATE),
+                ActivityStreamsConfiguration.getInt(config,
+                    ActivityStreamsConfiguration.ACTOR_BURST,
+                    DEF_ACTOR_BURST),
+                ActivityStreamsConfiguration.getInt(config,
+                    ActivityStreamsConfiguration.CONTEXT_RATE,
+                    DEF_CONTEXT_RATE),
+                ActivityStreamsConfiguration.getInt(config,
+                    ActivityStreamsConfiguration.CONTEXT_BURST,
+                    DEF_CONTEXT_BURST));
+        }
+        else
+        {
+            fRateLimiter = null;
+        }
+        fRateSummary = Boolean.parseBoolean(
+            config.get(ActivityStreamsConfiguration.RATE_LIMIT_SUMMARY));
+        fRateLimited = new AtomicLong();
+        
+        //hold back rapid repeated updates if configured
+        if(Boolean.parseBoolean(
+            config.get(ActivityStreamsConfiguration.COALESCE_UPDATES)))
+        {
+            fCoalescer = new ActivityCoalescer(fSink,
+                ActivityStreamsConfiguration.getInt(config,
+                    ActivityStreamsConfiguration.COALESCE_WINDOW,
+                    DEF_COALESCE_WINDOW), fMetrics);
+        }
+        else
+        {
+            fCoalescer = null;
+        }
+        
+        //start asynchronous processing if configured
+        fAsyncDispatch = Boolean.parseBoolean(
+            config.get(ActivityStreamsConfiguration.ASYNC_DISPATCH));
+        
+        if(fAsyncDispatch)
+        {
+            int queueSize = ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.DISPATCH_QUEUE_SIZE,
+                DEF_QUEUE_SIZE);
+            int threads = ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.DISPATCH_THREADS, DEF_THREADS);
+            
+            fEventQueue = new WorkQueue<EventWorkItem>(
+                "activitystreams-dispatch", queueSize, threads)
+            {
+                @Override
+                protected void process(EventWorkItem item)
+                {
+                    processEvent(item.getEvent(), item.getCommonEvent(),
+                        item.getTopic());
+                }
+            };
+            fEventQueue.start();
+        }
+        else
+        {
+            fEventQueue = null;
+        }
+        
+        //expose metrics through JMX if configured
+        if(Boolean.parseBoolean(
+            config.get(ActivityStreamsConfiguration.JMX_ENABLED)))
+        {
+            fMonitorName = registerMonitor();
+        }
+        else
+        {
+            fMonitorName = null;
+        }
     }
-
+    
     @Override
     public void handleEvent(Event event)
     {
-        //log if configured
-        if(fLogging)
-        {
-            fLogger.logEvent(event);
-        }
-        
-        //create activities
-        Object eObject = event.getProperty("OX_EVENT");
+        Object eObject = event.getProperty(OX_EVENT);
         Object topObj = event.getProperty("event.topics");
         
+        CommonEvent cEvent = null;
         if(eObject != null
             && eObject instanceof CommonEvent)
         {
-            CommonEvent cEvent = (CommonEvent) eObject;
-            String[] topics = topObj.toString().split("/");
+            cEvent = (CommonEvent) eObject;
+        }
+        
+        //only hand over the event to a worker if configured
+        if(fAsyncDispatch)
+        {
+            if(cEvent == null && !fLogging)
+            {
+                return;
+            }
+            
+            //keep each user's events in order on a single worker
+            EventWorkItem item = new EventWorkItem(event, cEvent, topObj);
+            if(!fEventQueue.offer(item, item.getKey()))
+            {
+                long dropped = fEventQueue.getRejected();
+                if(dropped % 1000 == 1)
+                {
+                    LOG.warn("event queue full, {} events dropped so far",
+                        dropped);
+                }
+            }
+        }
+        else
+        {
+            processEvent(event, cEvent, topObj);
+        }
+    }
+    
+    /**
+     * Stops asynchronous processing, processing remaining queued events and
+     * sending remaining batched and held back activities.
+     */
+    public void shutdown()
+    {
+        if(fMonitorName != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                    fMonitorName);
+            }
+            catch(Exception e)
+            {
+                LOG.warn("could not unregister monitoring bean", e);
+            }
+        }
+        
+        if(fEventQueue != null)
+        {
+            fEventQueue.shutdown(SHUTDOWN_TIMEOUT);
+        }
+        
+        if(fCoalescer != null)
+        {
+            fCoalescer.shutdown();
+        }
+        
+        fSink.shutdown();
+        
+        if(fLogger != null)
+        {
+            fLogger.close();
+        }
+    }
+    
+    private void processEvent(Event event, CommonEvent cEvent, Object topObj)
+    {
+        long start = System.nanoTime();
+        
+        //share lookups for this event between logger and extractors
+        EventContext context = null;
+        EventRoute route = null;
+        StageTrace trace = null;
+        String reason = null;
+        if(cEvent != null)
+        {
+            context = new EventContext(cEvent);
+            route = fTopicTable.getRoute(topObj, cEvent);
+            trace = fMetrics.getTracer().start("event", topObj);
             
+            //check filters first, logging the event may need lookups
+            long mark = trace.mark();
+            reason = fPreFilter.check(cEvent, route.getType());
+            trace.stage(StageTrace.FILTER, mark);
+        }
+        
+        //log if configured, filtered events without any lookups
+        if(fLogging)
+        {
+            if(reason == null)
+            {
+                fLogger.logEvent(event, context);
+            }
+            else
+            {
+                fLogger.logOther("filtered event " + topObj + ": " + reason);
+            }
+        }
+        
+        //create activities
+        if(context != null)
+        {
             try
             {
-                generateActivity(cEvent, topics);
+                generateActivity(context, route, reason, trace);
             }
             catch(Exception e)
             {
-                e.printStackTrace();
+                LOG.error("processing event failed: {}", topObj, e);
+                fMetrics.eventFailed();
                 if(fLogging)
                 {
                     fLogger.logOther("exception: " + e.getMessage());
                 }
             }
+            
+            trace.finish();
         }
+        
+        fMetrics.eventHandled(topObj instanceof String ? (String) topObj
+            : UNKNOWN_TOPIC, System.nanoTime() - start);
     }
     
-    private void generateActivity(CommonEvent event, String[] topics)
-        throws Exception
+    private void generateActivity(EventContext context, EventRoute route,
+        String filterReason, StageTrace trace) throws Exception
     {
-        boolean send = true;
-        JSONObject activity = new JSONObject();
-        String userId = null;
+        CommonEvent event = context.getEvent();
+        long mark = trace.mark();
         
-        String action = topics[topics.length - 1];
-        String type = topics[topics.length - 2];
+        //changes to a user's contact may rename the user
+        if(route.getModule() == Types.CONTACT
+            && event.getActionObj() instanceof Contact)
+        {
+            int internalId =
+                ((Contact) event.getActionObj()).getInternalUserId();
+            if(internalId > 0)
+            {
+                fActorCache.invalidate(event.getContextId(), internalId);
+            }
+        }
         
-        //attach user object
-        Session session = event.getSession();
+        fMetrics.eventRouted(route.getType());
         
-        if(session != null)
+        //drop filtered events before doing any lookups
+        if(filterReason != null)
         {
-            int contextId = event.getContextId();
-            Context context = ContextStorage.getInstance()
-                .getContext(contextId);
-            
-            //retrieve internal user object for the session's ID
-            User user = UserStorage.getInstance().getUser(
-                session.getUserId(), context);
-            
-            userId = session.getLogin();
-            
-            JSONObject actor = new JSONObject();
-            actor.put("id", userId);
-            actor.put("objectType", "person");
-            
-            String displayName = user.getGivenName() + " " + user.getSurname();
-            actor.put("displayName", displayName);
-            
-            activity.put("actor", actor);
+            fDrops.increment(DROP_FILTERED, filterReason);
+            return;
         }
         
-        //determine verb for action
-        String verb = "Post";
-        switch(event.getAction())
+        Activity.Builder builder = new Activity.Builder();
+        String userId = null;
+        
+        //attach user object
+        if(context.getSession() != null)
         {
-            case CommonEvent.INSERT:
-                verb = "add";
-                break;
-                
-            case CommonEvent.UPDATE:
-                verb = "update";
-                break;
+            //look up user for the session's ID unless cached
+            Actor actor = fActorCache.getActor(context);
             
-            case CommonEvent.DELETE:
-                verb = "remove";
-                break;
-            
-            //TODO: better verb? - none available
-            case CommonEvent.MOVE:
-                verb = "update";
-                break;
-                
-            case CommonEvent.CONFIRM_ACCEPTED:
-                if(!fRsvpActivities)
-                {
-                    send = false;
-                }
-                verb = "rsvp-yes";
-                break;
-                
-            case CommonEvent.CONFIRM_DECLINED:
-                if(!fRsvpActivities)
-                {
-                    send = false;
-                }
-                verb = "rsvp-no";
-                break;
-                
-            case CommonEvent.CONFIRM_TENTATIVE:
-                if(!fRsvpActivities)
-                {
-                    send = false;
-                }
-                verb = "rsvp-maybe";
-                break;
-
-                //TODO: not right, filter?
-            case CommonEvent.CONFIRM_WAITING:
-                verb = "request";
-                break;
+            userId = actor.getId();
+            builder.setActor(actor.toObject());
+            mark = trace.stage(StageTrace.LOOKUP, mark);
         }
-        activity.put("verb", verb);
+        
+        //determine verb for action
+        int action = event.getAction();
+        boolean rsvp = action == CommonEvent.CONFIRM_ACCEPTED
+            || action == CommonEvent.CONFIRM_DECLINED
+            || action == CommonEvent.CONFIRM_TENTATIVE;
+        builder.setVerb(TopicTable.getVerb(action));
         
         //extract event-specific details
-        switch(type)
+        ActivityBundle followUps = new ActivityBundle();
+        boolean send = route.getExtractor().extract(builder, context,
+            route.getAction(), followUps);
+        mark = trace.stage(StageTrace.EXTRACT, mark);
+        if(!send)
         {
-            case "contact":
-                if(fContactActivities)
-                {
-                    send = fContactEx.extract(activity, event, action);
-                }
-                else
-                {
-                    send = false;
-                }
-                break;
-                
-            case "appointment":
-                if(fCalendarActivities)
-                {
-                    send = fCalendarEx.extract(activity, event, action);
-                }
-                else
-                {
-                    send = false;
-                }
-                break;
-                
-            case "task":
-                if(fTaskActivities)
-                {
-                    send = fTaskEx.extract(activity, event, action);
-                }
-                else
-                {
-                    send = false;
-                }
-                break;
-                
-            case "infostore":
-                //filtered
-                send = false;
-                break;
-                
-            case "folder":
-                //filtered at the moment
-                send = false;
-                break;
+            String reason = context.getFilterReason();
+            fDrops.increment(DROP_FILTERED, reason != null ? reason
+                : EXTRACTOR);
+        }
+        
+        //replies may only have been processed to filter following updates
+        else if(rsvp
+            && !fRsvpActivities)
+        {
+            send = false;
+            fDrops.increment(DROP_FILTERED, EventPreFilter.ACTION);
+        }
+        
+        //add generator
+        Activity activity = builder.setGenerator(fGenerator).build();
+        mark = trace.stage(StageTrace.BUILD, mark);
+        
+        if(fLogActivities)
+        {
+            fLogger.logOther(activity.toString());
+        }
+        
+        //drop activities exceeding their actor's or context's rate, along
+        //with their follow-ups, which must not arrive without them
+        if(fRateLimiter != null
+            && fSendActivities && send)
+        {
+            int uid = context.getUserId();
+            boolean allowed = checkRate(event.getContextId(), uid,
+                1 + followUps.size());
+            mark = trace.stage(StageTrace.FILTER, mark);
+            if(!allowed)
+            {
+                return;
+            }
             
-            default:
-                if(fLogging)
+            //summarize activities dropped since the last one let through
+            if(fRateSummary
+                && uid >= 0)
+            {
+                int rejected = fRateLimiter.takeRejected(
+                    event.getContextId(), uid);
+                if(rejected > 0)
                 {
-                    fLogger.logOther("unknown type: " + type);
+                    followUps.add(createSummary(activity, rejected), userId);
                 }
-                send = false;
-                break;
+            }
         }
         
-        //general folder based filters
-        Object folderObj = event.getSourceFolder();
-        FolderObject folder = null;
-        if(folderObj != null
-            && folderObj instanceof FolderObject)
+        //send activity to shindig, unless it is held back or cancelled
+        if(fSendActivities && send
+            && (fCoalescer == null
+            || !fCoalescer.submit(event.getContextId(), route.getType(),
+                activity, userId, followUps)))
         {
-            folder = (FolderObject) folderObj;
+            //follow-ups are only sent once the activity itself was sent
+            if(followUps.isEmpty())
+            {
+                deliver(activity, userId);
+            }
+            else
+            {
+                followUps.setLead(activity, userId);
+            }
+            fMetrics.activityGenerated(activity.getVerb());
         }
         
-        //filter events from private folders if configured
-        if(fFilterPrivFolders
-            && folder != null
-            && folder.getType() == FolderObject.PRIVATE)
+        //send this event's follow-up activities
+        if(fLogActivities)
         {
-            send = false;
+            for(int i = 0; i < followUps.size(); ++i)
+            {
+                fLogger.logOther(followUps.getActivity(i).toString());
+            }
         }
         
-        //filter events from system folders if configured
-        if(fFilterSysFolders
-            && folder != null
-            && folder.getType() == FolderObject.SYSTEM_TYPE)
+        if(fSendActivities
+            && !followUps.isEmpty())
         {
-            send = false;
+            fSink.deliverAll(followUps);
+            for(int i = 0; i < followUps.size(); ++i)
+            {
+                fMetrics.activityGenerated(
+                    followUps.getActivity(i).getVerb());
+            }
+        }
+    }
+    
+    private boolean checkRate(int contextId, int userId, int activities)
+    {
+        String limit = fRateLimiter.acquire(contextId, userId);
+        if(limit == null)
+        {
+            return true;
         }
         
-        //add generator
-        activity.put("generator", fGenerator);
+        //count drops per limit, the limiter tracks offenders in its buckets
+        fDrops.add(DROP_RATE_LIMITED, limit, activities);
+        long dropped = fRateLimited.addAndGet(activities);
         
-        if(fLogActivities)
+        //warn on the first drop of every thousand
+        if((dropped + 999) / 1000 != (dropped - activities + 999) / 1000)
         {
-            fLogger.logOther(activity.toString());
+            String offender = limit + ":" + contextId;
+            if(ActivityRateLimiter.ACTOR.equals(limit))
+            {
+                offender += "/" + userId;
+            }
+            
+            LOG.warn("rate limit exceeded by {}, {} activities dropped so far "
+                + "by all offenders", offender, dropped);
         }
         
-        //send activity to shindig
-        if(fSendActivities && send)
+        return false;
+    }
+    
+    private Activity createSummary(Activity activity, int rejected)
+    {
+        return new Activity.Builder()
+            .setActor(activity.getActor())
+            .setVerb("post")
+            .setObject(new ActivityObject(null, SUMMARY_TYPE,
+                rejected + " more changes", null))
+            .setTarget(activity.getTarget())
+            .setGenerator(fGenerator)
+            .build();
+    }
+    
+    /*
+     * Creates the delivery pipeline to Shindig, including the outbox if
+     * configured, and resends activities left over from a previous run.
+     */
+    private ShindigSender createShindigSender(Map<String, String> config,
+        RetryPolicy retryPolicy) throws Exception
+    {
+        //persist activities until they are sent if configured
+        Outbox outbox = null;
+        if(Boolean.parseBoolean(
+            config.get(ActivityStreamsConfiguration.OUTBOX_ENABLED)))
         {
-            sendActivity(activity, userId);
+            String outboxDir = config.get(
+                ActivityStreamsConfiguration.OUTBOX_DIRECTORY);
+            if(outboxDir == null
+                || outboxDir.trim().isEmpty())
+            {
+                outboxDir = DEF_OUTBOX_DIR;
+            }
+            
+            outbox = new Outbox(new File(outboxDir.trim()),
+                ActivityStreamsConfiguration.getInt(config,
+                    ActivityStreamsConfiguration.OUTBOX_SEGMENT_SIZE,
+                    DEF_SEGMENT_SIZE),
+                ActivityStreamsConfiguration.getInt(config,
+                    ActivityStreamsConfiguration.OUTBOX_SYNC_INTERVAL,
+                    DEF_SYNC_INTERVAL));
         }
         
-        //send queued activities
-        if(fSendActivities)
+        //collect activities into batches if configured
+        int batchSize = 1;
+        if(Boolean.parseBoolean(
+            config.get(ActivityStreamsConfiguration.BATCH_ACTIVITIES)))
         {
-            sendQueue();
+            batchSize = ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.BATCH_SIZE, DEF_BATCH_SIZE);
         }
+        
+        return new ShindigSender(fClient, outbox,
+            retryPolicy, batchSize, ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.BATCH_LINGER,
+                DEF_BATCH_LINGER),
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.DELIVERY_LANES, DEF_LANES),
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.LANE_QUEUE_SIZE,
+                DEF_LANE_SIZE),
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.LANE_HIGH_WATERMARK,
+                DEF_HIGH_WATERMARK),
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.LANE_LOW_WATERMARK,
+                DEF_LOW_WATERMARK),
+            ActivityStreamsConfiguration.getInt(config,
+                ActivityStreamsConfiguration.INVITE_PARALLELISM,
+                DEF_INVITE_PARALLELISM));
     }
     
-    /**
-     * @return Open-Xchange generator object for activities
+    /*
+     * Registers the monitoring bean with the platform's MBean server.
+     * Failing to do so does not prevent processing events.
      */
-    public JSONObject getGenerator()
+    private ObjectName registerMonitor()
     {
-        return fGenerator;
+        try
+        {
+            ObjectName name = new ObjectName(MONITOR_NAME);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new ActivityStreamsMonitor(this), name);
+            return name;
+        }
+        catch(Exception e)
+        {
+            LOG.warn("could not register monitoring bean", e);
+            return null;
+        }
     }
     
     /**
-     * Sends an activity to the configured Apache Shindig server, in the name
-     * the given user.
+     * Returns the topics this handler needs to receive. Only the topics of
+     * enabled modules are included, unless all events are logged.
      * 
-     * @param activity activity to send to the server
-     * @param user user the activity is for
-     * @throws Exception if sending fails
+     * @return topics to subscribe to
      */
-    public void sendActivity(JSONObject activity, String user) throws Exception
+    public String[] getTopics()
     {
-        final String json = activity.toString();
-        
-        //set parameters for sending
-        URL shindigUrl = new URL(fShindigUrl + ACT_STR_FRAG + user +
-                "/@self");
-        final HttpURLConnection connection =
-            (HttpURLConnection) shindigUrl.openConnection();
-        
-        connection.setRequestMethod("POST");
-        connection.setDoInput(true);
-        connection.setDoOutput(true);
-        connection.setUseCaches(false);
-        connection.setRequestProperty("Content-Type", "application/json");
-        connection.setRequestProperty("Content-Length", String.valueOf(
-            json.length()));
-        
-        //send JSON activity
-        OutputStreamWriter writer = new OutputStreamWriter(
-            connection.getOutputStream(), "UTF-8");
-        writer.write(json);
-        writer.flush();
-        
-        //read reply
-        BufferedReader reader = new BufferedReader(new InputStreamReader(
-            connection.getInputStream()));
+        if(fLogging)
+        {
+            return new String[] {TopicTable.TOPIC_PREFIX + "*",
+                TopicTable.TOPIC_PREFIX + TopicTable.INFOSTORE + "/*"};
+        }
         
-        String line = reader.readLine();
-        while(line != null)
+        List<String> topics = new ArrayList<String>();
+        if(fCalendarActivities)
+        {
+            topics.add(TopicTable.TOPIC_PREFIX + TopicTable.APPOINTMENT
+                + "/*");
+        }
+        if(fContactActivities)
+        {
+            topics.add(TopicTable.TOPIC_PREFIX + TopicTable.CONTACT + "/*");
+        }
+        if(fTaskActivities)
         {
-            line = reader.readLine();
+            topics.add(TopicTable.TOPIC_PREFIX + TopicTable.TASK + "/*");
         }
-        //TODO: evaluate answer?
         
-        reader.close();
+        return topics.toArray(new String[topics.size()]);
     }
     
     /**
-     * Queues an activity to be sent after the next main activity is sent;
+     * Returns an LDAP filter for the events this handler needs to receive.
+     * Unless all events are logged, only events carrying an Open-Xchange
+     * event are needed.
      * 
-     * @param activity activity to enqueue
-     * @param user user to send the activity for
+     * @return event filter or null if all events are needed
      */
-    public void queueActivity(JSONObject activity, String user)
+    public String getEventFilter()
     {
-        Object[] vector = new Object[2];
-        vector[0] = activity;
-        vector[1] = user;
-        
-        synchronized(fActivityQueue)
+        if(fLogging)
         {
-            fActivityQueue.add(vector);
+            return null;
         }
+        
+        return "(" + OX_EVENT + "=*)";
     }
     
-    private void sendQueue() throws Exception
+    /**
+     * @return counters of events dropped before generating activities, by
+     *  reason
+     */
+    public DropCounters getDrops()
     {
-        Object[] vector = null;
-        
-        while(!fActivityQueue.isEmpty())
-        {
-            synchronized(fActivityQueue)
-            {
-                vector = fActivityQueue.pop();
-            }
-            
-            if(fLogActivities)
-            {
-                fLogger.logOther(vector[0].toString());
-            }
-            
-            sendActivity((JSONObject)vector[0], (String)vector[1]);
-        }
-        
-        //TODO: empty queue if sending fails?
+        return fDrops;
+    }
+    
+    /**
+     * @return counters of activities dropped during delivery to Shindig, by
+     *  reason and verb, or null if activities are not sent to Shindig
+     */
+    public DropCounters getDeliveryDrops()
+    {
+        return fSender != null ? fSender.getDrops() : null;
+    }
+    
+    /**
+     * @return counters and latencies of event processing and delivery
+     */
+    public PipelineMetrics getMetrics()
+    {
+        return fMetrics;
+    }
+    
+    /**
+     * @return number of events waiting for asynchronous processing
+     */
+    public int getEventQueueDepth()
+    {
+        return fEventQueue != null ? fEventQueue.size() : 0;
+    }
+    
+    /**
+     * @return number of activities waiting in the configured sinks
+     */
+    public int getDeliveryQueueDepth()
+    {
+        return fSink.size();
+    }
+    
+    /**
+     * @return number of activities currently held back by coalescing
+     */
+    public int getHeldActivities()
+    {
+        return fCoalescer != null ? fCoalescer.size() : 0;
+    }
+    
+    /**
+     * @return number of actors and contexts tracked by the rate limiter
+     */
+    public int getRateLimiterSize()
+    {
+        return fRateLimiter != null ? fRateLimiter.size() : 0;
+    }
+    
+    /**
+     * @return cache of actors for users generating events
+     */
+    public ActorCache getActorCache()
+    {
+        return fActorCache;
+    }
+    
+    /**
+     * @return cache of folder targets shared by all extractors
+     */
+    public FolderTargetCache getFolderCache()
+    {
+        return fFolderCache;
+    }
+    
+    /**
+     * @return Open-Xchange generator object for activities
+     */
+    public ActivityObject getGenerator()
+    {
+        return fGenerator;
+    }
+    
+    /**
+     * Sends an activity to the configured Apache Shindig server, in the name
+     * the given user.
+     * 
+     * @param activity activity to send to the server
+     * @param user user the activity is for
+     * @throws Exception if sending fails
+     */
+    public void sendActivity(Activity activity, String user) throws Exception
+    {
+        fClient.sendActivity(activity, user);
+    }
+    
+    /**
+     * Hands an activity to the delivery pipeline, which stores, batches and
+     * retries it depending on the configuration.
+     * 
+     * @param activity activity to send to the server
+     * @param user user the activity is for
+     * @throws Exception if the activity cannot be stored
+     */
+    private void deliver(Activity activity, String user) throws Exception
+    {
+        fSink.deliver(activity, user);
     }
 }
@@ -0,0 +1,147 @@
+package de.hofuniversity.iisys.ox.activitystreams;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import de.hofuniversity.iisys.ox.activitystreams.metrics.DropCounters;
+import de.hofuniversity.iisys.ox.activitystreams.metrics.HistogramSnapshot;
+
+/**
+ * JMX view of an event processor's metrics. All values are read when they
+ * are requested, so the bean does not add any work to event processing.
+ */
+public class ActivityStreamsMonitor implements ActivityStreamsMonitorMXBean
+{
+    private final ActivityStreamsEventProcessor fProcessor;
+    
+    /**
+     * Creates a monitor reading the metrics of the given processor, which
+     * must not be null.
+     *
+     * @param processor processor to monitor
+     */
+    public ActivityStreamsMonitor(ActivityStreamsEventProcessor processor)
+    {
+        fProcessor = processor;
+    }
+    
+    @Override
+    public Map<String, Long> getEventsPerTopic()
+    {
+        return fProcessor.getMetrics().getEventsPerTopic();
+    }
+    
+    @Override
+    public Map<String, Long> getEventsPerModule()
+    {
+        return fProcessor.getMetrics().getEventsPerModule();
+    }
+    
+    @Override
+    public Map<String, Long> getActivitiesPerVerb()
+    {
+        return fProcessor.getMetrics().getActivitiesPerVerb();
+    }
+    
+    @Override
+    public Map<String, Long> getFilterDrops()
+    {
+        return fProcessor.getDrops().snapshot();
+    }
+    
+    @Override
+    public Map<String, Long> getDeliveryDrops()
+    {
+        DropCounters drops = fProcessor.getDeliveryDrops();
+        if(drops == null)
+        {
+            return Collections.emptyMap();
+        }
+        return drops.snapshot();
+    }
+    
+    @Override
+    public long getEventsFailed()
+    {
+        return fProcessor.getMetrics().getEventsFailed();
+    }
+    
+    @Override
+    public long getInvitesGenerated()
+    {
+        return fProcessor.getMetrics().getInvitesGenerated();
+    }
+    
+    @Override
+    public long getSendsSucceeded()
+    {
+        return fProcessor.getMetrics().getSendsSucceeded();
+    }
+    
+    @Override
+    public long getSendsFailed()
+    {
+        return fProcessor.getMetrics().getSendsFailed();
+    }
+    
+    @Override
+    public int getEventQueueDepth()
+    {
+        return fProcessor.getEventQueueDepth();
+    }
+    
+    @Override
+    public int getDeliveryQueueDepth()
+    {
+        return fProcessor.getDeliveryQueueDepth();
+    }
+    
+    @Override
+    public int getHeldActivities()
+    {
+        return fProcessor.getHeldActivities();
+    }
+    
+    @Override
+    public int getActorCacheSize()
+    {
+        return fProcessor.getActorCache().size();
+    }
+    
+    @Override
+    public int getFolderCacheSize()
+    {
+        return fProcessor.getFolderCache().size();
+    }
+    
+    @Override
+    public int getRateLimiterSize()
+    {
+        return fProcessor.getRateLimiterSize();
+    }
+    
+    @Override
+    public HistogramSnapshot getHandleLatency()
+    {
+        return fProcessor.getMetrics().getHandleLatency();
+    }
+    
+    @Override
+    public HistogramSnapshot getSendLatency()
+    {
+        return fProcessor.getMetrics().getSendLatency();
+    }
+    
+    @Override
+    public Map<String, HistogramSnapshot> getStageLatencies()
+    {
+        return fProcessor.getMetrics().getTracer().snapshot();
+    }
+    
+    @Override
+    public List<String> getSlowTraces()
+    {
+        return fProcessor.getMetrics().getTracer().getSlowTraces();
+    }
+}
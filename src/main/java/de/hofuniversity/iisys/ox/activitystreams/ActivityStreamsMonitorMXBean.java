@@ -0,0 +1,114 @@
+package de.hofuniversity.iisys.ox.activitystreams;
+
+import java.util.List;
+import java.util.Map;
+
+import de.hofuniversity.iisys.ox.activitystreams.metrics.HistogramSnapshot;
+
+/**
+ * Management interface exposing counters, queue depths and latencies of the
+ * activity streams plugin through JMX.
+ * Counters count up from the plugin's start, latencies are given in
+ * microseconds.
+ */
+public interface ActivityStreamsMonitorMXBean
+{
+    /**
+     * @return number of received events per topic
+     */
+    public Map<String, Long> getEventsPerTopic();
+    
+    /**
+     * @return number of events routed to a module, per module
+     */
+    public Map<String, Long> getEventsPerModule();
+    
+    /**
+     * @return number of generated activities per verb
+     */
+    public Map<String, Long> getActivitiesPerVerb();
+    
+    /**
+     * @return number of events not resulting in an activity, keyed by
+     *  "reason/what"
+     */
+    public Map<String, Long> getFilterDrops();
+    
+    /**
+     * @return number of activities dropped during delivery, keyed by
+     *  "reason/verb"
+     */
+    public Map<String, Long> getDeliveryDrops();
+    
+    /**
+     * @return number of events whose processing failed with an exception
+     */
+    public long getEventsFailed();
+    
+    /**
+     * @return number of generated invitations
+     */
+    public long getInvitesGenerated();
+    
+    /**
+     * @return number of successful requests to Shindig
+     */
+    public long getSendsSucceeded();
+    
+    /**
+     * @return number of failed requests to Shindig
+     */
+    public long getSendsFailed();
+    
+    /**
+     * @return number of events waiting for asynchronous processing
+     */
+    public int getEventQueueDepth();
+    
+    /**
+     * @return number of activities waiting for delivery
+     */
+    public int getDeliveryQueueDepth();
+    
+    /**
+     * @return number of activities held back by coalescing
+     */
+    public int getHeldActivities();
+    
+    /**
+     * @return number of cached actors and participants
+     */
+    public int getActorCacheSize();
+    
+    /**
+     * @return number of cached folder targets
+     */
+    public int getFolderCacheSize();
+    
+    /**
+     * @return number of actors and contexts tracked by the rate limiter
+     */
+    public int getRateLimiterSize();
+    
+    /**
+     * @return latencies of processing single events
+     */
+    public HistogramSnapshot getHandleLatency();
+    
+    /**
+     * @return latencies of requests to Shindig
+     */
+    public HistogramSnapshot getSendLatency();
+    
+    /**
+     * @return latencies of the stages of sampled events and requests, by
+     *  stage name
+     */
+    public Map<String, HistogramSnapshot> getStageLatencies();
+    
+    /**
+     * @return most recent slow events and requests with their stage
+     *  breakdown, newest first
+     */
+    public List<String> getSlowTraces();
+}
@@ -0,0 +1,170 @@
+package de.hofuniversity.iisys.ox.activitystreams;
+
+import com.openexchange.event.CommonEvent;
+import com.openexchange.groupware.container.FolderObject;
+import com.openexchange.groupware.contexts.Context;
+import com.openexchange.groupware.contexts.impl.ContextStorage;
+import com.openexchange.groupware.ldap.User;
+import com.openexchange.groupware.ldap.UserStorage;
+import com.openexchange.session.Session;
+
+/**
+ * Everything known about a single event while it is logged and turned into
+ * activities, shared by the logger, the processor and the extractors.
+ * The event's context and acting user are only looked up when first needed
+ * and at most once, so that every component can ask for them without
+ * causing additional storage round trips. Failed lookups are not repeated
+ * either, their exception is thrown again instead.
+ * Instances are not thread-safe and are only used by the thread processing
+ * the event.
+ */
+public class EventContext
+{
+    private final CommonEvent fEvent;
+    
+    private boolean fContextResolved;
+    private Context fContext;
+    private Exception fContextError;
+    
+    private boolean fUserResolved;
+    private User fUser;
+    private Exception fUserError;
+    
+    private String fFilterReason;
+    
+    /**
+     * Creates a context for the given event without looking anything up.
+     * The given event must not be null.
+     *
+     * @param event event to create a context for
+     */
+    public EventContext(CommonEvent event)
+    {
+        fEvent = event;
+    }
+    
+    /**
+     * @return event this context was created for
+     */
+    public CommonEvent getEvent()
+    {
+        return fEvent;
+    }
+    
+    /**
+     * @return session that caused the event or null
+     */
+    public Session getSession()
+    {
+        return fEvent.getSession();
+    }
+    
+    /**
+     * @return ID of the event's context
+     */
+    public int getContextId()
+    {
+        return fEvent.getContextId();
+    }
+    
+    /**
+     * @return ID of the acting user or a negative value without a session
+     */
+    public int getUserId()
+    {
+        Session session = fEvent.getSession();
+        return session != null ? session.getUserId() : -1;
+    }
+    
+    /**
+     * Returns the event's context, looking it up on first use.
+     *
+     * @return context of the event
+     * @throws Exception if the lookup fails
+     */
+    public Context getContext() throws Exception
+    {
+        if(!fContextResolved)
+        {
+            fContextResolved = true;
+            try
+            {
+                fContext = ContextStorage.getInstance().getContext(
+                    fEvent.getContextId());
+            }
+            catch(Exception e)
+            {
+                fContextError = e;
+            }
+        }
+        
+        if(fContextError != null)
+        {
+            throw fContextError;
+        }
+        return fContext;
+    }
+    
+    /**
+     * Returns the user of the event's session, looking it up on first use.
+     *
+     * @return acting user or null if the event has no session
+     * @throws Exception if the lookup fails
+     */
+    public User getUser() throws Exception
+    {
+        if(!fUserResolved)
+        {
+            fUserResolved = true;
+            
+            Session session = fEvent.getSession();
+            if(session != null)
+            {
+                try
+                {
+                    fUser = UserStorage.getInstance().getUser(
+                        session.getUserId(), getContext());
+                }
+                catch(Exception e)
+                {
+                    fUserError = e;
+                }
+            }
+        }
+        
+        if(fUserError != null)
+        {
+            throw fUserError;
+        }
+        return fUser;
+    }
+    
+    /**
+     * Records why the event does not result in an activity, so that the
+     * drop can be counted by its reason.
+     *
+     * @param reason reason as defined in EventPreFilter
+     */
+    public void setFilterReason(String reason)
+    {
+        fFilterReason = reason;
+    }
+    
+    /**
+     * @return reason recorded for not sending an activity or null
+     */
+    public String getFilterReason()
+    {
+        return fFilterReason;
+    }
+    
+    /**
+     * @return folder the event's object is located in or null if the event
+     *  does not carry it
+     */
+    public FolderObject getFolder()
+    {
+        Object folder = fEvent.getSourceFolder();
+        return folder instanceof FolderObject ? (FolderObject) folder : null;
+    }
+}
@@ -0,0 +1,184 @@
+package de.hofuniversity.iisys.ox.activitystreams;
+
+import com.openexchange.event.CommonEvent;
+import com.openexchange.groupware.container.CommonObject;
+import com.openexchange.groupware.container.FolderObject;
+
+/**
+ * Cheap filter deciding whether an event can result in an activity at all,
+ * using only the event's module, action, folder type and private flag.
+ * It runs before any storage lookups or activities are created, so events
+ * that are filtered anyway do not cost any further processing.
+ * Instances are immutable and thus thread-safe.
+ */
+public class EventPreFilter
+{
+    /**
+     * Reason for events of modules that are not handled or disabled.
+     */
+    public static final String MODULE = "module";
+    
+    /**
+     * Reason for events with actions that are disabled.
+     */
+    public static final String ACTION = "action";
+    
+    /**
+     * Reason for events in filtered private folders.
+     */
+    public static final String PRIVATE_FOLDER = "private_folder";
+    
+    /**
+     * Reason for events in filtered system folders.
+     */
+    public static final String SYSTEM_FOLDER = "system_folder";
+    
+    /**
+     * Reason for events for objects marked private.
+     */
+    public static final String PRIVATE = "private";
+    
+    /**
+     * Reason for events for objects without a name, rejected by extractors.
+     */
+    public static final String UNNAMED = "unnamed";
+    
+    /**
+     * Reason for updates following a reply to an invitation, rejected by
+     * extractors.
+     */
+    public static final String RSVP_COOLDOWN = "rsvp_cooldown";
+    
+    private final boolean fCalendarActivities;
+    private final boolean fContactActivities;
+    private final boolean fTaskActivities;
+    
+    private final boolean fRsvpActivities;
+    private final boolean fFilterRsvpUpdates;
+    private final boolean fContactDeletions;
+    
+    private final boolean fFilterPrivFolders;
+    private final boolean fFilterSysFolders;
+    
+    /**
+     * Creates a filter according to the given settings.
+     *
+     * @param calendarActivities whether to handle calendar events
+     * @param contactActivities whether to handle contact events
+     * @param taskActivities whether to handle task events
+     * @param rsvpActivities whether to generate activities for replies to
+     *  invitations
+     * @param filterRsvpUpdates whether replies to invitations are needed to
+     *  filter the following updates
+     * @param contactDeletions whether to generate activities for contact
+     *  deletions
+     * @param filterPrivFolders whether to filter events in private folders
+     * @param filterSysFolders whether to filter events in system folders
+     */
+    public EventPreFilter(boolean calendarActivities,
+        boolean contactActivities, boolean taskActivities,
+        boolean rsvpActivities, boolean filterRsvpUpdates,
+        boolean contactDeletions, boolean filterPrivFolders,
+        boolean filterSysFolders)
+    {
+        fCalendarActivities = calendarActivities;
+        fContactActivities = contactActivities;
+        fTaskActivities = taskActivities;
+        fRsvpActivities = rsvpActivities;
+        fFilterRsvpUpdates = filterRsvpUpdates;
+        fContactDeletions = contactDeletions;
+        fFilterPrivFolders = filterPrivFolders;
+        fFilterSysFolders = filterSysFolders;
+    }
+    
+    /**
+     * Checks whether an event of the given type needs to be processed.
+     *
+     * @param event event to check
+     * @param type type of the event as defined in TopicTable
+     * @return null if the event needs to be processed, the reason otherwise
+     */
+    public String check(CommonEvent event, String type)
+    {
+        //disabled and unsupported modules
+        boolean calendar = false;
+        switch(type)
+        {
+            case TopicTable.APPOINTMENT:
+                if(!fCalendarActivities)
+                {
+                    return MODULE;
+                }
+                calendar = true;
+                break;
+            
+            case TopicTable.CONTACT:
+                if(!fContactActivities)
+                {
+                    return MODULE;
+                }
+                break;
+            
+            case TopicTable.TASK:
+                if(!fTaskActivities)
+                {
+                    return MODULE;
+                }
+                break;
+            
+            default:
+                return MODULE;
+        }
+        
+        //disabled actions
+        switch(event.getAction())
+        {
+            case CommonEvent.CONFIRM_ACCEPTED:
+            case CommonEvent.CONFIRM_DECLINED:
+            case CommonEvent.CONFIRM_TENTATIVE:
+                //replies to appointments may still block following updates
+                if(!fRsvpActivities
+                    && !(calendar && fFilterRsvpUpdates))
+                {
+                    return ACTION;
+                }
+                break;
+            
+            case CommonEvent.DELETE:
+                if(!fContactDeletions
+                    && TopicTable.CONTACT.equals(type))
+                {
+                    return ACTION;
+                }
+                break;
+        }
+        
+        //filtered folders
+        Object folderObj = event.getSourceFolder();
+        if(folderObj instanceof FolderObject)
+        {
+            int folderType = ((FolderObject) folderObj).getType();
+            
+            if(fFilterPrivFolders
+                && folderType == FolderObject.PRIVATE)
+            {
+                return PRIVATE_FOLDER;
+            }
+            if(fFilterSysFolders
+                && folderType == FolderObject.SYSTEM_TYPE)
+            {
+                return SYSTEM_FOLDER;
+            }
+        }
+        
+        //objects marked private
+        Object actionObj = event.getActionObj();
+        if(actionObj instanceof CommonObject
+            && ((CommonObject) actionObj).getPrivateFlag())
+        {
+            return PRIVATE;
+        }
+        
+        return null;
+    }
+}
@@ -0,0 +1,65 @@
+package de.hofuniversity.iisys.ox.activitystreams;
+
+import de.hofuniversity.iisys.ox.activitystreams.extractors.IExtractor;
+
+/**
+ * Immutable descriptor for events of one module and action, naming the
+ * module's type and the extractor handling its events.
+ */
+public final class EventRoute
+{
+    private final int fModule;
+    private final String fType;
+    private final String fAction;
+    private final IExtractor fExtractor;
+    
+    /**
+     * Creates a route for a module and action.
+     *
+     * @param module module ID as defined in Types
+     * @param type type of the module as used in topics
+     * @param action action as used in topics
+     * @param extractor extractor handling the events or null
+     */
+    public EventRoute(int module, String type, String action,
+        IExtractor extractor)
+    {
+        fModule = module;
+        fType = type;
+        fAction = action;
+        fExtractor = extractor;
+    }
+    
+    /**
+     * @return module ID as defined in Types
+     */
+    public int getModule()
+    {
+        return fModule;
+    }
+    
+    /**
+     * @return type of the module as used in topics
+     */
+    public String getType()
+    {
+        return fType;
+    }
+    
+    /**
+     * @return action as used in topics
+     */
+    public String getAction()
+    {
+        return fAction;
+    }
+    
+    /**
+     * @return extractor handling the events or null if the module is not
+     *  supported
+     */
+    public IExtractor getExtractor()
+    {
+        return fExtractor;
+    }
+}
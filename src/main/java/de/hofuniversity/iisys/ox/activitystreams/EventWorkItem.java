@@ -0,0 +1,70 @@
+package de.hofuniversity.iisys.ox.activitystreams;
+
+import org.osgi.service.event.Event;
+
+import com.openexchange.event.CommonEvent;
+
+/**
+ * Compact representation of a received event, queued for asynchronous
+ * activity generation.
+ */
+public class EventWorkItem
+{
+    private final Event fEvent;
+    private final CommonEvent fCommonEvent;
+    private final Object fTopic;
+    
+    /**
+     * Creates a work item for an incoming event.
+     * The raw event is only needed for debug logging and may be null.
+     *
+     * @param event raw OSGi event or null
+     * @param commonEvent contained Open-Xchange event or null
+     * @param topic topic the event was posted under
+     */
+    public EventWorkItem(Event event, CommonEvent commonEvent, Object topic)
+    {
+        fEvent = event;
+        fCommonEvent = commonEvent;
+        fTopic = topic;
+    }
+    
+    /**
+     * @return raw OSGi event or null
+     */
+    public Event getEvent()
+    {
+        return fEvent;
+    }
+    
+    /**
+     * @return contained Open-Xchange event or null
+     */
+    public CommonEvent getCommonEvent()
+    {
+        return fCommonEvent;
+    }
+    
+    /**
+     * @return topic the event was posted under
+     */
+    public Object getTopic()
+    {
+        return fTopic;
+    }
+    
+    /**
+     * Returns a key identifying the event's acting user, so that events of
+     * the same user are processed in order by the same worker.
+     *
+     * @return key derived from context and user or 0 without a common event
+     */
+    public int getKey()
+    {
+        if(fCommonEvent == null)
+        {
+            return 0;
+        }
+        return fCommonEvent.getContextId() * 31 + fCommonEvent.getUserId();
+    }
+}
@@ -0,0 +1,183 @@
+package de.hofuniversity.iisys.ox.activitystreams;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.openexchange.event.CommonEvent;
+import com.openexchange.groupware.Types;
+
+import de.hofuniversity.iisys.ox.activitystreams.extractors.IExtractor;
+
+/**
+ * Dispatch table built at startup, mapping event topics and Open-Xchange
+ * module IDs to routes without parsing topics for every event.
+ * Topics are looked up first. Events with unknown topics are routed by their
+ * module and action instead. Verbs for actions are looked up in a fixed
+ * table. Instances are immutable and thus thread-safe.
+ */
+public class TopicTable
+{
+    /**
+     * Common prefix of all groupware event topics.
+     */
+    public static final String TOPIC_PREFIX = "com/openexchange/groupware/";
+    
+    /**
+     * Type of calendar events.
+     */
+    public static final String APPOINTMENT = "appointment";
+    
+    /**
+     * Type of contact events.
+     */
+    public static final String CONTACT = "contact";
+    
+    /**
+     * Type of task events.
+     */
+    public static final String TASK = "task";
+    
+    /**
+     * Type of infostore events.
+     */
+    public static final String INFOSTORE = "infostore";
+    
+    /**
+     * Type of folder events.
+     */
+    public static final String FOLDER = "folder";
+    
+    private static final String UNKNOWN = "unknown";
+    
+    private static final String DEF_VERB = "Post";
+    
+    private static final EventRoute UNKNOWN_ROUTE =
+        new EventRoute(-1, UNKNOWN, UNKNOWN, null);
+    
+    //verbs and topic actions indexed by CommonEvent action constants
+    private static final String[] VERBS = new String[9];
+    private static final String[] ACTIONS = new String[9];
+    
+    static
+    {
+        setAction(CommonEvent.INSERT, "insert", "add");
+        setAction(CommonEvent.UPDATE, "update", "update");
+        setAction(CommonEvent.DELETE, "delete", "remove");
+        //TODO: better verb? - none available
+        setAction(CommonEvent.MOVE, "move", "update");
+        setAction(CommonEvent.CONFIRM_ACCEPTED, "accepted", "rsvp-yes");
+        setAction(CommonEvent.CONFIRM_DECLINED, "declined", "rsvp-no");
+        setAction(CommonEvent.CONFIRM_TENTATIVE, "tentative", "rsvp-maybe");
+        //TODO: not right, filter?
+        setAction(CommonEvent.CONFIRM_WAITING, "waiting", "request");
+    }
+    
+    private final Map<String, EventRoute> fTopics;
+    
+    private final EventRoute[][] fModules;
+    private final int[] fModuleIds;
+    
+    /**
+     * Creates a dispatch table for the given extractors.
+     *
+     * @param calendarEx extractor for calendar events
+     * @param contactEx extractor for contact events
+     * @param taskEx extractor for task events
+     */
+    public TopicTable(IExtractor calendarEx, IExtractor contactEx,
+        IExtractor taskEx)
+    {
+        fModuleIds = new int[] {Types.APPOINTMENT, Types.CONTACT, Types.TASK,
+            Types.INFOSTORE, Types.FOLDER};
+        String[] types = {APPOINTMENT, CONTACT, TASK, INFOSTORE, FOLDER};
+        IExtractor[] extractors = {calendarEx, contactEx, taskEx, null, null};
+        
+        fTopics = new HashMap<String, EventRoute>();
+        fModules = new EventRoute[fModuleIds.length][ACTIONS.length];
+        
+        for(int m = 0; m < fModuleIds.length; ++m)
+        {
+            for(int a = 0; a < ACTIONS.length; ++a)
+            {
+                String action = ACTIONS[a] != null ? ACTIONS[a] : UNKNOWN;
+                EventRoute route = new EventRoute(fModuleIds[m], types[m],
+                    action, extractors[m]);
+                
+                fModules[m][a] = route;
+                if(ACTIONS[a] != null)
+                {
+                    fTopics.put(TOPIC_PREFIX + types[m] + "/" + action,
+                        route);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Determines the route for an event, by its topic if known or by its
+     * module and action otherwise.
+     *
+     * @param topic topic of the event
+     * @param event event to route
+     * @return route for the event, never null
+     */
+    public EventRoute getRoute(Object topic, CommonEvent event)
+    {
+        EventRoute route = null;
+        if(topic instanceof String)
+        {
+            route = fTopics.get(topic);
+        }
+        
+        if(route == null)
+        {
+            route = getRoute(event.getModule(), event.getAction());
+        }
+        
+        return route;
+    }
+    
+    /**
+     * Determines the route for events of a module and action.
+     *
+     * @param module module ID as defined in Types
+     * @param action action as defined in CommonEvent
+     * @return route for such events, never null
+     */
+    public EventRoute getRoute(int module, int action)
+    {
+        int a = action > 0 && action < ACTIONS.length ? action : 0;
+        
+        for(int m = 0; m < fModuleIds.length; ++m)
+        {
+            if(fModuleIds[m] == module)
+            {
+                return fModules[m][a];
+            }
+        }
+        
+        return UNKNOWN_ROUTE;
+    }
+    
+    /**
+     * @param action action as defined in CommonEvent
+     * @return verb for activities resulting from the action
+     */
+    public static String getVerb(int action)
+    {
+        if(action > 0
+            && action < VERBS.length
+            && VERBS[action] != null)
+        {
+            return VERBS[action];
+        }
+        
+        return DEF_VERB;
+    }
+    
+    private static void setAction(int action, String name, String verb)
+    {
+        ACTIONS[action] = name;
+        VERBS[action] = verb;
+    }
+}
@@ -0,0 +1,55 @@
+package de.hofuniversity.iisys.ox.activitystreams.cache;
+
+import de.hofuniversity.iisys.ox.activitystreams.model.ActivityObject;
+import de.hofuniversity.iisys.ox.activitystreams.model.ObjectType;
+
+/**
+ * Immutable description of a person appearing in activities, either as the
+ * actor or as the object of an activity, including its encoded entity.
+ * The entity is shared between activities.
+ */
+public final class Actor
+{
+    private final String fId;
+    private final String fDisplayName;
+    private final ActivityObject fObject;
+    
+    /**
+     * Creates a person with the given ID and name and encodes its entity.
+     *
+     * @param id ID of the person, usually the login
+     * @param displayName name to display
+     */
+    public Actor(String id, String displayName)
+    {
+        fId = id;
+        fDisplayName = displayName;
+        
+        fObject = new ActivityObject(id, ObjectType.PERSON, displayName,
+            null).encode();
+    }
+    
+    /**
+     * @return ID of the person
+     */
+    public String getId()
+    {
+        return fId;
+    }
+    
+    /**
+     * @return name to display
+     */
+    public String getDisplayName()
+    {
+        return fDisplayName;
+    }
+    
+    /**
+     * @return shared encoded entity
+     */
+    public ActivityObject toObject()
+    {
+        return fObject;
+    }
+}
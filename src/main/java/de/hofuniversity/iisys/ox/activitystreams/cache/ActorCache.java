@@ -0,0 +1,180 @@
+package de.hofuniversity.iisys.ox.activitystreams.cache;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.openexchange.groupware.ldap.User;
+import com.openexchange.groupware.ldap.UserStorage;
+import com.openexchange.session.Session;
+
+import de.hofuniversity.iisys.ox.activitystreams.EventContext;
+
+/**
+ * Cache for actor fragments keyed by context and user ID, avoiding context
+ * and user lookups for users generating many events.
+ * Users appearing as objects, such as invited participants, are cached
+ * separately, since they are identified by their login info rather than the
+ * login used for their session. Missing participants are looked up in a
+ * single bulk request. Lookups reuse the context and user already resolved
+ * for the event being processed.
+ * Entries are evicted when the cache is full or expire after a fixed time,
+ * and can be invalidated explicitly when a user changes.
+ */
+public class ActorCache
+{
+    private final LruCache<Long, Actor> fCache;
+    private final LruCache<Long, Actor> fParticipants;
+    
+    /**
+     * Creates an empty actor cache.
+     *
+     * @param maxSize maximum number of cached actors
+     * @param ttl time in milliseconds after which actors are looked up again
+     */
+    public ActorCache(int maxSize, long ttl)
+    {
+        fCache = new LruCache<Long, Actor>(maxSize, ttl);
+        fParticipants = new LruCache<Long, Actor>(maxSize, ttl);
+    }
+    
+    /**
+     * Returns the actor for the user of an event's session, looking it up if
+     * it is not cached. The session's login is used as the actor's ID.
+     * The given event context must have a session.
+     *
+     * @param event context of the event the user caused
+     * @return actor for the user
+     * @throws Exception if the lookup fails
+     */
+    public Actor getActor(EventContext event) throws Exception
+    {
+        Session session = event.getSession();
+        String login = session.getLogin();
+        
+        Long key = getKey(event.getContextId(), session.getUserId());
+        Actor actor = fCache.get(key);
+        
+        //the same user may log in with different login strings
+        if(actor == null
+            || !actor.getId().equals(login))
+        {
+            User user = event.getUser();
+            
+            actor = new Actor(login,
+                user.getGivenName() + " " + user.getSurname());
+            fCache.put(key, actor);
+        }
+        
+        return actor;
+    }
+    
+    /**
+     * Returns the persons for the given participants, looking up all
+     * participants that are not cached at once. The persons' IDs are their
+     * login infos.
+     *
+     * @param event context of the event the participants belong to
+     * @param userIds IDs of the participants
+     * @return persons in the order of the given IDs
+     * @throws Exception if the lookup fails
+     */
+    public Actor[] getParticipants(EventContext event, int[] userIds)
+        throws Exception
+    {
+        int contextId = event.getContextId();
+        Actor[] people = new Actor[userIds.length];
+        
+        int[] missing = new int[userIds.length];
+        int missCount = 0;
+        for(int i = 0; i < userIds.length; ++i)
+        {
+            people[i] = fParticipants.get(getKey(contextId, userIds[i]));
+            
+            if(people[i] == null)
+            {
+                missing[missCount++] = userIds[i];
+            }
+        }
+        
+        if(missCount == 0)
+        {
+            return people;
+        }
+        
+        //resolve all missing participants with one request
+        User[] users = UserStorage.getInstance().getUser(event.getContext(),
+            Arrays.copyOf(missing, missCount));
+        
+        Map<Integer, Actor> resolved = new HashMap<Integer, Actor>();
+        for(User user : users)
+        {
+            Actor person = new Actor(user.getLoginInfo(),
+                user.getGivenName() + " " + user.getSurname());
+            fParticipants.put(getKey(contextId, user.getId()), person);
+            resolved.put(user.getId(), person);
+        }
+        
+        for(int i = 0; i < userIds.length; ++i)
+        {
+            if(people[i] == null)
+            {
+                people[i] = resolved.get(userIds[i]);
+            }
+        }
+        
+        return people;
+    }
+    
+    /**
+     * Removes a user's actor, for example after the user was renamed.
+     *
+     * @param contextId ID of the user's context
+     * @param userId ID of the user
+     */
+    public void invalidate(int contextId, int userId)
+    {
+        Long key = getKey(contextId, userId);
+        fCache.invalidate(key);
+        fParticipants.invalidate(key);
+    }
+    
+    /**
+     * Removes all cached actors.
+     */
+    public void invalidateAll()
+    {
+        fCache.invalidateAll();
+        fParticipants.invalidateAll();
+    }
+    
+    /**
+     * @return number of cached actors and participants
+     */
+    public int size()
+    {
+        return fCache.size() + fParticipants.size();
+    }
+    
+    /**
+     * @return number of lookups answered from the cache
+     */
+    public long getHits()
+    {
+        return fCache.getHits() + fParticipants.getHits();
+    }
+    
+    /**
+     * @return number of lookups that were not cached
+     */
+    public long getMisses()
+    {
+        return fCache.getMisses() + fParticipants.getMisses();
+    }
+    
+    private static Long getKey(int contextId, int userId)
+    {
+        return Long.valueOf(((long) contextId << 32)
+            | (userId & 0xFFFFFFFFL));
+    }
+}
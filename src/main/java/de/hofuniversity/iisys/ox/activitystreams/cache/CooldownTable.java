@@ -0,0 +1,131 @@
+package de.hofuniversity.iisys.ox.activitystreams.cache;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free table of short cooldown periods keyed by an object ID and a user
+ * ID.
+ * Expiry runs on a timer wheel with slots as wide as the cooldown period:
+ * every cooldown is also queued in the slot of the tick it expires in, and
+ * whenever the clock has advanced to a new tick, a single caller removes the
+ * expired cooldowns of the elapsed slots. The cost of expiry is thus
+ * proportional to the number of expired cooldowns, not to the table's size.
+ */
+public class CooldownTable
+{
+    //must be at least 3, the current and next tick's slots are never swept
+    private static final int SLOTS = 8;
+    
+    private final long fDuration;
+    
+    private final ConcurrentMap<Long, Long> fExpiries;
+    private final Queue<Long>[] fSlots;
+    
+    private final AtomicLong fSwept;
+    
+    /**
+     * Creates an empty cooldown table.
+     *
+     * @param duration length of cooldown periods in milliseconds
+     */
+    //generic arrays can't be created directly, all slots hold Long keys
+    @SuppressWarnings("unchecked")
+    public CooldownTable(long duration)
+    {
+        fDuration = Math.max(1L, duration);
+        
+        fExpiries = new ConcurrentHashMap<Long, Long>();
+        fSlots = (Queue<Long>[]) new Queue<?>[SLOTS];
+        for(int i = 0; i < SLOTS; ++i)
+        {
+            fSlots[i] = new ConcurrentLinkedQueue<Long>();
+        }
+        
+        fSwept = new AtomicLong(System.currentTimeMillis() / fDuration);
+    }
+    
+    /**
+     * Starts or restarts the cooldown for a user and an object.
+     *
+     * @param objectId ID of the object
+     * @param userId ID of the user
+     */
+    public void start(int objectId, int userId)
+    {
+        long now = System.currentTimeMillis();
+        expire(now);
+        
+        Long key = getKey(objectId, userId);
+        long expiry = now + fDuration;
+        
+        fExpiries.put(key, expiry);
+        fSlots[(int) ((expiry / fDuration) % SLOTS)].add(key);
+    }
+    
+    /**
+     * Checks whether a cooldown for a user and an object is active.
+     *
+     * @param objectId ID of the object
+     * @param userId ID of the user
+     * @return whether the cooldown is active
+     */
+    public boolean isActive(int objectId, int userId)
+    {
+        long now = System.currentTimeMillis();
+        expire(now);
+        
+        Long expiry = fExpiries.get(getKey(objectId, userId));
+        return expiry != null
+            && expiry >= now;
+    }
+    
+    /**
+     * @return number of cooldowns that have not been removed yet
+     */
+    public int size()
+    {
+        return fExpiries.size();
+    }
+    
+    private void expire(long now)
+    {
+        long tick = now / fDuration;
+        long last = fSwept.get();
+        
+        //only one caller sweeps each elapsed tick
+        if(tick <= last
+            || !fSwept.compareAndSet(last, tick))
+        {
+            return;
+        }
+        
+        for(long t = Math.max(last, tick - (SLOTS - 2)); t < tick; ++t)
+        {
+            Queue<Long> slot = fSlots[(int) (t % SLOTS)];
+            
+            Long key = slot.poll();
+            while(key != null)
+            {
+                //restarted cooldowns are queued again in a later slot
+                Long expiry = fExpiries.get(key);
+                if(expiry != null
+                    && expiry < now)
+                {
+                    fExpiries.remove(key, expiry);
+                }
+                
+                key = slot.poll();
+            }
+        }
+    }
+    
+    private static Long getKey(int objectId, int userId)
+    {
+        return Long.valueOf(((long) objectId << 32)
+            | (userId & 0xFFFFFFFFL));
+    }
+}
@@ -0,0 +1,48 @@
+package de.hofuniversity.iisys.ox.activitystreams.cache;
+
+import de.hofuniversity.iisys.ox.activitystreams.model.ActivityObject;
+import de.hofuniversity.iisys.ox.activitystreams.model.ObjectType;
+
+/**
+ * Immutable folder used as the target of activities, including its encoded
+ * entity.
+ * The entity is shared between activities.
+ */
+public final class FolderTarget
+{
+    private final String fId;
+    private final ActivityObject fObject;
+    
+    /**
+     * Creates a folder target and encodes its entity.
+     *
+     * @param id ID of the folder
+     * @param objectType object type of the folder
+     * @param displayName name of the folder
+     * @param url link to the folder
+     */
+    public FolderTarget(String id, ObjectType objectType, String displayName,
+        String url)
+    {
+        fId = id;
+        
+        fObject = new ActivityObject(id, objectType, displayName, url)
+            .encode();
+    }
+    
+    /**
+     * @return ID of the folder
+     */
+    public String getId()
+    {
+        return fId;
+    }
+    
+    /**
+     * @return shared encoded entity
+     */
+    public ActivityObject toObject()
+    {
+        return fObject;
+    }
+}
@@ -0,0 +1,125 @@
+package de.hofuniversity.iisys.ox.activitystreams.cache;
+
+import java.util.Date;
+
+import com.openexchange.groupware.container.FolderObject;
+
+import de.hofuniversity.iisys.ox.activitystreams.extractors.UrlTemplate;
+import de.hofuniversity.iisys.ox.activitystreams.model.ObjectType;
+
+/**
+ * Cache for folder targets shared by all extractors, keyed by context,
+ * folder ID and the folder's last modification, so renamed folders are
+ * rebuilt right away.
+ */
+public class FolderTargetCache
+{
+    private final LruCache<Key, FolderTarget> fCache;
+    
+    /**
+     * Creates an empty folder target cache.
+     *
+     * @param maxSize maximum number of cached folders
+     * @param ttl time in milliseconds after which folders are rebuilt
+     */
+    public FolderTargetCache(int maxSize, long ttl)
+    {
+        fCache = new LruCache<Key, FolderTarget>(maxSize, ttl);
+    }
+    
+    /**
+     * Returns the target for a folder, building it if it is not cached.
+     *
+     * @param contextId ID of the folder's context
+     * @param folder folder to get the target for
+     * @param objectType object type of folders of this kind
+     * @param urls template for links to the folder's app
+     * @return target for the folder
+     * @throws Exception if building the target fails
+     */
+    public FolderTarget getTarget(int contextId, FolderObject folder,
+        ObjectType objectType, UrlTemplate urls) throws Exception
+    {
+        Date modified = folder.getLastModified();
+        Key key = new Key(contextId, folder.getObjectID(),
+            modified != null ? modified.getTime() : 0L);
+        
+        FolderTarget target = fCache.get(key);
+        if(target == null)
+        {
+            String id = Integer.toString(folder.getObjectID());
+            target = new FolderTarget(id, objectType,
+                folder.getFolderName(), urls.getFolderUrl(id));
+            fCache.put(key, target);
+        }
+        
+        return target;
+    }
+    
+    /**
+     * Removes all cached folders.
+     */
+    public void invalidateAll()
+    {
+        fCache.invalidateAll();
+    }
+    
+    /**
+     * @return number of cached folders
+     */
+    public int size()
+    {
+        return fCache.size();
+    }
+    
+    /**
+     * @return number of lookups answered from the cache
+     */
+    public long getHits()
+    {
+        return fCache.getHits();
+    }
+    
+    /**
+     * @return number of lookups that were not cached
+     */
+    public long getMisses()
+    {
+        return fCache.getMisses();
+    }
+    
+    private static final class Key
+    {
+        private final int fContextId;
+        private final int fFolderId;
+        private final long fModified;
+        
+        private Key(int contextId, int folderId, long modified)
+        {
+            fContextId = contextId;
+            fFolderId = folderId;
+            fModified = modified;
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            int hash = 31 * fContextId + fFolderId;
+            return 31 * hash + (int) (fModified ^ (fModified >>> 32));
+        }
+        
+        @Override
+        public boolean equals(Object obj)
+        {
+            if(!(obj instanceof Key))
+            {
+                return false;
+            }
+            
+            Key other = (Key) obj;
+            return fContextId == other.fContextId
+                && fFolderId == other.fFolderId
+                && fModified == other.fModified;
+        }
+    }
+}
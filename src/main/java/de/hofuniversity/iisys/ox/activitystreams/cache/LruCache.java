@@ -0,0 +1,162 @@
+package de.hofuniversity.iisys.ox.activitystreams.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded cache evicting the least recently used entry once full.
+ * Entries also expire a fixed time after they were stored, so changes to the
+ * underlying data show up eventually even without explicit invalidation.
+ * Hits and misses are counted. Instances are thread-safe.
+ *
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class LruCache<K, V>
+{
+    private final int fMaxSize;
+    private final long fTtl;
+    
+    private final LinkedHashMap<K, Timed<V>> fEntries;
+    
+    private final AtomicLong fHits;
+    private final AtomicLong fMisses;
+    
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxSize maximum number of entries
+     * @param ttl time in milliseconds after which entries expire
+     */
+    public LruCache(int maxSize, long ttl)
+    {
+        fMaxSize = Math.max(1, maxSize);
+        fTtl = Math.max(1L, ttl);
+        
+        fEntries = new LinkedHashMap<K, Timed<V>>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Timed<V>> e)
+            {
+                return size() > fMaxSize;
+            }
+        };
+        
+        fHits = new AtomicLong();
+        fMisses = new AtomicLong();
+    }
+    
+    /**
+     * Returns the value stored for a key, if it has not expired yet.
+     *
+     * @param key key to look up
+     * @return cached value or null
+     */
+    public V get(K key)
+    {
+        Timed<V> entry = null;
+        synchronized(fEntries)
+        {
+            entry = fEntries.get(key);
+            
+            if(entry != null
+                && entry.fExpires < System.currentTimeMillis())
+            {
+                fEntries.remove(key);
+                entry = null;
+            }
+        }
+        
+        if(entry == null)
+        {
+            fMisses.incrementAndGet();
+            return null;
+        }
+        
+        fHits.incrementAndGet();
+        return entry.fValue;
+    }
+    
+    /**
+     * Stores a value, replacing any previous value for the same key.
+     *
+     * @param key key to store the value for
+     * @param value value to store
+     */
+    public void put(K key, V value)
+    {
+        Timed<V> entry = new Timed<V>(value,
+            System.currentTimeMillis() + fTtl);
+        
+        synchronized(fEntries)
+        {
+            fEntries.put(key, entry);
+        }
+    }
+    
+    /**
+     * Removes the value stored for a key.
+     *
+     * @param key key to remove
+     */
+    public void invalidate(K key)
+    {
+        synchronized(fEntries)
+        {
+            fEntries.remove(key);
+        }
+    }
+    
+    /**
+     * Removes all values.
+     */
+    public void invalidateAll()
+    {
+        synchronized(fEntries)
+        {
+            fEntries.clear();
+        }
+    }
+    
+    /**
+     * @return number of values currently stored, including expired ones
+     */
+    public int size()
+    {
+        synchronized(fEntries)
+        {
+            return fEntries.size();
+        }
+    }
+    
+    /**
+     * @return number of successful lookups since creation
+     */
+    public long getHits()
+    {
+        return fHits.get();
+    }
+    
+    /**
+     * @return number of failed lookups since creation
+     */
+    public long getMisses()
+    {
+        return fMisses.get();
+    }
+    
+    private static class Timed<V>
+    {
+        private final V fValue;
+        private final long fExpires;
+        
+        private Timed(V value, long expires)
+        {
+            fValue = value;
+            fExpires = expires;
+        }
+    }
+}
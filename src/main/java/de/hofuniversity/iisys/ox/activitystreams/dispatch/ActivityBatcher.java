@@ -0,0 +1,171 @@
+package de.hofuniversity.iisys.ox.activitystreams.dispatch;
+
+import java.util.List;
+
+import de.hofuniversity.iisys.ox.activitystreams.transport.HttpStatusException;
+import de.hofuniversity.iisys.ox.activitystreams.transport.RpcUnsupportedException;
+import de.hofuniversity.iisys.ox.activitystreams.transport.ShindigClient;
+
+/**
+ * Sends collected activities to Shindig in JSON-RPC batches.
+ * Activities rejected within a batch are resent individually. If the server
+ * does not offer the JSON-RPC endpoint, batching is switched off and all
+ * activities are sent individually.
+ * The outcome for every activity is reported to a delivery callback, in the
+ * order of the given activities. If the server cannot be reached or an
+ * activity failed in a way that is retried, the remaining activities are
+ * reported as failed without trying them, so they are retried in their
+ * original order. Instances are thread-safe.
+ */
+public class ActivityBatcher
+{
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(ActivityBatcher.class);
+    
+    private final ShindigClient fClient;
+    private final int fBatchSize;
+    
+    private volatile boolean fRpcAvailable;
+    
+    /**
+     * Creates a batcher sending through the given client.
+     * The given client must not be null.
+     *
+     * @param client client to send batches with
+     * @param batchSize maximum number of activities per batch, 1 to send all
+     *  activities individually
+     */
+    public ActivityBatcher(ShindigClient client, int batchSize)
+    {
+        fClient = client;
+        fBatchSize = Math.max(1, batchSize);
+        
+        fRpcAvailable = fBatchSize > 1;
+    }
+    
+    /**
+     * @return maximum number of activities per batch
+     */
+    public int getBatchSize()
+    {
+        return fBatchSize;
+    }
+    
+    /**
+     * Sends the given activities in batches of at most the configured size.
+     *
+     * @param activities activities to send
+     * @param callback callback to report results to
+     */
+    public void send(List<OutgoingActivity> activities,
+        IDeliveryCallback callback)
+    {
+        for(int start = 0; start < activities.size(); start += fBatchSize)
+        {
+            int end = Math.min(activities.size(), start + fBatchSize);
+            Exception e = sendBatch(activities.subList(start, end), callback);
+            
+            if(e != null)
+            {
+                failAll(activities.subList(end, activities.size()), e,
+                    callback);
+                return;
+            }
+        }
+    }
+    
+    /*
+     * Returns the exception if the server could not be reached, which ends
+     * processing of the remaining activities.
+     */
+    private Exception sendBatch(List<OutgoingActivity> batch,
+        IDeliveryCallback callback)
+    {
+        List<OutgoingActivity> single = batch;
+        
+        if(batch.size() > 1
+            && fRpcAvailable)
+        {
+            try
+            {
+                single = fClient.sendBatch(batch);
+                
+                for(OutgoingActivity outgoing : batch)
+                {
+                    if(!single.contains(outgoing))
+                    {
+                        callback.delivered(outgoing);
+                    }
+                }
+            }
+            catch(HttpStatusException e)
+            {
+                //fall back to the REST API if there is no JSON-RPC endpoint
+                if(e.getStatus() == 404
+                    || e.getStatus() == 405
+                    || e.getStatus() == 501)
+                {
+                    LOG.warn("JSON-RPC batches not supported, sending "
+                        + "activities individually ({})", e.getMessage());
+                    fRpcAvailable = false;
+                }
+                else if(e.isRetryable())
+                {
+                    failAll(batch, e, callback);
+                    return e;
+                }
+                
+                //otherwise find out which activities were rejected
+            }
+            catch(RpcUnsupportedException e)
+            {
+                LOG.warn("JSON-RPC batches not supported, sending "
+                    + "activities individually ({})", e.getMessage());
+                fRpcAvailable = false;
+            }
+            catch(Exception e)
+            {
+                failAll(batch, e, callback);
+                return e;
+            }
+        }
+        
+        for(int i = 0; i < single.size(); ++i)
+        {
+            OutgoingActivity outgoing = single.get(i);
+            try
+            {
+                fClient.sendActivity(outgoing.getActivity(),
+                    outgoing.getUser());
+                callback.delivered(outgoing);
+            }
+            catch(HttpStatusException e)
+            {
+                //don't let later activities overtake one that is retried
+                if(e.isRetryable())
+                {
+                    failAll(single.subList(i, single.size()), e, callback);
+                    return e;
+                }
+                callback.failed(outgoing, e);
+            }
+            catch(Exception e)
+            {
+                //don't let later activities overtake this one
+                failAll(single.subList(i, single.size()), e, callback);
+                return e;
+            }
+        }
+        
+        return null;
+    }
+    
+    private void failAll(List<OutgoingActivity> batch, Exception e,
+        IDeliveryCallback callback)
+    {
+        for(OutgoingActivity outgoing : batch)
+        {
+            callback.failed(outgoing, e);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package de.hofuniversity.iisys.ox.activitystreams.dispatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.hofuniversity.iisys.ox.activitystreams.model.Activity;
+
+/**
+ * Follow-up activities generated while processing a single event, such as
+ * invitations for the participants of an appointment.
+ * Each event gets its own bundle, which is delivered as a whole. If the
+ * event's main activity is sent as well, it is set as the bundle's lead and
+ * the follow-ups are only delivered after it. Instances are not thread-safe
+ * and are only used by the thread processing the event.
+ */
+public class ActivityBundle
+{
+    private final List<Activity> fActivities;
+    private final List<String> fUsers;
+    
+    private Activity fLead;
+    private String fLeadUser;
+    
+    /**
+     * Creates an empty bundle.
+     */
+    public ActivityBundle()
+    {
+        fActivities = new ArrayList<Activity>();
+        fUsers = new ArrayList<String>();
+    }
+    
+    /**
+     * Adds an activity to the bundle.
+     *
+     * @param activity activity to send
+     * @param user user the activity is for
+     */
+    public void add(Activity activity, String user)
+    {
+        fActivities.add(activity);
+        fUsers.add(user);
+    }
+    
+    /**
+     * Sets the activity the follow-ups of the bundle are delivered after.
+     *
+     * @param activity main activity of the event
+     * @param user user the main activity is for
+     */
+    public void setLead(Activity activity, String user)
+    {
+        fLead = activity;
+        fLeadUser = user;
+    }
+    
+    /**
+     * @return main activity of the event or null if it is not sent
+     */
+    public Activity getLead()
+    {
+        return fLead;
+    }
+    
+    /**
+     * @return user the main activity is for
+     */
+    public String getLeadUser()
+    {
+        return fLeadUser;
+    }
+    
+    /**
+     * @return number of follow-up activities in the bundle
+     */
+    public int size()
+    {
+        return fActivities.size();
+    }
+    
+    /**
+     * @return whether the bundle contains no follow-up activities
+     */
+    public boolean isEmpty()
+    {
+        return fActivities.isEmpty();
+    }
+    
+    /**
+     * @param index index of an activity
+     * @return activity at the given index
+     */
+    public Activity getActivity(int index)
+    {
+        return fActivities.get(index);
+    }
+    
+    /**
+     * @param index index of an activity
+     * @return user the activity at the given index is for
+     */
+    public String getUser(int index)
+    {
+        return fUsers.get(index);
+    }
+}
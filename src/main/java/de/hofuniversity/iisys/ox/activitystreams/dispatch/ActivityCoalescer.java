@@ -0,0 +1,356 @@
+package de.hofuniversity.iisys.ox.activitystreams.dispatch;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import de.hofuniversity.iisys.ox.activitystreams.metrics.PipelineMetrics;
+import de.hofuniversity.iisys.ox.activitystreams.model.Activity;
+import de.hofuniversity.iisys.ox.activitystreams.model.ActivityObject;
+
+/**
+ * Coalescing stage holding back "add" and "update" activities for a fixed
+ * window, so that rapid repeated changes to the same groupware object by the
+ * same user only result in a single activity.
+ * Activities are grouped by context, module, object ID and actor. Within the
+ * window, a later update replaces a held activity, keeping the verb "add" if
+ * the object was only just created. A "remove" cancels held activities - if
+ * the object was created within the window, neither activity is sent.
+ * Windows start with the first held activity and are not extended by later
+ * ones, so constantly changing objects still show up in the stream.
+ * Activities with follow-ups, such as invitations, are never held, since
+ * their follow-ups would otherwise reach the server first. Instead, an
+ * activity held for the same object is released right away, keeping the
+ * object's activities in order. Activities submitted while an activity for
+ * the same object is being released wait until it was handed to the sink.
+ * Held activities are not stored in the outbox and are lost if the server
+ * crashes. Instances are thread-safe.
+ */
+public class ActivityCoalescer
+{
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(ActivityCoalescer.class);
+    
+    private static final String VERB_ADD = "add";
+    private static final String VERB_UPDATE = "update";
+    private static final String VERB_REMOVE = "remove";
+    
+    private final IActivitySink fSink;
+    private final long fWindow;
+    private final PipelineMetrics fMetrics;
+    
+    //insertion order equals deadline order, since all windows are equal
+    private final LinkedHashMap<String, Held> fHeld;
+    
+    //keys of released activities not yet handed to the sink
+    private final Set<String> fReleasing;
+    
+    private final Thread fThread;
+    
+    private volatile boolean fRunning;
+    
+    private long fCoalesced;
+    
+    /**
+     * Creates a coalescer handing released activities to the given sink and
+     * starts its thread.
+     * The given sink must not be null.
+     *
+     * @param sink sink to release activities to
+     * @param window time in milliseconds activities are held
+     * @param metrics metrics to count released activities in or null
+     */
+    public ActivityCoalescer(IActivitySink sink, long window,
+        PipelineMetrics metrics)
+    {
+        fSink = sink;
+        fWindow = Math.max(1L, window);
+        fMetrics = metrics;
+        
+        fHeld = new LinkedHashMap<String, Held>();
+        fReleasing = new HashSet<String>();
+        
+        fRunning = true;
+        fThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                work();
+            }
+        }, "activitystreams-coalescer");
+        fThread.setDaemon(true);
+        fThread.start();
+    }
+    
+    /**
+     * Offers an activity to the coalescer. If it is not taken, the caller
+     * has to send it right away, followed by its follow-ups.
+     *
+     * @param contextId ID of the context the object belongs to
+     * @param module module the object belongs to
+     * @param activity activity to send
+     * @param user user the activity is for
+     * @param followUps follow-up activities of the activity, never null
+     * @return whether the activity was held back or cancelled
+     */
+    public boolean submit(int contextId, String module, Activity activity,
+        String user, ActivityBundle followUps)
+    {
+        String verb = activity.getVerb() != null ? activity.getVerb() : "";
+        ActivityObject object = activity.getObject();
+        
+        if(!fRunning
+            || object == null
+            || object.getId() == null
+            || !(VERB_ADD.equals(verb)
+            || VERB_UPDATE.equals(verb)
+            || VERB_REMOVE.equals(verb)))
+        {
+            return false;
+        }
+        
+        String key = contextId + "/" + module + "/" + object.getId()
+            + "/" + user;
+        
+        //release a held activity before one that can't be held
+        if(!followUps.isEmpty())
+        {
+            Held held = null;
+            synchronized(fHeld)
+            {
+                awaitRelease(key);
+                held = fHeld.remove(key);
+                if(held != null)
+                {
+                    fReleasing.add(key);
+                }
+            }
+            if(held != null)
+            {
+                deliver(held);
+            }
+            return false;
+        }
+        
+        synchronized(fHeld)
+        {
+            awaitRelease(key);
+            
+            //activities held after the final release would be lost
+            if(!fRunning)
+            {
+                return false;
+            }
+            
+            Held held = fHeld.get(key);
+            
+            if(VERB_REMOVE.equals(verb))
+            {
+                if(held == null)
+                {
+                    return false;
+                }
+                
+                fHeld.remove(key);
+                ++fCoalesced;
+                
+                //objects that were only just created never show up
+                return VERB_ADD.equals(held.fVerb);
+            }
+            
+            if(held == null)
+            {
+                fHeld.put(key, new Held(key, activity, user, verb,
+                    System.currentTimeMillis() + fWindow));
+                fHeld.notifyAll();
+                return true;
+            }
+            
+            //keep the first verb, but send the latest state
+            if(!held.fVerb.equals(verb))
+            {
+                activity = activity.withVerb(held.fVerb);
+            }
+            held.fActivity = activity;
+            ++fCoalesced;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @return number of activities currently held back
+     */
+    public int size()
+    {
+        synchronized(fHeld)
+        {
+            return fHeld.size();
+        }
+    }
+    
+    /**
+     * @return number of activities replaced or cancelled since creation
+     */
+    public long getCoalesced()
+    {
+        synchronized(fHeld)
+        {
+            return fCoalesced;
+        }
+    }
+    
+    /**
+     * Stops the coalescer's thread and releases all held activities.
+     */
+    public void shutdown()
+    {
+        synchronized(fHeld)
+        {
+            fRunning = false;
+        }
+        fThread.interrupt();
+        
+        try
+        {
+            fThread.join(1000L);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        
+        release(Long.MAX_VALUE);
+    }
+    
+    private void work()
+    {
+        try
+        {
+            while(fRunning)
+            {
+                synchronized(fHeld)
+                {
+                    long wait = fWindow;
+                    if(!fHeld.isEmpty())
+                    {
+                        wait = fHeld.values().iterator().next().fDeadline
+                            - System.currentTimeMillis();
+                    }
+                    
+                    if(wait > 0)
+                    {
+                        fHeld.wait(wait);
+                    }
+                }
+                
+                release(System.currentTimeMillis());
+            }
+        }
+        catch(InterruptedException e)
+        {
+            //shutting down
+        }
+    }
+    
+    private void release(long now)
+    {
+        List<Held> due = new ArrayList<Held>();
+        
+        synchronized(fHeld)
+        {
+            Iterator<Held> iter = fHeld.values().iterator();
+            while(iter.hasNext())
+            {
+                Held held = iter.next();
+                if(held.fDeadline > now)
+                {
+                    break;
+                }
+                
+                due.add(held);
+                fReleasing.add(held.fKey);
+                iter.remove();
+            }
+        }
+        
+        for(Held held : due)
+        {
+            deliver(held);
+        }
+    }
+    
+    private void deliver(Held held)
+    {
+        try
+        {
+            fSink.deliver(held.fActivity, held.fUser);
+            if(fMetrics != null)
+            {
+                fMetrics.activityGenerated(held.fActivity.getVerb());
+            }
+        }
+        catch(Exception e)
+        {
+            LOG.error("releasing coalesced activity failed", e);
+        }
+        finally
+        {
+            synchronized(fHeld)
+            {
+                fReleasing.remove(held.fKey);
+                fHeld.notifyAll();
+            }
+        }
+    }
+    
+    /*
+     * Waits until an activity released for the given key was handed to the
+     * sink, so later activities for the object can't overtake it. Must be
+     * called holding the lock on fHeld.
+     */
+    private void awaitRelease(String key)
+    {
+        boolean interrupted = false;
+        while(fReleasing.contains(key))
+        {
+            try
+            {
+                fHeld.wait();
+            }
+            catch(InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        
+        if(interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static class Held
+    {
+        private final String fKey;
+        private final String fUser;
+        private final String fVerb;
+        private final long fDeadline;
+        
+        private Activity fActivity;
+        
+        private Held(String key, Activity activity, String user, String verb,
+            long deadline)
+        {
+            fKey = key;
+            fActivity = activity;
+            fUser = user;
+            fVerb = verb;
+            fDeadline = deadline;
+        }
+    }
+}
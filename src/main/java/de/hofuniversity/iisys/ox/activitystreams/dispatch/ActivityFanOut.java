@@ -0,0 +1,89 @@
+package de.hofuniversity.iisys.ox.activitystreams.dispatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.hofuniversity.iisys.ox.activitystreams.model.Activity;
+
+/**
+ * Sink handing every activity to a list of other sinks. A sink failing to
+ * accept an activity does not affect the other sinks.
+ */
+public class ActivityFanOut implements IActivitySink
+{
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(ActivityFanOut.class);
+    
+    private final List<IActivitySink> fSinks;
+    
+    /**
+     * Creates a fan-out to the given sinks.
+     * The given list must not be null.
+     *
+     * @param sinks sinks to deliver to
+     */
+    public ActivityFanOut(List<IActivitySink> sinks)
+    {
+        fSinks = new ArrayList<IActivitySink>(sinks);
+    }
+    
+    @Override
+    public String getName()
+    {
+        return "fan-out";
+    }
+    
+    @Override
+    public void deliver(Activity activity, String user) throws Exception
+    {
+        for(IActivitySink sink : fSinks)
+        {
+            try
+            {
+                sink.deliver(activity, user);
+            }
+            catch(Exception e)
+            {
+                LOG.error("sink " + sink.getName()
+                    + " did not accept activity", e);
+            }
+        }
+    }
+    
+    @Override
+    public void deliverAll(ActivityBundle bundle) throws Exception
+    {
+        for(IActivitySink sink : fSinks)
+        {
+            try
+            {
+                sink.deliverAll(bundle);
+            }
+            catch(Exception e)
+            {
+                LOG.error("sink " + sink.getName()
+                    + " did not accept activities", e);
+            }
+        }
+    }
+    
+    @Override
+    public int size()
+    {
+        int size = 0;
+        for(IActivitySink sink : fSinks)
+        {
+            size += sink.size();
+        }
+        return size;
+    }
+    
+    @Override
+    public void shutdown()
+    {
+        for(IActivitySink sink : fSinks)
+        {
+            sink.shutdown();
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package de.hofuniversity.iisys.ox.activitystreams.dispatch;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.hofuniversity.iisys.ox.activitystreams.metrics.DropCounters;
+import de.hofuniversity.iisys.ox.activitystreams.transport.CircuitOpenException;
+import de.hofuniversity.iisys.ox.activitystreams.transport.RetryPolicy;
+
+/**
+ * Single-consumer delivery lane sending the activities of a subset of users
+ * strictly in the order they were queued.
+ * The lane's thread collects queued activities into batches, waiting up to
+ * the linger time for a batch to fill up. Failed activities are retried
+ * before any later activity is sent, so a user's activities never overtake
+ * each other. While the circuit breaker is open, the lane waits and its
+ * queue keeps filling up.
+ * Once the queue reaches its high watermark, the lane sheds load until it
+ * has drained down to its low watermark: low priority activities are
+ * rejected right away, medium priority activities once the queue is filled
+ * halfway between the high watermark and its capacity. High priority
+ * activities are only rejected if the queue is full. Queueing never blocks.
+ */
+public class DeliveryLane implements IDeliveryCallback
+{
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(DeliveryLane.class);
+    
+    private static final long POLL_INTERVAL = 500L;
+    
+    /**
+     * Drop reason for activities rejected while shedding load.
+     */
+    public static final String DROP_SHED = "shed";
+    
+    /**
+     * Drop reason for activities rejected because the queue was full.
+     */
+    public static final String DROP_QUEUE_FULL = "queue_full";
+    
+    /**
+     * Drop reason for activities the server rejected permanently.
+     */
+    public static final String DROP_REJECTED = "rejected";
+    
+    /**
+     * Drop reason for activities that still failed after all retries.
+     */
+    public static final String DROP_GIVEN_UP = "given_up";
+    
+    private final String fName;
+    private final BlockingQueue<OutgoingActivity> fQueue;
+    private final ActivityBatcher fBatcher;
+    private final RetryPolicy fRetryPolicy;
+    private final Outbox fOutbox;
+    private final ShindigSender fSender;
+    private final long fLinger;
+    
+    private final int fCapacity;
+    private final int fHighWatermark;
+    private final int fLowWatermark;
+    private final int fMediumLimit;
+    
+    private final AtomicLong fRejected;
+    private final DropCounters fDrops;
+    
+    private final Thread fThread;
+    
+    private volatile boolean fRunning;
+    private volatile boolean fShedding;
+    
+    //activities recovered from the outbox, sent before any queued activity
+    private final Queue<OutgoingActivity> fBacklog;
+    private volatile int fBacklogSize;
+    
+    //retry state, only accessed by the lane's thread
+    private final List<OutgoingActivity> fFailed;
+    private long fRetryDelay;
+    
+    /**
+     * Creates a delivery lane. The lane is not started until start() is
+     * called.
+     * The given batcher and retry policy must not be null.
+     *
+     * @param name name of the lane's thread
+     * @param capacity maximum number of waiting activities
+     * @param highWatermark number of waiting activities starting load
+     *  shedding
+     * @param lowWatermark number of waiting activities ending load shedding
+     * @param drops counters to record rejected activities in
+     * @param batcher batcher to send activities with
+     * @param retryPolicy policy for retrying failed activities
+     * @param outbox outbox to acknowledge sent activities in or null
+     * @param linger maximum time in milliseconds to wait for a batch to fill
+     *  up
+     * @param sender sender to release follow-up activities through or null
+     */
+    public DeliveryLane(String name, int capacity, int highWatermark,
+        int lowWatermark, DropCounters drops, ActivityBatcher batcher,
+        RetryPolicy retryPolicy, Outbox outbox, long linger,
+        ShindigSender sender)
+    {
+        fName = name;
+        fCapacity = Math.max(1, capacity);
+        fQueue = new ArrayBlockingQueue<OutgoingActivity>(fCapacity);
+        fHighWatermark = Math.min(fCapacity, Math.max(1, highWatermark));
+        fLowWatermark = Math.min(fHighWatermark, Math.max(0, lowWatermark));
+        fMediumLimit = fHighWatermark + (fCapacity - fHighWatermark) / 2;
+        fDrops = drops;
+        fBatcher = batcher;
+        fRetryPolicy = retryPolicy;
+        fOutbox = outbox;
+        fLinger = Math.max(0L, linger);
+        fSender = sender;
+        
+        fRejected = new AtomicLong();
+        fBacklog = new ArrayDeque<OutgoingActivity>();
+        fFailed = new ArrayList<OutgoingActivity>();
+        
+        fThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                work();
+            }
+        }, fName);
+        fThread.setDaemon(true);
+    }
+    
+    /**
+     * Starts the lane's thread.
+     */
+    public void start()
+    {
+        fRunning = true;
+        fThread.start();
+    }
+    
+    /**
+     * Queues an activity without blocking, unless it is shed due to load.
+     *
+     * @param outgoing activity to send
+     * @return whether the activity was accepted
+     */
+    public boolean offer(OutgoingActivity outgoing)
+    {
+        final int depth = fQueue.size();
+        
+        //switch load shedding on and off with hysteresis
+        if(fShedding)
+        {
+            if(depth <= fLowWatermark)
+            {
+                fShedding = false;
+                LOG.info("{}: down to {} waiting activities, stopped "
+                    + "shedding load", fName, depth);
+            }
+        }
+        else if(depth >= fHighWatermark)
+        {
+            fShedding = true;
+            LOG.warn("{}: {} waiting activities, shedding load", fName,
+                depth);
+        }
+        
+        if(fShedding
+            && (outgoing.getPriority() == OutgoingActivity.PRIORITY_LOW
+            || (outgoing.getPriority() == OutgoingActivity.PRIORITY_MEDIUM
+            && depth >= fMediumLimit)))
+        {
+            reject(outgoing, DROP_SHED);
+            return false;
+        }
+        
+        if(fRunning
+            && fQueue.offer(outgoing))
+        {
+            return true;
+        }
+        
+        reject(outgoing, DROP_QUEUE_FULL);
+        return false;
+    }
+    
+    /**
+     * Adds an activity recovered from the outbox, which is sent before any
+     * queued activity regardless of the lane's capacity. Must only be called
+     * before the lane is started.
+     *
+     * @param outgoing activity to send
+     */
+    public void recover(OutgoingActivity outgoing)
+    {
+        fBacklog.add(outgoing);
+        fBacklogSize = fBacklog.size();
+    }
+    
+    /**
+     * @return number of activities waiting in this lane
+     */
+    public int size()
+    {
+        return fQueue.size() + fBacklogSize;
+    }
+    
+    /**
+     * @return number of activities rejected since creation
+     */
+    public long getRejected()
+    {
+        return fRejected.get();
+    }
+    
+    /**
+     * @return whether the lane is currently shedding load
+     */
+    public boolean isShedding()
+    {
+        return fShedding;
+    }
+    
+    /**
+     * Stops accepting activities and waits up to the given time for the
+     * remaining activities to be sent. Activities that could not be sent
+     * remain in the outbox, if there is one.
+     *
+     * @param timeout maximum time to wait in milliseconds
+     */
+    public void shutdown(long timeout)
+    {
+        fRunning = false;
+        
+        try
+        {
+            fThread.join(Math.max(1L, timeout));
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        fThread.interrupt();
+        
+        int left = size();
+        if(left > 0)
+        {
+            LOG.warn("{}: {} activities not sent", fName, left);
+            fQueue.clear();
+        }
+    }
+    
+    private void reject(OutgoingActivity outgoing, String reason)
+    {
+        fRejected.incrementAndGet();
+        fDrops.increment(reason, outgoing.getVerb());
+        
+        //rejected activities are not sent again after a restart
+        delivered(outgoing);
+    }
+    
+    @Override
+    public void delivered(OutgoingActivity outgoing)
+    {
+        if(fOutbox != null
+            && outgoing.getSeq() != OutgoingActivity.NO_SEQ)
+        {
+            try
+            {
+                fOutbox.acknowledge(outgoing.getSeq());
+            }
+            catch(IOException e)
+            {
+                LOG.error("acknowledging activity failed", e);
+            }
+        }
+        
+        //the activity is done with, its follow-ups may overtake each other
+        if(fSender != null)
+        {
+            fSender.release(outgoing);
+        }
+    }
+    
+    @Override
+    public void failed(OutgoingActivity outgoing, Exception e)
+    {
+        //hold back activities until the server is tried again
+        if(e instanceof CircuitOpenException)
+        {
+            fFailed.add(outgoing);
+            fRetryDelay = Math.max(fRetryDelay,
+                ((CircuitOpenException) e).getRemaining()
+                + fRetryPolicy.getDelay(1));
+            return;
+        }
+        
+        int attempts = outgoing.addAttempt();
+        
+        if(!fRetryPolicy.isRetryable(e))
+        {
+            LOG.warn("activity for {} rejected, dropping it: {}",
+                outgoing.getUser(), e.getMessage());
+            
+            //never send again
+            fDrops.increment(DROP_REJECTED, outgoing.getVerb());
+            delivered(outgoing);
+        }
+        else if(fRetryPolicy.hasAttemptsLeft(attempts))
+        {
+            fFailed.add(outgoing);
+            fRetryDelay = Math.max(fRetryDelay,
+                fRetryPolicy.getDelay(attempts));
+        }
+        else
+        {
+            LOG.warn("giving up on activity for {} after {} attempts: {}",
+                outgoing.getUser(), attempts, e.getMessage());
+            
+            //never send again, not even after a restart
+            fDrops.increment(DROP_GIVEN_UP, outgoing.getVerb());
+            delivered(outgoing);
+        }
+    }
+    
+    private void work()
+    {
+        final List<OutgoingActivity> pending =
+            new ArrayList<OutgoingActivity>(fBatcher.getBatchSize());
+        
+        try
+        {
+            while(fRunning || !fQueue.isEmpty())
+            {
+                collect(pending);
+                
+                if(!pending.isEmpty())
+                {
+                    send(pending);
+                    pending.clear();
+                }
+            }
+        }
+        catch(InterruptedException e)
+        {
+            //shutting down
+        }
+    }
+    
+    private void collect(List<OutgoingActivity> pending)
+        throws InterruptedException
+    {
+        //recovered activities go first, without waiting for more
+        if(!fBacklog.isEmpty())
+        {
+            while(!fBacklog.isEmpty()
+                && pending.size() < fBatcher.getBatchSize())
+            {
+                pending.add(fBacklog.poll());
+            }
+            fBacklogSize = fBacklog.size();
+            return;
+        }
+        
+        OutgoingActivity next = fQueue.poll(POLL_INTERVAL,
+            TimeUnit.MILLISECONDS);
+        if(next == null)
+        {
+            return;
+        }
+        pending.add(next);
+        
+        //wait for the batch to fill up
+        final long deadline = System.currentTimeMillis() + fLinger;
+        long wait = 0;
+        while(pending.size() < fBatcher.getBatchSize())
+        {
+            next = fQueue.poll();
+            
+            if(next == null)
+            {
+                wait = deadline - System.currentTimeMillis();
+                if(wait <= 0
+                    || !fRunning)
+                {
+                    break;
+                }
+                
+                next = fQueue.poll(wait, TimeUnit.MILLISECONDS);
+                if(next == null)
+                {
+                    break;
+                }
+            }
+            
+            pending.add(next);
+        }
+    }
+    
+    private void send(List<OutgoingActivity> pending)
+        throws InterruptedException
+    {
+        List<OutgoingActivity> current = pending;
+        
+        while(!current.isEmpty())
+        {
+            fFailed.clear();
+            fRetryDelay = 0L;
+            
+            fBatcher.send(current, this);
+            
+            if(fFailed.isEmpty())
+            {
+                return;
+            }
+            
+            //retry failed activities before sending anything else
+            current = new ArrayList<OutgoingActivity>(fFailed);
+            
+            if(!fRunning)
+            {
+                LOG.warn("{}: shutting down, {} activities not sent", fName,
+                    current.size());
+                return;
+            }
+            
+            Thread.sleep(fRetryDelay);
+        }
+    }
+}
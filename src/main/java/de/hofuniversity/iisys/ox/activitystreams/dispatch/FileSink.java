@@ -0,0 +1,127 @@
+package de.hofuniversity.iisys.ox.activitystreams.dispatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import de.hofuniversity.iisys.ox.activitystreams.logging.LogFile;
+import de.hofuniversity.iisys.ox.activitystreams.transport.JsonBuffer;
+
+/**
+ * Sink appending activities to a file, one JSON object per line.
+ * Once the file exceeds the maximum size or the rotation interval has
+ * passed, it is rotated into a segment named after the rotation time.
+ * Segments are compressed in the background and the oldest ones beyond the
+ * configured number of files are deleted. Output is written whenever the
+ * queue runs empty.
+ */
+public class FileSink extends QueuedSink
+{
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(FileSink.class);
+    
+    /**
+     * Name of the sink in the configuration.
+     */
+    public static final String NAME = "file";
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private final File fFile;
+    private final long fMaxSize;
+    private final long fInterval;
+    private final int fFiles;
+    private final boolean fCompress;
+    
+    //only accessed by the worker thread
+    private LogFile fOut;
+    private final ByteBuffer fBuffer;
+    
+    /**
+     * Creates a file sink appending to the given file.
+     * The given file must not be null.
+     *
+     * @param file file to write to
+     * @param maxSize size in bytes at which the file is rotated
+     * @param interval time in milliseconds after which the file is rotated,
+     *  0 to only rotate by size
+     * @param files number of rotated files to keep
+     * @param compress whether to compress rotated files
+     * @param capacity maximum number of waiting activities
+     */
+    public FileSink(File file, long maxSize, long interval, int files,
+        boolean compress, int capacity)
+    {
+        super(NAME, capacity);
+        
+        fFile = file;
+        fMaxSize = Math.max(1024L, maxSize);
+        fInterval = Math.max(0L, interval);
+        fFiles = Math.max(0, files);
+        fCompress = compress;
+        
+        fBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+    
+    @Override
+    protected void write(OutgoingActivity outgoing) throws Exception
+    {
+        JsonBuffer json = serialize(outgoing).writeRaw('\n');
+        
+        if(fOut == null)
+        {
+            fOut = new LogFile(fFile, fMaxSize, fInterval, fFiles, fCompress);
+        }
+        
+        if(json.getLength() > fBuffer.remaining())
+        {
+            flush();
+        }
+        
+        if(json.getLength() > fBuffer.remaining())
+        {
+            fOut.write(ByteBuffer.wrap(json.getData(), 0, json.getLength()));
+        }
+        else
+        {
+            fBuffer.put(json.getData(), 0, json.getLength());
+        }
+        
+        if(size() == 0)
+        {
+            flush();
+        }
+    }
+    
+    @Override
+    protected void close()
+    {
+        if(fOut != null)
+        {
+            try
+            {
+                flush();
+            }
+            catch(IOException e)
+            {
+                LOG.error("writing " + fFile + " failed", e);
+            }
+            
+            fOut.close();
+            fOut = null;
+        }
+    }
+    
+    private void flush() throws IOException
+    {
+        fBuffer.flip();
+        try
+        {
+            fOut.write(fBuffer);
+        }
+        finally
+        {
+            fBuffer.clear();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package de.hofuniversity.iisys.ox.activitystreams.dispatch;
+
+import de.hofuniversity.iisys.ox.activitystreams.model.Activity;
+
+/**
+ * Interface for destinations activities are delivered to.
+ * Implementations are expected to buffer activities and deliver them on
+ * their own threads, so that a slow destination does not hold back event
+ * processing or other destinations.
+ */
+public interface IActivitySink
+{
+    /**
+     * @return name of the sink as used in the configuration
+     */
+    public String getName();
+    
+    /**
+     * Hands an activity to the sink without blocking.
+     *
+     * @param activity activity to deliver
+     * @param user user the activity is for
+     * @throws Exception if the activity cannot be accepted
+     */
+    public void deliver(Activity activity, String user) throws Exception;
+    
+    /**
+     * Hands all activities of a bundle to the sink without blocking. The
+     * bundle's lead, if set, is delivered first and in order with the other
+     * activities of its user. The follow-ups are only delivered after the
+     * lead, but may then be delivered in parallel and in any order. Without a
+     * lead, they are delivered in order with their users' other activities.
+     *
+     * @param bundle activities to deliver
+     * @throws Exception if the activities cannot be accepted
+     */
+    public void deliverAll(ActivityBundle bundle) throws Exception;
+    
+    /**
+     * @return number of activities accepted, but not yet delivered
+     */
+    public int size();
+    
+    /**
+     * Delivers remaining buffered activities as far as possible and releases
+     * all resources held by the sink.
+     */
+    public void shutdown();
+}
@@ -0,0 +1,23 @@
+package de.hofuniversity.iisys.ox.activitystreams.dispatch;
+
+/**
+ * Interface for classes that are informed about the outcome of sending
+ * individual activities.
+ */
+public interface IDeliveryCallback
+{
+    /**
+     * Called after an activity has been accepted by the server.
+     * 
+     * @param outgoing activity that was sent
+     */
+    public void delivered(OutgoingActivity outgoing);
+    
+    /**
+     * Called after sending an activity failed.
+     * 
+     * @param outgoing activity that could not be sent
+     * @param e exception sending failed with
+     */
+    public void failed(OutgoingActivity outgoing, Exception e);
+}
@@ -0,0 +1,721 @@
+package de.hofuniversity.iisys.ox.activitystreams.dispatch;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Durable, append-only outbox storing activities on disk before they are
+ * sent, until the server acknowledged them.
+ * Records are appended to segment files which are rolled over at a
+ * configured size. Appending threads wait for a shared background fsync
+ * (group commit), so the cost of syncing is split among all activities
+ * written within one sync interval. The fsync itself runs outside the
+ * outbox's lock, so appending and acknowledging go on while it takes place.
+ * Acknowledgements are appended to a separate file per segment without
+ * syncing - after a crash, activities may be sent again, but never lost.
+ * Segments whose records have all been acknowledged are deleted, the
+ * active segment as soon as it has grown beyond a minimum size.
+ * On creation, existing segments are read back and all unacknowledged
+ * records are made available through getRecovered().
+ */
+public class Outbox
+{
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(Outbox.class);
+    
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String ACK_SUFFIX = ".ack";
+    
+    //payload length, payload checksum, sequence number
+    private static final int HEADER_SIZE = 16;
+    
+    //size from which a fully acknowledged active segment is replaced
+    private static final long COMPACT_SIZE = 64 * 1024;
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private final File fDirectory;
+    private final long fSegmentSize;
+    private final long fSyncInterval;
+    
+    private final TreeMap<Long, Segment> fSegments;
+    private final List<Entry> fRecovered;
+    
+    private final CRC32 fCrc;
+    private final ByteBuffer fAckBuffer;
+    private ByteBuffer fRecordBuffer;
+    
+    private final Thread fSyncer;
+    
+    private Segment fActive;
+    
+    private long fNextSeq;
+    private long fWrittenSeq;
+    private long fSyncedSeq;
+    
+    private boolean fRunning;
+    
+    /**
+     * Opens the outbox in the given directory, creating the directory if
+     * necessary and recovering unacknowledged records from existing
+     * segments.
+     *
+     * @param directory directory to store segments in
+     * @param segmentSize size in bytes after which segments are rolled over
+     * @param syncInterval time in milliseconds appended records are
+     *  collected before they are synced to disk together
+     * @throws IOException if the outbox cannot be opened
+     */
+    public Outbox(File directory, long segmentSize, long syncInterval)
+        throws IOException
+    {
+        fDirectory = directory;
+        fSegmentSize = Math.max(HEADER_SIZE, segmentSize);
+        fSyncInterval = Math.max(0L, syncInterval);
+        
+        fSegments = new TreeMap<Long, Segment>();
+        fRecovered = new ArrayList<Entry>();
+        
+        fCrc = new CRC32();
+        fAckBuffer = ByteBuffer.allocate(8);
+        fRecordBuffer = ByteBuffer.allocate(4096);
+        
+        if(!fDirectory.isDirectory()
+            && !fDirectory.mkdirs())
+        {
+            throw new IOException("could not create outbox directory "
+                + fDirectory);
+        }
+        
+        fNextSeq = 1;
+        recover();
+        
+        fWrittenSeq = fNextSeq - 1;
+        fSyncedSeq = fWrittenSeq;
+        fActive = openSegment(fNextSeq);
+        fRunning = true;
+        
+        fSyncer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                sync();
+            }
+        }, "activitystreams-outbox");
+        fSyncer.setDaemon(true);
+        fSyncer.start();
+    }
+    
+    /**
+     * Returns the records that were not acknowledged before the outbox was
+     * last closed, in their original order. The list is only filled after
+     * creation and should be processed once.
+     *
+     * @return unacknowledged records found on disk
+     */
+    public List<Entry> getRecovered()
+    {
+        return fRecovered;
+    }
+    
+    /**
+     * Appends an activity to the outbox, returning once it has been synced
+     * to disk.
+     *
+     * @param user user the activity is for
+     * @param json buffer containing the UTF-8 encoded activity
+     * @param offset offset of the activity within the buffer
+     * @param jsonLength length of the activity in bytes
+     * @return sequence number of the record, used for acknowledgement
+     * @throws IOException if writing fails or the outbox is closed
+     */
+    public long append(String user, byte[] json, int offset, int jsonLength)
+        throws IOException
+    {
+        final byte[] userBytes = String.valueOf(user).getBytes(UTF8);
+        final int length = userBytes.length + 1 + jsonLength;
+        
+        synchronized(this)
+        {
+            if(!fRunning)
+            {
+                throw new IOException("outbox closed");
+            }
+            
+            if(fActive.fSize >= fSegmentSize)
+            {
+                rollOver();
+            }
+            
+            final long seq = fNextSeq++;
+            
+            //assemble record in reusable buffer
+            if(fRecordBuffer.capacity() < HEADER_SIZE + length)
+            {
+                fRecordBuffer = ByteBuffer.allocate(
+                    Math.max(HEADER_SIZE + length,
+                        fRecordBuffer.capacity() * 2));
+            }
+            fRecordBuffer.clear();
+            fRecordBuffer.position(HEADER_SIZE);
+            fRecordBuffer.put(userBytes);
+            fRecordBuffer.put((byte) '\n');
+            fRecordBuffer.put(json, offset, jsonLength);
+            
+            fCrc.reset();
+            fCrc.update(fRecordBuffer.array(), HEADER_SIZE, length);
+            fRecordBuffer.putInt(0, length);
+            fRecordBuffer.putInt(4, (int) fCrc.getValue());
+            fRecordBuffer.putLong(8, seq);
+            fRecordBuffer.flip();
+            
+            while(fRecordBuffer.hasRemaining())
+            {
+                fActive.fChannel.write(fRecordBuffer);
+            }
+            fActive.fSize += HEADER_SIZE + length;
+            fActive.fLastSeq = seq;
+            fActive.fOutstanding++;
+            
+            fWrittenSeq = seq;
+            notifyAll();
+            
+            //wait for group commit
+            while(fSyncedSeq < seq)
+            {
+                if(!fRunning)
+                {
+                    throw new IOException("outbox closed");
+                }
+                
+                try
+                {
+                    wait();
+                }
+                catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted waiting for sync");
+                }
+            }
+            
+            return seq;
+        }
+    }
+    
+    /**
+     * Marks a record as successfully sent. Segments without outstanding
+     * records are deleted, the active one once it reached a minimum size.
+     * Acknowledgements after the outbox was closed are ignored, the record
+     * is sent again after a restart.
+     *
+     * @param seq sequence number of the record
+     * @throws IOException if recording the acknowledgement fails
+     */
+    public synchronized void acknowledge(long seq) throws IOException
+    {
+        //closed segments must not be reopened
+        if(!fRunning)
+        {
+            return;
+        }
+        
+        Map.Entry<Long, Segment> entry = fSegments.floorEntry(seq);
+        if(entry == null)
+        {
+            return;
+        }
+        
+        Segment segment = entry.getValue();
+        int index = (int) (seq - segment.fFirstSeq);
+        if(seq > segment.fLastSeq
+            || segment.fAcked.get(index))
+        {
+            return;
+        }
+        
+        segment.fAcked.set(index);
+        segment.fOutstanding--;
+        
+        if(segment.fOutstanding == 0
+            && segment != fActive)
+        {
+            deleteSegment(segment);
+        }
+        else if(segment.fOutstanding == 0
+            && segment.fSize >= COMPACT_SIZE)
+        {
+            //replace the active segment instead of waiting for its rollover
+            rollOver();
+        }
+        else
+        {
+            fAckBuffer.clear();
+            fAckBuffer.putLong(seq);
+            fAckBuffer.flip();
+            while(fAckBuffer.hasRemaining())
+            {
+                segment.ackChannel().write(fAckBuffer);
+            }
+        }
+    }
+    
+    /**
+     * Syncs and closes all segments. Waiting appenders fail.
+     */
+    public void close()
+    {
+        synchronized(this)
+        {
+            if(!fRunning)
+            {
+                return;
+            }
+            fRunning = false;
+            notifyAll();
+        }
+        
+        try
+        {
+            fSyncer.join();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        
+        synchronized(this)
+        {
+            for(Segment segment : fSegments.values())
+            {
+                segment.close();
+            }
+        }
+    }
+    
+    private void sync()
+    {
+        boolean running = true;
+        while(running)
+        {
+            synchronized(this)
+            {
+                while(fRunning
+                    && fWrittenSeq == fSyncedSeq)
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch(InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+                running = fRunning;
+            }
+            
+            //collect further records for the same sync
+            if(running
+                && fSyncInterval > 0)
+            {
+                try
+                {
+                    Thread.sleep(fSyncInterval);
+                }
+                catch(InterruptedException e)
+                {
+                    return;
+                }
+            }
+            
+            forceActive();
+        }
+    }
+    
+    /*
+     * Syncs the active segment without holding the lock, so that appenders
+     * only wait for the sync if they need it.
+     */
+    private void forceActive()
+    {
+        long seq = 0;
+        FileChannel channel = null;
+        synchronized(this)
+        {
+            //only records written before the sync are covered by it
+            seq = fWrittenSeq;
+            channel = fActive.fChannel;
+        }
+        
+        boolean synced = false;
+        try
+        {
+            channel.force(false);
+            synced = true;
+        }
+        catch(ClosedChannelException e)
+        {
+            //rolled over in the meantime, which synced or deleted it
+            synced = true;
+        }
+        catch(IOException e)
+        {
+            LOG.error("syncing outbox segment failed", e);
+        }
+        
+        synchronized(this)
+        {
+            if(synced
+                && seq > fSyncedSeq)
+            {
+                fSyncedSeq = seq;
+            }
+            notifyAll();
+        }
+    }
+    
+    private void rollOver() throws IOException
+    {
+        Segment old = fActive;
+        
+        //records are only acknowledged after they were synced
+        if(old.fOutstanding > 0)
+        {
+            old.fChannel.force(false);
+            fSyncedSeq = fWrittenSeq;
+        }
+        
+        fActive = openSegment(fNextSeq);
+        
+        if(old.fOutstanding == 0)
+        {
+            deleteSegment(old);
+        }
+        else
+        {
+            old.closeData();
+        }
+    }
+    
+    private Segment openSegment(long firstSeq) throws IOException
+    {
+        Segment segment = new Segment(firstSeq);
+        segment.fChannel = new RandomAccessFile(segment.fFile, "rw")
+            .getChannel();
+        segment.fChannel.position(segment.fChannel.size());
+        segment.fSize = segment.fChannel.size();
+        
+        fSegments.put(firstSeq, segment);
+        return segment;
+    }
+    
+    private void deleteSegment(Segment segment)
+    {
+        segment.close();
+        fSegments.remove(segment.fFirstSeq);
+        
+        if(!segment.fFile.delete()
+            || (segment.fAckFile.exists() && !segment.fAckFile.delete()))
+        {
+            LOG.warn("could not delete outbox segment {}", segment.fFile);
+        }
+    }
+    
+    private void recover() throws IOException
+    {
+        File[] files = fDirectory.listFiles(new FileFilter()
+        {
+            @Override
+            public boolean accept(File file)
+            {
+                return file.getName().endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if(files == null)
+        {
+            return;
+        }
+        Arrays.sort(files);
+        
+        for(File file : files)
+        {
+            String name = file.getName();
+            long firstSeq = 0;
+            try
+            {
+                firstSeq = Long.parseLong(name.substring(0,
+                    name.length() - SEGMENT_SUFFIX.length()));
+            }
+            catch(NumberFormatException e)
+            {
+                LOG.warn("ignoring unknown outbox file {}", file);
+                continue;
+            }
+            
+            Segment segment = new Segment(firstSeq);
+            readAcks(segment);
+            readRecords(segment);
+            
+            fNextSeq = Math.max(fNextSeq, segment.fLastSeq + 1);
+            
+            if(segment.fOutstanding == 0)
+            {
+                deleteSegment(segment);
+            }
+            else
+            {
+                fSegments.put(firstSeq, segment);
+            }
+        }
+        
+        if(!fRecovered.isEmpty())
+        {
+            LOG.info("recovered {} unsent activities from outbox",
+                fRecovered.size());
+        }
+    }
+    
+    private void readAcks(Segment segment) throws IOException
+    {
+        if(!segment.fAckFile.exists())
+        {
+            return;
+        }
+        
+        FileChannel channel = new RandomAccessFile(segment.fAckFile, "r")
+            .getChannel();
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(
+                channel.size(), Integer.MAX_VALUE));
+            while(buffer.hasRemaining()
+                && channel.read(buffer) >= 0)
+            {
+                //read whole file
+            }
+            buffer.flip();
+            
+            long seq = 0;
+            while(buffer.remaining() >= 8)
+            {
+                seq = buffer.getLong();
+                if(seq >= segment.fFirstSeq)
+                {
+                    segment.fAcked.set((int) (seq - segment.fFirstSeq));
+                }
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+    
+    private void readRecords(Segment segment) throws IOException
+    {
+        FileChannel channel = new RandomAccessFile(segment.fFile, "rw")
+            .getChannel();
+        try
+        {
+            final long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            long position = 0;
+            
+            while(position + HEADER_SIZE <= size)
+            {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+                
+                int length = header.getInt();
+                int crc = header.getInt();
+                long seq = header.getLong();
+                
+                if(length <= 0
+                    || position + HEADER_SIZE + length > size)
+                {
+                    break;
+                }
+                
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                while(payload.hasRemaining()
+                    && channel.read(payload,
+                        position + HEADER_SIZE + payload.position()) >= 0)
+                {
+                    //read whole record
+                }
+                
+                fCrc.reset();
+                fCrc.update(payload.array(), 0, length);
+                if((int) fCrc.getValue() != crc)
+                {
+                    break;
+                }
+                
+                position += HEADER_SIZE + length;
+                segment.fLastSeq = seq;
+                
+                if(!segment.fAcked.get((int) (seq - segment.fFirstSeq)))
+                {
+                    segment.fOutstanding++;
+                    fRecovered.add(toEntry(seq, payload.array(), length));
+                }
+            }
+            
+            //cut off partially written record
+            if(position < size)
+            {
+                LOG.warn("truncating damaged outbox segment {} at {}",
+                    segment.fFile, position);
+                channel.truncate(position);
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+    
+    private Entry toEntry(long seq, byte[] payload, int length)
+    {
+        int split = 0;
+        while(split < length
+            && payload[split] != '\n')
+        {
+            ++split;
+        }
+        
+        String user = new String(payload, 0, split, UTF8);
+        String json = new String(payload, split + 1,
+            Math.max(0, length - split - 1), UTF8);
+        
+        return new Entry(seq, user, json);
+    }
+    
+    /**
+     * Activity record read back from disk.
+     */
+    public static class Entry
+    {
+        private final long fSeq;
+        private final String fUser;
+        private final String fJson;
+        
+        private Entry(long seq, String user, String json)
+        {
+            fSeq = seq;
+            fUser = user;
+            fJson = json;
+        }
+        
+        /**
+         * @return sequence number of the record
+         */
+        public long getSeq()
+        {
+            return fSeq;
+        }
+        
+        /**
+         * @return user the activity is for
+         */
+        public String getUser()
+        {
+            return fUser;
+        }
+        
+        /**
+         * @return serialized activity
+         */
+        public String getJson()
+        {
+            return fJson;
+        }
+    }
+    
+    private class Segment
+    {
+        private final long fFirstSeq;
+        private final File fFile;
+        private final File fAckFile;
+        private final BitSet fAcked;
+        
+        private FileChannel fChannel;
+        private FileChannel fAckChannel;
+        
+        private long fSize;
+        private long fLastSeq;
+        private int fOutstanding;
+        
+        private Segment(long firstSeq)
+        {
+            fFirstSeq = firstSeq;
+            fLastSeq = firstSeq - 1;
+            
+            String name = String.format("%020d", firstSeq);
+            fFile = new File(fDirectory, name + SEGMENT_SUFFIX);
+            fAckFile = new File(fDirectory, name + ACK_SUFFIX);
+            fAcked = new BitSet();
+        }
+        
+        private FileChannel ackChannel() throws IOException
+        {
+            if(fAckChannel == null)
+            {
+                fAckChannel = new RandomAccessFile(fAckFile, "rw")
+                    .getChannel();
+                fAckChannel.position(fAckChannel.size());
+            }
+            return fAckChannel;
+        }
+        
+        private void closeData()
+        {
+            if(fChannel != null)
+            {
+                try
+                {
+                    fChannel.close();
+                }
+                catch(IOException e)
+                {
+                    LOG.warn("closing outbox segment failed", e);
+                }
+                fChannel = null;
+            }
+        }
+        
+        private void close()
+        {
+            closeData();
+            
+            if(fAckChannel != null)
+            {
+                try
+                {
+                    fAckChannel.close();
+                }
+                catch(IOException e)
+                {
+                    LOG.warn("closing outbox acknowledgements failed", e);
+                }
+                fAckChannel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package de.hofuniversity.iisys.ox.activitystreams.dispatch;
+
+import java.util.List;
+
+import de.hofuniversity.iisys.ox.activitystreams.model.Activity;
+
+/**
+ * Generated activity waiting to be sent in the name of a user.
+ */
+public class OutgoingActivity
+{
+    /**
+     * Sequence number of activities that are not stored in an outbox.
+     */
+    public static final long NO_SEQ = -1L;
+    
+    /**
+     * Priority of activities that are dropped first under load (updates).
+     */
+    public static final int PRIORITY_LOW = 0;
+    
+    /**
+     * Priority of activities for new or removed objects.
+     */
+    public static final int PRIORITY_MEDIUM = 1;
+    
+    /**
+     * Priority of activities that are dropped last (invitations, replies).
+     */
+    public static final int PRIORITY_HIGH = 2;
+    
+    private final Activity fActivity;
+    private final String fUser;
+    private final long fSeq;
+    
+    private final String fVerb;
+    private final int fPriority;
+    
+    private int fAttempts;
+    
+    private List<OutgoingActivity> fFollowUps;
+    
+    /**
+     * Creates a pending activity for the given user.
+     *
+     * @param activity activity to send
+     * @param user user the activity is posted for
+     */
+    public OutgoingActivity(Activity activity, String user)
+    {
+        this(activity, user, NO_SEQ);
+    }
+    
+    /**
+     * Creates a pending activity for the given user, stored in an outbox
+     * under the given sequence number.
+     *
+     * @param activity activity to send
+     * @param user user the activity is posted for
+     * @param seq outbox sequence number or NO_SEQ
+     */
+    public OutgoingActivity(Activity activity, String user, long seq)
+    {
+        fActivity = activity;
+        fUser = user;
+        fSeq = seq;
+        
+        fVerb = activity.getVerb() != null ? activity.getVerb() : "";
+        fPriority = getPriority(fVerb);
+    }
+    
+    /**
+     * Determines how important activities with the given verb are, when
+     * deciding which activities to drop under load.
+     *
+     * @param verb verb of an activity
+     * @return priority of the verb
+     */
+    public static int getPriority(String verb)
+    {
+        if(verb.equals("invite")
+            || verb.startsWith("rsvp-"))
+        {
+            return PRIORITY_HIGH;
+        }
+        else if(verb.equals("add")
+            || verb.equals("remove"))
+        {
+            return PRIORITY_MEDIUM;
+        }
+        
+        return PRIORITY_LOW;
+    }
+    
+    /**
+     * @return activity to send
+     */
+    public Activity getActivity()
+    {
+        return fActivity;
+    }
+    
+    /**
+     * @return user the activity is posted for
+     */
+    public String getUser()
+    {
+        return fUser;
+    }
+    
+    /**
+     * @return outbox sequence number or NO_SEQ
+     */
+    public long getSeq()
+    {
+        return fSeq;
+    }
+    
+    /**
+     * @return number of sending attempts made so far
+     */
+    public int getAttempts()
+    {
+        return fAttempts;
+    }
+    
+    /**
+     * Records a sending attempt.
+     *
+     * @return number of sending attempts made so far
+     */
+    public int addAttempt()
+    {
+        return ++fAttempts;
+    }
+    
+    /**
+     * Attaches activities that are only queued once this activity was sent
+     * or dropped.
+     *
+     * @param followUps follow-up activities
+     */
+    public void setFollowUps(List<OutgoingActivity> followUps)
+    {
+        fFollowUps = followUps;
+    }
+    
+    /**
+     * Returns the attached follow-up activities and detaches them, so they
+     * are only released once.
+     *
+     * @return follow-up activities or null
+     */
+    public List<OutgoingActivity> takeFollowUps()
+    {
+        List<OutgoingActivity> followUps = fFollowUps;
+        fFollowUps = null;
+        return followUps;
+    }
+    
+    /**
+     * @return verb of the activity
+     */
+    public String getVerb()
+    {
+        return fVerb;
+    }
+    
+    /**
+     * @return priority of the activity, one of the PRIORITY constants
+     */
+    public int getPriority()
+    {
+        return fPriority;
+    }
+}
@@ -0,0 +1,145 @@
+package de.hofuniversity.iisys.ox.activitystreams.dispatch;
+
+import de.hofuniversity.iisys.ox.activitystreams.model.Activity;
+import de.hofuniversity.iisys.ox.activitystreams.model.ActivityWriter;
+import de.hofuniversity.iisys.ox.activitystreams.transport.JsonBuffer;
+
+/**
+ * Base class for sinks with their own bounded queue and a single worker
+ * thread writing activities in the order they were delivered.
+ * If the queue is full, activities are dropped and counted.
+ * Activities are written as JSON objects of the form
+ * {"user":"...","activity":{...}}.
+ */
+public abstract class QueuedSink implements IActivitySink
+{
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(QueuedSink.class);
+    
+    private static final long SHUTDOWN_TIMEOUT = 5000L;
+    
+    private static final byte[] USER_START = "{\"user\":".getBytes();
+    private static final byte[] ACTIVITY_START = ",\"activity\":".getBytes();
+    private static final byte[] NULL = "null".getBytes();
+    
+    private final String fName;
+    private final WorkQueue<OutgoingActivity> fQueue;
+    
+    /**
+     * Creates a sink with a queue of the given capacity and starts its
+     * worker.
+     *
+     * @param name name of the sink
+     * @param capacity maximum number of waiting activities
+     */
+    public QueuedSink(String name, int capacity)
+    {
+        fName = name;
+        fQueue = new WorkQueue<OutgoingActivity>("activitystreams-sink-"
+            + name, capacity, 1)
+        {
+            @Override
+            protected void process(OutgoingActivity item) throws Exception
+            {
+                write(item);
+            }
+        };
+        fQueue.start();
+    }
+    
+    @Override
+    public String getName()
+    {
+        return fName;
+    }
+    
+    @Override
+    public void deliver(Activity activity, String user) throws Exception
+    {
+        if(!fQueue.offer(new OutgoingActivity(activity, user,
+            OutgoingActivity.NO_SEQ)))
+        {
+            long dropped = fQueue.getRejected();
+            if(dropped % 1000 == 1)
+            {
+                LOG.warn("{} sink queue full, {} activities dropped so far",
+                    fName, dropped);
+            }
+        }
+    }
+    
+    @Override
+    public void deliverAll(ActivityBundle bundle) throws Exception
+    {
+        if(bundle.getLead() != null)
+        {
+            deliver(bundle.getLead(), bundle.getLeadUser());
+        }
+        
+        for(int i = 0; i < bundle.size(); ++i)
+        {
+            deliver(bundle.getActivity(i), bundle.getUser(i));
+        }
+    }
+    
+    @Override
+    public int size()
+    {
+        return fQueue.size();
+    }
+    
+    /**
+     * @return number of activities dropped since creation
+     */
+    public long getRejected()
+    {
+        return fQueue.getRejected();
+    }
+    
+    @Override
+    public void shutdown()
+    {
+        fQueue.shutdown(SHUTDOWN_TIMEOUT);
+        close();
+    }
+    
+    /**
+     * Serializes an activity and its user into the calling thread's buffer.
+     *
+     * @param outgoing activity to serialize
+     * @return buffer containing the serialized activity
+     * @throws Exception if serialization fails
+     */
+    protected JsonBuffer serialize(OutgoingActivity outgoing) throws Exception
+    {
+        JsonBuffer json = JsonBuffer.forThread().writeRaw(USER_START);
+        if(outgoing.getUser() != null)
+        {
+            json.writeString(outgoing.getUser());
+        }
+        else
+        {
+            json.writeRaw(NULL);
+        }
+        
+        json.writeRaw(ACTIVITY_START);
+        return ActivityWriter.write(json, outgoing.getActivity())
+            .writeRaw('}');
+    }
+    
+    /**
+     * Writes a single activity on the sink's worker thread.
+     *
+     * @param outgoing activity to write
+     * @throws Exception if writing fails
+     */
+    protected abstract void write(OutgoingActivity outgoing) throws Exception;
+    
+    /**
+     * Called after the worker has stopped to release resources.
+     */
+    protected void close()
+    {
+        //nothing to release by default
+    }
+}
@@ -0,0 +1,312 @@
+package de.hofuniversity.iisys.ox.activitystreams.dispatch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+
+import de.hofuniversity.iisys.ox.activitystreams.metrics.DropCounters;
+import de.hofuniversity.iisys.ox.activitystreams.model.Activity;
+import de.hofuniversity.iisys.ox.activitystreams.model.ActivityWriter;
+import de.hofuniversity.iisys.ox.activitystreams.transport.JsonBuffer;
+import de.hofuniversity.iisys.ox.activitystreams.transport.RetryPolicy;
+import de.hofuniversity.iisys.ox.activitystreams.transport.ShindigClient;
+
+/**
+ * Delivery pipeline for activities sent to Apache Shindig.
+ * Activities are optionally stored in an outbox and then distributed onto a
+ * fixed number of delivery lanes by the user they are posted for. Lanes
+ * send in parallel, while all activities of one user pass the same lane and
+ * thus arrive in order. Follow-up activities of an event, such as the
+ * invitations for a large meeting, are held back until the event's main
+ * activity was sent and are then spread across up to a configured number of
+ * lanes, so they are sent concurrently and do not queue up behind each
+ * other. Lanes running full shed less important activities first, see
+ * DeliveryLane.
+ */
+public class ShindigSender implements IActivitySink
+{
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(ShindigSender.class);
+    
+    private static final long SHUTDOWN_TIMEOUT = 10000L;
+    
+    /**
+     * Name of the sink in the configuration.
+     */
+    public static final String NAME = "shindig";
+    
+    private final Outbox fOutbox;
+    
+    private final DeliveryLane[] fLanes;
+    private final int fParallelism;
+    
+    private final DropCounters fDrops;
+    
+    /**
+     * Creates a sender using the given client and starts its lanes.
+     * The given client and retry policy must not be null.
+     *
+     * @param client client to send activities with
+     * @param outbox outbox to store activities in until they are sent or
+     *  null
+     * @param retryPolicy policy for retrying failed activities
+     * @param batchSize maximum number of activities per batch, 1 to send all
+     *  activities individually
+     * @param linger maximum time in milliseconds an activity waits for its
+     *  batch to fill up
+     * @param lanes number of parallel delivery lanes
+     * @param laneCapacity maximum number of activities waiting per lane
+     * @param highWatermark number of waiting activities per lane starting
+     *  load shedding
+     * @param lowWatermark number of waiting activities per lane ending load
+     *  shedding
+     * @param parallelism maximum number of lanes the follow-ups of one event
+     *  are spread across, 1 to keep them in order
+     */
+    public ShindigSender(ShindigClient client, Outbox outbox,
+        RetryPolicy retryPolicy, int batchSize, long linger, int lanes,
+        int laneCapacity, int highWatermark, int lowWatermark,
+        int parallelism)
+    {
+        fOutbox = outbox;
+        fDrops = new DropCounters();
+        
+        ActivityBatcher batcher = new ActivityBatcher(client, batchSize);
+        
+        fLanes = new DeliveryLane[Math.max(1, lanes)];
+        for(int i = 0; i < fLanes.length; ++i)
+        {
+            fLanes[i] = new DeliveryLane("activitystreams-lane-" + i,
+                laneCapacity, highWatermark, lowWatermark, fDrops, batcher,
+                retryPolicy, outbox, linger, this);
+        }
+        fParallelism = Math.min(fLanes.length, Math.max(1, parallelism));
+        
+        //resend activities left over from a previous run before new ones
+        if(outbox != null)
+        {
+            recover(outbox.getRecovered());
+        }
+        
+        for(DeliveryLane lane : fLanes)
+        {
+            lane.start();
+        }
+    }
+    
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+    
+    /**
+     * Stores an activity in the outbox if configured and queues it in the
+     * lane of its user.
+     *
+     * @param activity activity to send
+     * @param user user the activity is for
+     * @throws Exception if storing the activity fails
+     */
+    @Override
+    public void deliver(Activity activity, String user) throws Exception
+    {
+        queue(store(activity, user), getLane(user));
+    }
+    
+    /**
+     * Stores the activities of a bundle in the outbox if configured, in
+     * bundle order after its lead, and queues the lead in the lane of its
+     * user. Once the lead was sent or dropped, its follow-ups are queued
+     * round-robin in up to the configured number of lanes, starting with the
+     * lane of the lead's user. Follow-ups without a lead are queued in the
+     * lanes of their users right away.
+     *
+     * @param bundle activities to send
+     * @throws Exception if storing an activity fails
+     */
+    @Override
+    public void deliverAll(ActivityBundle bundle) throws Exception
+    {
+        OutgoingActivity lead = null;
+        if(bundle.getLead() != null)
+        {
+            lead = store(bundle.getLead(), bundle.getLeadUser());
+        }
+        
+        List<OutgoingActivity> followUps =
+            new ArrayList<OutgoingActivity>(bundle.size());
+        for(int i = 0; i < bundle.size(); ++i)
+        {
+            followUps.add(store(bundle.getActivity(i), bundle.getUser(i)));
+        }
+        
+        if(lead == null)
+        {
+            for(OutgoingActivity followUp : followUps)
+            {
+                queue(followUp, getLane(followUp.getUser()));
+            }
+            return;
+        }
+        
+        //attached before queueing, the lead may be sent right away
+        lead.setFollowUps(followUps);
+        queue(lead, getLane(lead.getUser()));
+    }
+    
+    /**
+     * Queues the follow-ups attached to an activity that was sent or
+     * dropped, if there are any. Called by the lanes.
+     *
+     * @param lead activity that is done with
+     */
+    void release(OutgoingActivity lead)
+    {
+        List<OutgoingActivity> followUps = lead.takeFollowUps();
+        if(followUps == null)
+        {
+            return;
+        }
+        
+        final int first = getLaneIndex(lead.getUser());
+        for(int i = 0; i < followUps.size(); ++i)
+        {
+            queue(followUps.get(i),
+                fLanes[(first + i % fParallelism) % fLanes.length]);
+        }
+    }
+    
+    private OutgoingActivity store(Activity activity, String user)
+        throws Exception
+    {
+        long seq = OutgoingActivity.NO_SEQ;
+        if(fOutbox != null)
+        {
+            JsonBuffer json = ActivityWriter.write(JsonBuffer.forThread(),
+                activity);
+            seq = fOutbox.append(user, json.getData(), 0, json.getLength());
+        }
+        
+        return new OutgoingActivity(activity, user, seq);
+    }
+    
+    private void queue(OutgoingActivity outgoing, DeliveryLane lane)
+    {
+        if(!lane.offer(outgoing))
+        {
+            long dropped = lane.getRejected();
+            if(dropped % 1000 == 1)
+            {
+                LOG.warn("delivery lane overloaded, {} activities not "
+                    + "queued", dropped);
+            }
+        }
+    }
+    
+    /*
+     * Hands the activities recovered from the outbox to the lanes of their
+     * users before the lanes are started, so that no new activity of a user
+     * overtakes older ones.
+     */
+    private void recover(List<Outbox.Entry> recovered)
+    {
+        if(!recovered.isEmpty())
+        {
+            LOG.info("resending {} activities from the outbox",
+                recovered.size());
+        }
+        
+        for(Outbox.Entry entry : recovered)
+        {
+            Activity activity = null;
+            try
+            {
+                activity = Activity.fromJSON(new JSONObject(entry.getJson()));
+            }
+            catch(Exception e)
+            {
+                //unreadable records would keep their segment forever
+                LOG.error("discarding unreadable recovered activity "
+                    + entry.getSeq() + ": " + entry.getJson(), e);
+                discard(entry.getSeq());
+                continue;
+            }
+            
+            getLane(entry.getUser()).recover(new OutgoingActivity(activity,
+                entry.getUser(), entry.getSeq()));
+        }
+        
+        recovered.clear();
+    }
+    
+    private void discard(long seq)
+    {
+        try
+        {
+            fOutbox.acknowledge(seq);
+        }
+        catch(IOException e)
+        {
+            LOG.error("acknowledging activity failed", e);
+        }
+    }
+    
+    /**
+     * @return number of activities waiting in all lanes
+     */
+    @Override
+    public int size()
+    {
+        int size = 0;
+        for(DeliveryLane lane : fLanes)
+        {
+            size += lane.size();
+        }
+        return size;
+    }
+    
+    /**
+     * @return counters of activities dropped by the lanes, by reason and
+     *  verb
+     */
+    public DropCounters getDrops()
+    {
+        return fDrops;
+    }
+    
+    /**
+     * Sends remaining queued activities and stops all lanes. Activities
+     * that could not be sent remain in the outbox.
+     */
+    @Override
+    public void shutdown()
+    {
+        for(DeliveryLane lane : fLanes)
+        {
+            lane.shutdown(SHUTDOWN_TIMEOUT / fLanes.length);
+        }
+        
+        if(fOutbox != null)
+        {
+            fOutbox.close();
+        }
+    }
+    
+    private DeliveryLane getLane(String user)
+    {
+        return fLanes[getLaneIndex(user)];
+    }
+    
+    private int getLaneIndex(String user)
+    {
+        if(user == null)
+        {
+            return 0;
+        }
+        
+        return (user.hashCode() & Integer.MAX_VALUE) % fLanes.length;
+    }
+}
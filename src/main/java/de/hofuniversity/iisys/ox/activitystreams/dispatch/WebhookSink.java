@@ -0,0 +1,78 @@
+package de.hofuniversity.iisys.ox.activitystreams.dispatch;
+
+import de.hofuniversity.iisys.ox.activitystreams.metrics.StageTrace;
+import de.hofuniversity.iisys.ox.activitystreams.transport.JsonBuffer;
+import de.hofuniversity.iisys.ox.activitystreams.transport.RetryPolicy;
+import de.hofuniversity.iisys.ox.activitystreams.transport.ShindigTransport;
+
+/**
+ * Sink posting every activity as a JSON object to an HTTP endpoint, such as
+ * a local indexing service.
+ * Failed requests are retried according to the retry policy before the
+ * activity is dropped, holding back later activities in the meantime.
+ */
+public class WebhookSink extends QueuedSink
+{
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(WebhookSink.class);
+    
+    /**
+     * Name of the sink in the configuration.
+     */
+    public static final String NAME = "webhook";
+    
+    private final ShindigTransport fTransport;
+    private final RetryPolicy fRetryPolicy;
+    
+    /**
+     * Creates a webhook sink posting to the given URL.
+     * The given URL and retry policy must not be null.
+     *
+     * @param url URL to post activities to
+     * @param connectTimeout connect timeout in milliseconds
+     * @param readTimeout read timeout in milliseconds
+     * @param retryPolicy policy for retrying failed requests
+     * @param capacity maximum number of waiting activities
+     */
+    public WebhookSink(String url, int connectTimeout, int readTimeout,
+        RetryPolicy retryPolicy, int capacity)
+    {
+        super(NAME, capacity);
+        
+        //single worker, so a single connection suffices
+        fTransport = new ShindigTransport(url, 1, connectTimeout,
+            readTimeout);
+        fRetryPolicy = retryPolicy;
+    }
+    
+    @Override
+    protected void write(OutgoingActivity outgoing) throws Exception
+    {
+        JsonBuffer json = serialize(outgoing);
+        
+        while(true)
+        {
+            try
+            {
+                fTransport.post("", json.getData(), 0, json.getLength(),
+                    StageTrace.DISABLED);
+                return;
+            }
+            catch(Exception e)
+            {
+                int attempts = outgoing.addAttempt();
+                
+                if(!fRetryPolicy.isRetryable(e)
+                    || !fRetryPolicy.hasAttemptsLeft(attempts))
+                {
+                    LOG.warn("webhook: dropping activity for {} after {} "
+                        + "attempts: {}", outgoing.getUser(), attempts,
+                        e.getMessage());
+                    return;
+                }
+                
+                Thread.sleep(fRetryPolicy.getDelay(attempts));
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package de.hofuniversity.iisys.ox.activitystreams.dispatch;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue drained by a fixed number of worker threads.
+ * Items are handed over without ever blocking the submitting thread; if the
+ * queue is full, the item is rejected and counted instead.
+ * Every worker drains a queue of its own, items are assigned to workers by
+ * a key, so that items with the same key are processed one after another in
+ * the order they were offered.
+ *
+ * @param <T> type of work items
+ */
+public abstract class WorkQueue<T>
+{
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(WorkQueue.class);
+    
+    private static final long POLL_INTERVAL = 500L;
+    
+    private final String fName;
+    private final BlockingQueue<T>[] fQueues;
+    private final Thread[] fWorkers;
+    
+    private final AtomicLong fRejected;
+    
+    private volatile boolean fRunning;
+    
+    /**
+     * Creates a work queue with the given capacity and number of workers.
+     * Workers are not started until start() is called. The capacity is
+     * split evenly between the workers' queues.
+     *
+     * @param name name used for worker threads
+     * @param capacity maximum number of waiting items
+     * @param workers number of worker threads draining the queue
+     */
+    @SuppressWarnings("unchecked")
+    public WorkQueue(String name, int capacity, int workers)
+    {
+        fName = name;
+        fWorkers = new Thread[Math.max(1, workers)];
+        fRejected = new AtomicLong();
+        
+        //generic arrays can't be created directly, all queues hold items
+        fQueues = (BlockingQueue<T>[]) new BlockingQueue<?>[fWorkers.length];
+        int perWorker = Math.max(1, capacity / fWorkers.length);
+        for(int i = 0; i < fQueues.length; ++i)
+        {
+            fQueues[i] = new ArrayBlockingQueue<T>(perWorker);
+        }
+    }
+    
+    /**
+     * Starts all worker threads.
+     */
+    public synchronized void start()
+    {
+        if(fRunning)
+        {
+            return;
+        }
+        fRunning = true;
+        
+        for(int i = 0; i < fWorkers.length; ++i)
+        {
+            final BlockingQueue<T> queue = fQueues[i];
+            fWorkers[i] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    work(queue);
+                }
+            }, fName + "-" + i);
+            fWorkers[i].setDaemon(true);
+            fWorkers[i].start();
+        }
+    }
+    
+    /**
+     * Hands an item to the first worker's queue without blocking.
+     *
+     * @param item item to process
+     * @return whether the item was accepted
+     */
+    public boolean offer(T item)
+    {
+        return offer(item, 0);
+    }
+    
+    /**
+     * Hands an item to the queue of the worker responsible for the given key
+     * without blocking.
+     *
+     * @param item item to process
+     * @param key key determining the worker, such as a hash code
+     * @return whether the item was accepted
+     */
+    public boolean offer(T item, int key)
+    {
+        BlockingQueue<T> queue =
+            fQueues[(key & Integer.MAX_VALUE) % fQueues.length];
+        if(fRunning
+            && queue.offer(item))
+        {
+            return true;
+        }
+        
+        fRejected.incrementAndGet();
+        return false;
+    }
+    
+    /**
+     * @return number of items currently waiting
+     */
+    public int size()
+    {
+        int size = 0;
+        for(BlockingQueue<T> queue : fQueues)
+        {
+            size += queue.size();
+        }
+        return size;
+    }
+    
+    /**
+     * @return number of items rejected since creation
+     */
+    public long getRejected()
+    {
+        return fRejected.get();
+    }
+    
+    /**
+     * Stops accepting items, lets the workers drain the remaining queue and
+     * waits up to the given time for them to finish before interrupting them.
+     *
+     * @param timeout maximum time to wait in milliseconds
+     */
+    public synchronized void shutdown(long timeout)
+    {
+        fRunning = false;
+        
+        long deadline = System.currentTimeMillis() + timeout;
+        for(Thread worker : fWorkers)
+        {
+            if(worker == null)
+            {
+                continue;
+            }
+            
+            try
+            {
+                worker.join(Math.max(1L,
+                    deadline - System.currentTimeMillis()));
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            worker.interrupt();
+        }
+        
+        int remaining = size();
+        if(remaining > 0)
+        {
+            LOG.warn("{}: discarding {} unprocessed items", fName,
+                remaining);
+            for(BlockingQueue<T> queue : fQueues)
+            {
+                queue.clear();
+            }
+        }
+    }
+    
+    private void work(BlockingQueue<T> queue)
+    {
+        T item = null;
+        
+        while(fRunning || !queue.isEmpty())
+        {
+            try
+            {
+                item = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+            catch(InterruptedException e)
+            {
+                return;
+            }
+            
+            if(item != null)
+            {
+                try
+                {
+                    process(item);
+                }
+                catch(Exception e)
+                {
+                    handleError(item, e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Processes a single item on a worker thread.
+     *
+     * @param item item to process
+     * @throws Exception if processing fails
+     */
+    protected abstract void process(T item) throws Exception;
+    
+    /**
+     * Called on a worker thread if processing an item failed.
+     *
+     * @param item item that could not be processed
+     * @param e exception thrown while processing
+     */
+    protected void handleError(T item, Exception e)
+    {
+        LOG.error(fName + ": processing failed", e);
+    }
+}
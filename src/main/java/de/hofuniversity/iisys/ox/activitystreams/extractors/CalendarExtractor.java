@@ -1,23 +1,25 @@
 package de.hofuniversity.iisys.ox.activitystreams.extractors;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
-import org.json.JSONObject;
-
 import com.openexchange.event.CommonEvent;
 import com.openexchange.groupware.calendar.CalendarDataObject;
 import com.openexchange.groupware.container.FolderObject;
 import com.openexchange.groupware.container.UserParticipant;
-import com.openexchange.groupware.contexts.Context;
-import com.openexchange.groupware.contexts.impl.ContextStorage;
-import com.openexchange.groupware.ldap.User;
-import com.openexchange.groupware.ldap.UserStorage;
 
 import de.hofuniversity.iisys.ox.activitystreams.ActivityStreamsEventProcessor;
+import de.hofuniversity.iisys.ox.activitystreams.EventContext;
+import de.hofuniversity.iisys.ox.activitystreams.EventPreFilter;
+import de.hofuniversity.iisys.ox.activitystreams.cache.Actor;
+import de.hofuniversity.iisys.ox.activitystreams.cache.CooldownTable;
+import de.hofuniversity.iisys.ox.activitystreams.cache.FolderTarget;
+import de.hofuniversity.iisys.ox.activitystreams.cache.FolderTargetCache;
+import de.hofuniversity.iisys.ox.activitystreams.dispatch.ActivityBundle;
+import de.hofuniversity.iisys.ox.activitystreams.model.Activity;
+import de.hofuniversity.iisys.ox.activitystreams.model.ActivityObject;
+import de.hofuniversity.iisys.ox.activitystreams.model.ObjectType;
 
 /**
  * Extractor for generating activities for calendar entries.
@@ -27,70 +29,69 @@ public class CalendarExtractor implements IExtractor
     private static final long RSVP_COOLDOWN = 1000L;
     
     private static final String CALENDAR_FRAG = "#!!&app=io.ox/calendar";
-    private static final String FOLDER_FRAG = "&folder=";
-    private static final String ID_FRAG = "&id=";
     
-    private final String fOxUrl;
+    private static final ObjectType FOLDER_TYPE =
+        new ObjectType("open-xchange-calendar-folder");
+    private static final ObjectType APPOINTMENT_TYPE =
+        new ObjectType("open-xchange-appointment");
+    
+    private final UrlTemplate fUrls;
+    private final FolderTargetCache fFolderCache;
     private final ActivityStreamsEventProcessor fAsProc;
     
     private final boolean fSendInvites;
     private final boolean fFilterUnnamed;
     private final boolean fFilterRsvpUpdates;
     
-    private final Map<Integer, long[]> fRsvpCooldowns;
+    private final CooldownTable fRsvpCooldowns;
     
     /**
      * Creates a calendar event extractor generating links to the given
-     * instance URL of Open-Xchange and if configured sending invitation
-     * activities using the given event processor.
+     * instance URL of Open-Xchange and if configured generating invitation
+     * activities using actors and generator of the given event processor.
      * The given URL should not be null.
-     * The given ActivityStreamsEventProcessor must not be null.
+     * The given ActivityStreamsEventProcessor and FolderTargetCache must not
+     * be null.
      * 
      * @param oxUrl Open-Xchange instance URL
      * @param sendInvites whether to generate invite activities
      * @param filterUnnamed whether to filter activities with unnamed entities
      * @param filterRsvpUpdates whether to filter updates following rsvp events
-     * @param asProc activity streams processor to send activities with
+     * @param asProc activity streams processor providing actors
+     * @param folderCache cache for folder targets
      */
     public CalendarExtractor(String oxUrl, boolean sendInvites,
         boolean filterUnnamed, boolean filterRsvpUpdates,
-        ActivityStreamsEventProcessor asProc)
+        ActivityStreamsEventProcessor asProc, FolderTargetCache folderCache)
     {
-        fOxUrl = oxUrl;
+        fUrls = new UrlTemplate(oxUrl, CALENDAR_FRAG);
+        fFolderCache = folderCache;
         fAsProc = asProc;
         fSendInvites = sendInvites;
         fFilterUnnamed = filterUnnamed;
         fFilterRsvpUpdates = filterRsvpUpdates;
         
-        fRsvpCooldowns = new HashMap<Integer, long[]>();
+        fRsvpCooldowns = new CooldownTable(RSVP_COOLDOWN);
     }
 
     @Override
-    public boolean extract(JSONObject activity, CommonEvent event,
-        String action) throws Exception
+    public boolean extract(Activity.Builder activity, EventContext context,
+        String action, ActivityBundle followUps) throws Exception
     {
+        CommonEvent event = context.getEvent();
         boolean send = true;
         
         String targetId = null;
         
         //target: folder
-        Object folderObj = event.getSourceFolder();
-        if(folderObj != null
-            && folderObj instanceof FolderObject)
+        FolderObject folder = context.getFolder();
+        if(folder != null)
         {
-            FolderObject folder = (FolderObject) folderObj;
-            targetId = Integer.toString(folder.getObjectID());
-            
-            JSONObject target = new JSONObject();
-            
-            target.put("id", targetId);
-            target.put("objectType", "open-xchange-calendar-folder");
-            target.put("displayName", folder.getFolderName());
+            FolderTarget target = fFolderCache.getTarget(
+                event.getContextId(), folder, FOLDER_TYPE, fUrls);
+            targetId = target.getId();
             
-            String url = fOxUrl + CALENDAR_FRAG + FOLDER_FRAG + targetId;
-            target.put("url", url);
-            
-            activity.put("target", target);
+            activity.setTarget(target.toObject());
         }
         
         //object: calendar entry
@@ -105,6 +106,7 @@ public class CalendarExtractor implements IExtractor
             if(calObj.getPrivateFlag())
             {
                 send = false;
+                context.setFilterReason(EventPreFilter.PRIVATE);
             }
             
             //no activities for repeating events
@@ -120,18 +122,12 @@ public class CalendarExtractor implements IExtractor
                 || calObj.getTitle().isEmpty()))
             {
                 send = false;
+                context.setFilterReason(EventPreFilter.UNNAMED);
             }
             
-            JSONObject object = new JSONObject();
-            object.put("id", calObj.getObjectID());
-            object.put("objectType", "open-xchange-appointment");
-            object.put("displayName", calObj.getTitle());
-            
-            String url = fOxUrl + CALENDAR_FRAG + FOLDER_FRAG + targetId
-                + ID_FRAG + targetId + "." + calObj.getObjectID();
-            object.put("url", url);
-            
-            activity.put("object", object);
+            activity.setObject(new ActivityObject(calObj.getObjectID(),
+                APPOINTMENT_TYPE, calObj.getTitle(),
+                fUrls.getObjectUrl(targetId, calObj.getObjectID())));
             
             
             //check for required invitation activities
@@ -140,14 +136,20 @@ public class CalendarExtractor implements IExtractor
                 && event.getAction() == CommonEvent.INSERT
                 && fSendInvites)
             {
-                checkInvitations(activity, event, calObj);
+                checkInvitations(activity, context, calObj, followUps);
             }
             
-            //handle potentially blocked updates following rsvp events
-            if(fFilterRsvpUpdates)
+            //handle potentially blocked updates following rsvp events,
+            //unless the event was filtered anyway
+            if(send
+                && fFilterRsvpUpdates)
             {
                 send = handleRsvpCooldown(event.getUserId(),
                     calObj.getObjectID(), event);
+                if(!send)
+                {
+                    context.setFilterReason(EventPreFilter.RSVP_COOLDOWN);
+                }
             }
         }
         else if(dataObj != null)
@@ -165,148 +167,116 @@ public class CalendarExtractor implements IExtractor
         return send;
     }
 
-    private void checkInvitations(JSONObject activity, CommonEvent event,
-        CalendarDataObject calObj) throws Exception
+    private void checkInvitations(Activity.Builder activity,
+        EventContext context, CalendarDataObject calObj,
+        ActivityBundle followUps) throws Exception
     {
-        JSONObject actor = activity.getJSONObject("actor");
-        int contextId = event.getContextId();
-        Context context = ContextStorage.getInstance()
-            .getContext(contextId);
+        ActivityObject actor = activity.getActor();
+        if(actor == null)
+        {
+            return;
+        }
         
         Map<Integer, Set<Integer>> userFolders =
-            event.getAffectedUsersWithFolder();
+            context.getEvent().getAffectedUsersWithFolder();
         
         UserParticipant[] uParts = calObj.getUsers();
         int organId = calObj.getOrganizerId();
         
-        int userId = -1;
-        int folderId = 0;
-        Set<Integer> folderIds = null;
+        //collect invited participants and their affected folders
+        int[] userIds = new int[uParts.length];
+        int[] folderIds = new int[uParts.length];
+        int count = 0;
+        
+        Set<Integer> userFolderIds = null;
         for(UserParticipant up : uParts)
         {
-            userId = up.getIdentifier();
-            
             if(up.getIdentifier() != organId)
             {
+                userIds[count] = up.getIdentifier();
+                
                 //determine which folder is affected for this user
-                folderIds = userFolders.get(userId);
-                if(folderIds != null
-                    && folderIds.size() > 0)
+                userFolderIds = userFolders.get(up.getIdentifier());
+                if(userFolderIds != null
+                    && userFolderIds.size() > 0)
                 {
-                    folderId = folderIds.iterator().next();
+                    folderIds[count] = userFolderIds.iterator().next();
                 }
                 else
                 {
-                    folderId = 0;
+                    folderIds[count] = 0;
                 }
                 
-                //generate and queue invitation activity
-                generateInviteActivity(actor, userId, folderId, calObj,
-                    context);
+                ++count;
             }
         }
+        
+        if(count == 0)
+        {
+            return;
+        }
+        
+        //resolve all participants at once, reusing the event's context
+        Actor[] people = fAsProc.getActorCache().getParticipants(context,
+            Arrays.copyOf(userIds, count));
+        
+        //generate invitation activities, sent through the inviting user
+        String user = actor.getId();
+        int invites = 0;
+        for(int i = 0; i < count; ++i)
+        {
+            if(people[i] != null)
+            {
+                followUps.add(generateInviteActivity(actor, people[i],
+                    folderIds[i], calObj), user);
+                ++invites;
+            }
+        }
+        
+        fAsProc.getMetrics().invitesGenerated(invites);
     }
     
     private boolean handleRsvpCooldown(int userId, int entryId,
         CommonEvent event)
     {
         boolean send = true;
-        //TODO: incorporate user ID causing the update
         
-        synchronized(fRsvpCooldowns)
+        //for updates, check if there is a cooldown active
+        if(event.getAction() == CommonEvent.UPDATE)
         {
-            //delete old cooldowns
-            if(!fRsvpCooldowns.isEmpty())
+            //only block for user who just responded
+            if(fRsvpCooldowns.isActive(entryId, userId))
             {
-                Set<Integer> toRemove = new HashSet<Integer>();
-
-                long threshold = System.currentTimeMillis() - RSVP_COOLDOWN;
-                
-                //first value: user ID, second value: timestamp
-                long[] values = null;
-                
-                for(Entry<Integer, long[]> coolE : fRsvpCooldowns.entrySet())
-                {
-                    values = coolE.getValue();
-                    
-                    if(values[1] < threshold)
-                    {
-                        toRemove.add(coolE.getKey());
-                    }
-                }
-                
-                for(Integer key : toRemove)
-                {
-                    fRsvpCooldowns.remove(key);
-                }
-            }
-            
-            //for updates, check if there is a cooldown active
-            if(event.getAction() == CommonEvent.UPDATE)
-            {
-                long[] cooldown = fRsvpCooldowns.get(entryId);
-                
-                //only block for user who just responded
-                if(cooldown != null
-                    && cooldown[0] == userId)
-                {
-                    send = false;
-                }
-            }
-            //for rsvp events, start a new cooldown period
-            else if(event.getAction() == CommonEvent.CONFIRM_ACCEPTED
-                || event.getAction() == CommonEvent.CONFIRM_DECLINED
-                || event.getAction() == CommonEvent.CONFIRM_TENTATIVE
-                || event.getAction() == CommonEvent.CONFIRM_WAITING)
-            {
-                long[] cooldown = new long[2];
-                cooldown[0] = userId;
-                cooldown[1] = System.currentTimeMillis();
-                
-                fRsvpCooldowns.put(entryId, cooldown);
+                send = false;
             }
         }
+        //for rsvp events, start a new cooldown period
+        else if(event.getAction() == CommonEvent.CONFIRM_ACCEPTED
+            || event.getAction() == CommonEvent.CONFIRM_DECLINED
+            || event.getAction() == CommonEvent.CONFIRM_TENTATIVE
+            || event.getAction() == CommonEvent.CONFIRM_WAITING)
+        {
+            fRsvpCooldowns.start(entryId, userId);
+        }
         
         return send;
     }
     
-    private void generateInviteActivity(JSONObject actor, int userId,
-        int folderId, CalendarDataObject calObj, Context context)
-        throws Exception
+    private Activity generateInviteActivity(ActivityObject actor,
+        Actor invited, int folderId, CalendarDataObject calObj)
     {
-        //add predefined parts
-        JSONObject activity = new JSONObject();
-        activity.put("actor", actor);
-        activity.put("generator", fAsProc.getGenerator());
-        activity.put("verb", "invite");
-        
-        //add the invited user
-        User notifiedUser = UserStorage.getInstance().getUser(userId, context);
-        JSONObject object = new JSONObject();
-        
-        object.put("id", notifiedUser.getLoginInfo());
-        object.put("objectType", "person");
-
-        String displayName = notifiedUser.getGivenName() + " "
-            + notifiedUser.getSurname();
-        object.put("displayName", displayName);
-        
-        activity.put("object", object);
+        //add predefined parts and the invited user
+        Activity.Builder activity = new Activity.Builder()
+            .setActor(actor)
+            .setGenerator(fAsProc.getGenerator())
+            .setVerb("invite")
+            .setObject(invited.toObject());
         
         //generate updated target
-        JSONObject target = new JSONObject();
-        target.put("id", calObj.getObjectID());
-        target.put("displayName", calObj.getTitle());
-        target.put("objectType", "open-xchange-appointment");
-        
-        String url = fOxUrl + CALENDAR_FRAG + FOLDER_FRAG + folderId
-            + ID_FRAG + folderId + "." + calObj.getObjectID();
-        target.put("url", url);
+        activity.setTarget(new ActivityObject(calObj.getObjectID(),
+            APPOINTMENT_TYPE, calObj.getTitle(), fUrls.getObjectUrl(
+            Integer.toString(folderId), calObj.getObjectID())));
         
-        activity.put("target", target);
-
-        //send activity through inviting user
-        String user = actor.getString("id");
-        fAsProc.queueActivity(activity, user);
+        return activity.build();
     }
 }
@@ -1,11 +1,17 @@
 package de.hofuniversity.iisys.ox.activitystreams.extractors;
 
-import org.json.JSONObject;
-
 import com.openexchange.event.CommonEvent;
 import com.openexchange.groupware.container.Contact;
 import com.openexchange.groupware.container.FolderObject;
 
+import de.hofuniversity.iisys.ox.activitystreams.EventContext;
+import de.hofuniversity.iisys.ox.activitystreams.EventPreFilter;
+import de.hofuniversity.iisys.ox.activitystreams.cache.FolderTarget;
+import de.hofuniversity.iisys.ox.activitystreams.cache.FolderTargetCache;
+import de.hofuniversity.iisys.ox.activitystreams.dispatch.ActivityBundle;
+import de.hofuniversity.iisys.ox.activitystreams.model.Activity;
+import de.hofuniversity.iisys.ox.activitystreams.model.ActivityObject;
+import de.hofuniversity.iisys.ox.activitystreams.model.ObjectType;
 
 /**
  * Extractor for generating activities for contacts.
@@ -13,10 +19,14 @@ import com.openexchange.groupware.container.FolderObject;
 public class ContactExtractor implements IExtractor
 {
     private static final String CONTACTS_FRAG = "#!!&app=io.ox/contacts";
-    private static final String FOLDER_FRAG = "&folder=";
-    private static final String ID_FRAG = "&id=";
     
-    private final String fOxUrl;
+    private static final ObjectType FOLDER_TYPE =
+        new ObjectType("open-xchange-contacts-folder");
+    private static final ObjectType CONTACT_TYPE =
+        new ObjectType("open-xchange-contact");
+    
+    private final UrlTemplate fUrls;
+    private final FolderTargetCache fFolderCache;
     
     private final boolean fSendDeleted;
     private final boolean fFilterUnnamed;
@@ -25,45 +35,40 @@ public class ContactExtractor implements IExtractor
      * Creates a contact event extractor generating links to the given
      * instance URL of Open-Xchange.
      * The given URL should not be null.
+     * The given FolderTargetCache must not be null.
      * 
      * @param oxUrl Open-Xchange instance URL
      * @param sendDeleted whether to send activities for contact deletions
      * @param filterUnnamed whether to filter activities with unnamed entities
+     * @param folderCache cache for folder targets
      */
     public ContactExtractor(String oxUrl, boolean sendDeleted,
-        boolean filterUnnamed)
+        boolean filterUnnamed, FolderTargetCache folderCache)
     {
-        fOxUrl = oxUrl;
+        fUrls = new UrlTemplate(oxUrl, CONTACTS_FRAG);
+        fFolderCache = folderCache;
         fSendDeleted = sendDeleted;
         fFilterUnnamed = filterUnnamed;
     }
 
     @Override
-    public boolean extract(JSONObject activity, CommonEvent event,
-        String action) throws Exception
+    public boolean extract(Activity.Builder activity, EventContext context,
+        String action, ActivityBundle followUps) throws Exception
     {
+        CommonEvent event = context.getEvent();
         boolean send = true;
         
         String targetId = null;
         
         //target: folder
-        Object folderObj = event.getSourceFolder();
-        if(folderObj != null
-            && folderObj instanceof FolderObject)
+        FolderObject folder = context.getFolder();
+        if(folder != null)
         {
-            FolderObject folder = (FolderObject) folderObj;
-            targetId = Integer.toString(folder.getObjectID());
-            
-            JSONObject target = new JSONObject();
-            
-            target.put("id", targetId);
-            target.put("objectType", "open-xchange-contacts-folder");
-            target.put("displayName", folder.getFolderName());
+            FolderTarget target = fFolderCache.getTarget(
+                event.getContextId(), folder, FOLDER_TYPE, fUrls);
+            targetId = target.getId();
             
-            String url = fOxUrl + CONTACTS_FRAG + FOLDER_FRAG + targetId;
-            target.put("url", url);
-            
-            activity.put("target", target);
+            activity.setTarget(target.toObject());
         }
         
         //object: contact object
@@ -79,6 +84,7 @@ public class ContactExtractor implements IExtractor
             if(contact.getPrivateFlag())
             {
                 send = false;
+                context.setFilterReason(EventPreFilter.PRIVATE);
             }
             
             //filter out entries with missing titles (deleted folders etc.)
@@ -87,16 +93,14 @@ public class ContactExtractor implements IExtractor
                 || contact.getDisplayName().isEmpty()))
             {
                 send = false;
+                context.setFilterReason(EventPreFilter.UNNAMED);
             }
             
-            JSONObject object = new JSONObject();
-            object.put("id", contact.getObjectID());
-            object.put("objectType", "open-xchange-contact");
-            
             //TODO: better solution?
+            String displayName = null;
             if(contact.getDisplayName() != null)
             {
-                String displayName = contact.getGivenName() + " "
+                displayName = contact.getGivenName() + " "
                     + contact.getSurName();
                 
                 //optional title
@@ -105,21 +109,17 @@ public class ContactExtractor implements IExtractor
                 {
                     displayName = contact.getTitle() + " " + displayName;
                 }
-                
-                object.put("displayName", displayName);
             }
             else
             {
-                object.put("displayName", "Kontakt");
+                displayName = "Kontakt";
             }
             
             //TODO: names for deleted entries?
             
-            String url = fOxUrl + CONTACTS_FRAG + FOLDER_FRAG + targetId
-                + ID_FRAG + targetId + "." + contact.getObjectID();
-            object.put("url", url);
-            
-            activity.put("object", object);
+            activity.setObject(new ActivityObject(contact.getObjectID(),
+                CONTACT_TYPE, displayName, fUrls.getObjectUrl(targetId,
+                contact.getObjectID())));
         }
         else if(actionObj != null)
         {
@@ -1,7 +1,8 @@
 package de.hofuniversity.iisys.ox.activitystreams.extractors;
 
-import org.json.JSONObject;
-import com.openexchange.event.CommonEvent;
+import de.hofuniversity.iisys.ox.activitystreams.EventContext;
+import de.hofuniversity.iisys.ox.activitystreams.dispatch.ActivityBundle;
+import de.hofuniversity.iisys.ox.activitystreams.model.Activity;
 
 /**
  * Interface for classes that extract additional information from events,
@@ -12,15 +13,20 @@ public interface IExtractor
     /**
      * Relays an incoming event and a pre-generated activity to the extractor,
      * expecting it to add additional details such as an object and a target.
+     * The event's context, user and folder should be taken from the given
+     * event context, which has them looked up at most once per event.
      * The extractor should also determine whether an activity should be sent
      * or filtered out based on its own criteria.
+     * Additional activities caused by the event can be added to the given
+     * bundle, which is sent after the activity itself.
      * 
      * @param activity activity to enrich
-     * @param event event to evaluate
+     * @param context context of the event to evaluate
      * @param action action performed
+     * @param followUps bundle to add follow-up activities to
      * @return whether the activity should be sent
      * @throws Exception if the evaluation fails
      */
-    public boolean extract(JSONObject activity, CommonEvent event,
-        String action) throws Exception;
+    public boolean extract(Activity.Builder activity, EventContext context,
+        String action, ActivityBundle followUps) throws Exception;
 }
@@ -1,21 +1,32 @@
 package de.hofuniversity.iisys.ox.activitystreams.extractors;
 
-import org.json.JSONObject;
-
 import com.openexchange.event.CommonEvent;
 import com.openexchange.groupware.container.FolderObject;
 import com.openexchange.groupware.tasks.Task;
 
+import de.hofuniversity.iisys.ox.activitystreams.EventContext;
+import de.hofuniversity.iisys.ox.activitystreams.EventPreFilter;
+import de.hofuniversity.iisys.ox.activitystreams.cache.FolderTarget;
+import de.hofuniversity.iisys.ox.activitystreams.cache.FolderTargetCache;
+import de.hofuniversity.iisys.ox.activitystreams.dispatch.ActivityBundle;
+import de.hofuniversity.iisys.ox.activitystreams.model.Activity;
+import de.hofuniversity.iisys.ox.activitystreams.model.ActivityObject;
+import de.hofuniversity.iisys.ox.activitystreams.model.ObjectType;
+
 /**
  * Extractor for generating activities for tasks.
  */
 public class TaskExtractor implements IExtractor
 {
     private static final String TASKS_FRAG = "#!!&app=io.ox/tasks";
-    private static final String FOLDER_FRAG = "&folder=";
-    private static final String ID_FRAG = "&id=";
     
-    private final String fOxUrl;
+    private static final ObjectType FOLDER_TYPE =
+        new ObjectType("open-xchange-tasks-folder");
+    private static final ObjectType TASK_TYPE =
+        new ObjectType("open-xchange-task");
+    
+    private final UrlTemplate fUrls;
+    private final FolderTargetCache fFolderCache;
     
     private final boolean fFilterUnnamed;
     
@@ -23,42 +34,38 @@ public class TaskExtractor implements IExtractor
      * Creates a task event extractor generating links to the given
      * instance URL of Open-Xchange.
      * The given URL should not be null.
+     * The given FolderTargetCache must not be null.
      * 
      * @param oxUrl Open-Xchange instance URL
      * @param filterUnnamed whether to filter activities with unnamed entities
+     * @param folderCache cache for folder targets
      */
-    public TaskExtractor(String oxUrl, boolean filterUnnamed)
+    public TaskExtractor(String oxUrl, boolean filterUnnamed,
+        FolderTargetCache folderCache)
     {
-        fOxUrl = oxUrl;
+        fUrls = new UrlTemplate(oxUrl, TASKS_FRAG);
+        fFolderCache = folderCache;
         fFilterUnnamed = filterUnnamed;
     }
     
     @Override
-    public boolean extract(JSONObject activity, CommonEvent event,
-        String action) throws Exception
+    public boolean extract(Activity.Builder activity, EventContext context,
+        String action, ActivityBundle followUps) throws Exception
     {
+        CommonEvent event = context.getEvent();
         boolean send = true;
         
         String targetId = null;
         
         //target: folder
-        Object folderObj = event.getSourceFolder();
-        if(folderObj != null
-            && folderObj instanceof FolderObject)
+        FolderObject folder = context.getFolder();
+        if(folder != null)
         {
-            FolderObject folder = (FolderObject) folderObj;
-            targetId = Integer.toString(folder.getObjectID());
-            
-            JSONObject target = new JSONObject();
+            FolderTarget target = fFolderCache.getTarget(
+                event.getContextId(), folder, FOLDER_TYPE, fUrls);
+            targetId = target.getId();
             
-            target.put("id", folder.getObjectID());
-            target.put("objectType", "open-xchange-tasks-folder");
-            target.put("displayName", folder.getFolderName());
-            
-            String url = fOxUrl + TASKS_FRAG + FOLDER_FRAG + targetId;
-            target.put("url", url);
-            
-            activity.put("target", target);
+            activity.setTarget(target.toObject());
         }
         
         //object: task object
@@ -73,6 +80,7 @@ public class TaskExtractor implements IExtractor
             if(task.getPrivateFlag())
             {
                 send = false;
+                context.setFilterReason(EventPreFilter.PRIVATE);
             }
             
             //filter out entries with missing titles (deleted folders)
@@ -81,18 +89,12 @@ public class TaskExtractor implements IExtractor
                 || task.getTitle().isEmpty()))
             {
                 send = false;
+                context.setFilterReason(EventPreFilter.UNNAMED);
             }
             
-            JSONObject object = new JSONObject();
-            object.put("id", task.getObjectID());
-            object.put("objectType", "open-xchange-task");
-            object.put("displayName", task.getTitle());
-            
-            String url = fOxUrl + TASKS_FRAG + FOLDER_FRAG + targetId
-                + ID_FRAG + targetId + "." + task.getObjectID();
-            object.put("url", url);
-            
-            activity.put("object", object);
+            activity.setObject(new ActivityObject(task.getObjectID(),
+                TASK_TYPE, task.getTitle(), fUrls.getObjectUrl(targetId,
+                task.getObjectID())));
         }
         else if(taskObj != null)
         {
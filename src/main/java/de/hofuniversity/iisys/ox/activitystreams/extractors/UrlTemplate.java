@@ -0,0 +1,52 @@
+package de.hofuniversity.iisys.ox.activitystreams.extractors;
+
+/**
+ * Precompiled template for deep links into an Open-Xchange app, pointing to
+ * a folder or to an object within a folder.
+ * The constant part of the links is assembled once, so building a link only
+ * appends the variable IDs.
+ */
+public class UrlTemplate
+{
+    private static final String FOLDER_FRAG = "&folder=";
+    private static final String ID_FRAG = "&id=";
+    
+    private final String fFolderPrefix;
+    
+    /**
+     * Creates a template for links to the app with the given fragment.
+     *
+     * @param oxUrl Open-Xchange instance URL
+     * @param appFragment fragment selecting the app
+     */
+    public UrlTemplate(String oxUrl, String appFragment)
+    {
+        fFolderPrefix = oxUrl + appFragment + FOLDER_FRAG;
+    }
+    
+    /**
+     * @param folderId ID of the folder
+     * @return link to the folder
+     */
+    public String getFolderUrl(String folderId)
+    {
+        return fFolderPrefix + folderId;
+    }
+    
+    /**
+     * @param folderId ID of the folder containing the object
+     * @param objectId ID of the object
+     * @return link to the object
+     */
+    public String getObjectUrl(String folderId, int objectId)
+    {
+        String folder = String.valueOf(folderId);
+        
+        return new StringBuilder(fFolderPrefix.length()
+            + 2 * folder.length() + ID_FRAG.length() + 12)
+            .append(fFolderPrefix).append(folder)
+            .append(ID_FRAG).append(folder)
+            .append('.').append(objectId)
+            .toString();
+    }
+}
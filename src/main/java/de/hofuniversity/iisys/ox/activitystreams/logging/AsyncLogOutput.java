@@ -0,0 +1,263 @@
+package de.hofuniversity.iisys.ox.activitystreams.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log output handing records to a background thread through a preallocated
+ * ring buffer, so that logging threads never wait for file I/O.
+ * Any number of threads claim slots by advancing a shared sequence with a
+ * compare-and-set and publish their record by storing the slot's sequence
+ * number. The single writer thread takes published records in sequence
+ * order, numbers them with their slot's sequence, collects them into a
+ * buffer and writes them to the file in batches, whenever it has caught up
+ * or the buffer is full. Record numbers thus always increase in the file.
+ * Since the file is only rotated by the writer thread, logging threads never
+ * wait for a rotation.
+ * If the ring buffer is full, records are either dropped and counted or the
+ * logging thread waits for a free slot, depending on the overflow policy.
+ */
+public class AsyncLogOutput implements ILogOutput
+{
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(AsyncLogOutput.class);
+    
+    private static final int BATCH_SIZE = 64 * 1024;
+    
+    //maximum number of digits of a record number
+    private static final int NUMBER_SIZE = 20;
+    
+    //time the writer sleeps while idle and full writers wait for space
+    private static final long IDLE_NANOS = 1000000L;
+    private static final long FULL_NANOS = 100000L;
+    
+    private static final long SHUTDOWN_TIMEOUT = 5000L;
+    
+    private final LogFile fFile;
+    private final boolean fBlock;
+    
+    private final LogRecord[] fSlots;
+    private final AtomicLongArray fPublished;
+    private final int fMask;
+    
+    //next sequence number to claim and to write
+    private final AtomicLong fClaimed;
+    private volatile long fConsumed;
+    
+    private final AtomicLong fDropped;
+    
+    private final ByteBuffer fBatch;
+    
+    private final Thread fThread;
+    
+    private volatile boolean fRunning;
+    
+    /**
+     * Creates an output writing to the given file and starts its writer
+     * thread. The file is closed by the writer thread once it stops.
+     *
+     * @param file file to write to
+     * @param capacity minimum number of records the ring buffer can hold,
+     *  rounded up to the next power of two
+     * @param block whether to wait for a free slot instead of dropping
+     *  records if the ring buffer is full
+     */
+    public AsyncLogOutput(LogFile file, int capacity, boolean block)
+    {
+        fFile = file;
+        fBlock = block;
+        
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        fSlots = new LogRecord[size];
+        fPublished = new AtomicLongArray(size);
+        for(int i = 0; i < size; ++i)
+        {
+            fPublished.set(i, -1L);
+        }
+        fMask = size - 1;
+        
+        fClaimed = new AtomicLong();
+        fDropped = new AtomicLong();
+        
+        fBatch = ByteBuffer.allocateDirect(BATCH_SIZE);
+        
+        fRunning = true;
+        fThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                work();
+            }
+        }, "activitystreams-log-writer");
+        fThread.setDaemon(true);
+        fThread.start();
+    }
+    
+    @Override
+    public void write(LogRecord record)
+    {
+        long seq = 0L;
+        while(true)
+        {
+            seq = fClaimed.get();
+            
+            if(seq - fConsumed > fMask)
+            {
+                //full, drop the record or wait for the writer
+                if(!fBlock
+                    || !fRunning)
+                {
+                    long dropped = fDropped.incrementAndGet();
+                    if(dropped % 1000 == 1)
+                    {
+                        LOG.warn("log buffer full, {} records dropped so far",
+                            dropped);
+                    }
+                    return;
+                }
+                
+                LockSupport.parkNanos(FULL_NANOS);
+            }
+            else if(fClaimed.compareAndSet(seq, seq + 1))
+            {
+                break;
+            }
+        }
+        
+        //the slot's sequence number publishes the record to the writer
+        int index = (int) (seq & fMask);
+        fSlots[index] = record;
+        fPublished.lazySet(index, seq);
+    }
+    
+    /**
+     * @return number of records waiting to be written
+     */
+    public int size()
+    {
+        return (int) (fClaimed.get() - fConsumed);
+    }
+    
+    @Override
+    public long getDropped()
+    {
+        return fDropped.get();
+    }
+    
+    /**
+     * Stops the writer thread after it has written all published records
+     * and closes the file.
+     */
+    @Override
+    public void close()
+    {
+        fRunning = false;
+        
+        try
+        {
+            fThread.join(SHUTDOWN_TIMEOUT);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void work()
+    {
+        long next = 0L;
+        
+        try
+        {
+            while(fRunning
+                || next < fClaimed.get())
+            {
+                int index = (int) (next & fMask);
+                
+                if(fPublished.get(index) != next)
+                {
+                    //caught up, write what has been collected
+                    if(fBatch.position() > 0)
+                    {
+                        flush();
+                    }
+                    else if(fRunning)
+                    {
+                        LockSupport.parkNanos(IDLE_NANOS);
+                    }
+                    else if(next < fClaimed.get())
+                    {
+                        //claimed, but not yet published
+                        Thread.yield();
+                    }
+                    continue;
+                }
+                
+                LogRecord record = fSlots[index];
+                fSlots[index] = null;
+                
+                //free the slot before writing
+                ++next;
+                fConsumed = next;
+                
+                //records are numbered from 1 in sequence order
+                append(record.getHead());
+                appendNumber(next);
+                append(record.getBody());
+            }
+            
+            flush();
+        }
+        catch(IOException e)
+        {
+            LOG.error("writing log file failed, stopping log writer", e);
+            fRunning = false;
+        }
+        finally
+        {
+            fFile.close();
+        }
+    }
+    
+    private void append(byte[] record) throws IOException
+    {
+        if(record.length > fBatch.remaining())
+        {
+            flush();
+        }
+        
+        if(record.length > fBatch.remaining())
+        {
+            fFile.write(ByteBuffer.wrap(record));
+        }
+        else
+        {
+            fBatch.put(record);
+        }
+    }
+    
+    private void appendNumber(long number) throws IOException
+    {
+        if(NUMBER_SIZE > fBatch.remaining())
+        {
+            flush();
+        }
+        
+        String digits = Long.toString(number);
+        for(int i = 0; i < digits.length(); ++i)
+        {
+            fBatch.put((byte) digits.charAt(i));
+        }
+    }
+    
+    private void flush() throws IOException
+    {
+        fBatch.flip();
+        fFile.write(fBatch);
+        fBatch.clear();
+    }
+}
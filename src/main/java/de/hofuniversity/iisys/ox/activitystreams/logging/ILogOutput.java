@@ -0,0 +1,27 @@
+package de.hofuniversity.iisys.ox.activitystreams.logging;
+
+/**
+ * Interface for destinations formatted log records are written to.
+ */
+public interface ILogOutput
+{
+    /**
+     * Writes a complete, formatted record, numbered with the output's next
+     * sequence number. Numbers start at 1 and increase in the order records
+     * are written. The given record is handed over to the output and must
+     * not be modified afterwards.
+     *
+     * @param record record to write
+     */
+    public void write(LogRecord record);
+    
+    /**
+     * @return number of records dropped since creation
+     */
+    public long getDropped();
+    
+    /**
+     * Writes remaining records as far as possible and closes the output.
+     */
+    public void close();
+}
@@ -0,0 +1,281 @@
+package de.hofuniversity.iisys.ox.activitystreams.logging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Background worker compressing closed log segments and deleting the oldest
+ * ones beyond the retention count.
+ * Segments are recognized by their name, which consists of the name of the
+ * active log file followed by a dot and their rotation time. Every run scans
+ * the log directory, so segments left uncompressed by a previous shutdown
+ * are picked up as well.
+ * Runs are requested without waiting and multiple requests during a run are
+ * merged into a single further run. Instances are thread-safe.
+ */
+public class LogArchiver
+{
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(LogArchiver.class);
+    
+    /**
+     * Suffix of compressed segments.
+     */
+    public static final String GZIP_SUFFIX = ".gz";
+    
+    private static final String TEMP_SUFFIX = ".tmp";
+    
+    //rotation times sort in chronological order
+    private static final String TIME_FORMAT = "yyyyMMdd-HHmmss-SSS";
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile(
+        "\\d{8}-\\d{6}-\\d{3}(\\.gz)?(\\.tmp)?");
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private final File fDirectory;
+    private final String fPrefix;
+    private final int fRetention;
+    private final boolean fCompress;
+    
+    private final Object fLock;
+    
+    private final Thread fThread;
+    
+    private volatile boolean fRunning;
+    
+    private boolean fPending;
+    
+    /**
+     * Creates an archiver for the segments of the given log file and starts
+     * its thread, which archives existing segments right away.
+     *
+     * @param file active log file
+     * @param retention number of segments to keep, 0 to keep all
+     * @param compress whether to compress segments
+     */
+    public LogArchiver(File file, int retention, boolean compress)
+    {
+        File directory = file.getAbsoluteFile().getParentFile();
+        fDirectory = directory != null ? directory : new File(".");
+        fPrefix = file.getName() + ".";
+        fRetention = Math.max(0, retention);
+        fCompress = compress;
+        
+        fLock = new Object();
+        fPending = true;
+        
+        fRunning = true;
+        fThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                work();
+            }
+        }, "activitystreams-log-archiver");
+        fThread.setDaemon(true);
+        fThread.setPriority(Thread.MIN_PRIORITY);
+        fThread.start();
+    }
+    
+    /**
+     * Requests archiving the segments in the background.
+     */
+    public void schedule()
+    {
+        synchronized(fLock)
+        {
+            fPending = true;
+            fLock.notifyAll();
+        }
+    }
+    
+    /**
+     * Stops the archiver's thread after its current run. Segments that have
+     * not been compressed yet are compressed on the next start.
+     */
+    public void shutdown()
+    {
+        fRunning = false;
+        
+        synchronized(fLock)
+        {
+            fLock.notifyAll();
+        }
+    }
+    
+    /**
+     * Returns the file a segment of the given log file rotated at the given
+     * time is stored in before it is compressed.
+     *
+     * @param file active log file
+     * @param time rotation time in milliseconds
+     * @return file for the segment
+     */
+    public static File getSegment(File file, long time)
+    {
+        String stamp =
+            new SimpleDateFormat(TIME_FORMAT).format(new Date(time));
+        return new File(file.getAbsoluteFile().getParentFile(),
+            file.getName() + "." + stamp);
+    }
+    
+    private void work()
+    {
+        while(fRunning)
+        {
+            synchronized(fLock)
+            {
+                while(fRunning
+                    && !fPending)
+                {
+                    try
+                    {
+                        fLock.wait();
+                    }
+                    catch(InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+                
+                if(!fRunning)
+                {
+                    return;
+                }
+                
+                fPending = false;
+            }
+            
+            try
+            {
+                archive();
+            }
+            catch(Exception e)
+            {
+                LOG.error("archiving log segments failed", e);
+            }
+        }
+    }
+    
+    private void archive()
+    {
+        File[] files = fDirectory.listFiles();
+        if(files == null)
+        {
+            return;
+        }
+        
+        List<File> segments = new ArrayList<File>();
+        for(File file : files)
+        {
+            String name = file.getName();
+            if(!name.startsWith(fPrefix)
+                || !SEGMENT_PATTERN.matcher(
+                    name.substring(fPrefix.length())).matches()
+                || !file.isFile())
+            {
+                continue;
+            }
+            
+            //remainders of an interrupted compression
+            if(name.endsWith(TEMP_SUFFIX))
+            {
+                file.delete();
+                continue;
+            }
+            
+            if(fCompress
+                && fRunning
+                && !name.endsWith(GZIP_SUFFIX))
+            {
+                file = compress(file);
+            }
+            segments.add(file);
+        }
+        
+        if(fRetention == 0
+            || segments.size() <= fRetention)
+        {
+            return;
+        }
+        
+        //oldest segments first, names contain their rotation time
+        File[] sorted = segments.toArray(new File[segments.size()]);
+        Arrays.sort(sorted, new Comparator<File>()
+        {
+            @Override
+            public int compare(File f1, File f2)
+            {
+                return f1.getName().compareTo(f2.getName());
+            }
+        });
+        
+        for(int i = 0; i < sorted.length - fRetention; ++i)
+        {
+            if(!sorted[i].delete())
+            {
+                LOG.warn("could not delete log segment {}", sorted[i]);
+            }
+        }
+    }
+    
+    private File compress(File segment)
+    {
+        File target = new File(fDirectory, segment.getName() + GZIP_SUFFIX);
+        File temp = new File(fDirectory, target.getName() + TEMP_SUFFIX);
+        
+        try
+        {
+            InputStream in = new FileInputStream(segment);
+            try
+            {
+                OutputStream out = new GZIPOutputStream(
+                    new FileOutputStream(temp), BUFFER_SIZE);
+                try
+                {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read = in.read(buffer);
+                    while(read >= 0)
+                    {
+                        out.write(buffer, 0, read);
+                        read = in.read(buffer);
+                    }
+                }
+                finally
+                {
+                    out.close();
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+            
+            if(!temp.renameTo(target))
+            {
+                throw new IOException("could not rename " + temp);
+            }
+            segment.delete();
+            return target;
+        }
+        catch(IOException e)
+        {
+            LOG.error("compressing log segment " + segment + " failed", e);
+            temp.delete();
+            return segment;
+        }
+    }
+}
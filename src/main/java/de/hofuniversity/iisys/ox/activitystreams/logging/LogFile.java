@@ -0,0 +1,179 @@
+package de.hofuniversity.iisys.ox.activitystreams.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.TimeZone;
+
+/**
+ * Log file appended to through its channel, which is rotated into a new
+ * segment once it exceeds a maximum size or a time interval has passed.
+ * Time intervals are aligned to local time, so daily segments start at
+ * midnight and hourly segments on the full hour. An existing file is
+ * continued after a restart, unless it belongs to an earlier interval.
+ * Rotating only renames the file and opens a new one, closed segments are
+ * compressed and removed by a background archiver.
+ * Instances are not thread-safe and are only used by a single writer at a
+ * time.
+ */
+public class LogFile
+{
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(LogFile.class);
+    
+    //time to wait before retrying a failed rotation
+    private static final long RETRY_DELAY = 60000L;
+    
+    private final File fFile;
+    private final long fMaxSize;
+    private final long fInterval;
+    
+    private final LogArchiver fArchiver;
+    
+    private FileChannel fChannel;
+    private long fSize;
+    private long fNextRotation;
+    private long fNextRetry;
+    
+    /**
+     * Opens the given log file for appending, creating its directory if
+     * necessary, and starts an archiver for its segments.
+     *
+     * @param file file to write to
+     * @param maxSize size in bytes after which the file is rotated, 0 for
+     *  no limit
+     * @param interval time in milliseconds after which the file is rotated,
+     *  0 to only rotate by size
+     * @param retention number of segments to keep, 0 to keep all
+     * @param compress whether to compress segments
+     * @throws IOException if the file cannot be opened
+     */
+    public LogFile(File file, long maxSize, long interval, int retention,
+        boolean compress) throws IOException
+    {
+        fFile = file;
+        fMaxSize = Math.max(0L, maxSize);
+        fInterval = Math.max(0L, interval);
+        
+        File parent = file.getAbsoluteFile().getParentFile();
+        if(parent != null
+            && !parent.isDirectory()
+            && !parent.mkdirs())
+        {
+            throw new IOException("could not create directory " + parent);
+        }
+        
+        open();
+        
+        fArchiver = new LogArchiver(file, retention, compress);
+    }
+    
+    /**
+     * Writes the given buffer's content to the file, rotating it before if
+     * necessary, so that a single write never spans two segments.
+     *
+     * @param buffer buffer to write
+     * @throws IOException if writing fails
+     */
+    public void write(ByteBuffer buffer) throws IOException
+    {
+        if(fSize > 0L
+            && buffer.hasRemaining()
+            && (fMaxSize > 0L
+            || fInterval > 0L))
+        {
+            long now = System.currentTimeMillis();
+            
+            if((fMaxSize > 0L
+                && fSize + buffer.remaining() > fMaxSize
+                || fInterval > 0L
+                && now >= fNextRotation)
+                && now >= fNextRetry)
+            {
+                rotate(now);
+            }
+        }
+        
+        while(buffer.hasRemaining())
+        {
+            fSize += fChannel.write(buffer);
+        }
+    }
+    
+    /**
+     * Closes the file and stops the archiver.
+     */
+    public void close()
+    {
+        fArchiver.shutdown();
+        
+        try
+        {
+            fChannel.close();
+        }
+        catch(IOException e)
+        {
+            LOG.error("closing log file failed", e);
+        }
+    }
+    
+    private void open() throws IOException
+    {
+        fChannel = FileChannel.open(fFile.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fSize = fChannel.size();
+        
+        //continued files are rotated at the end of their own interval
+        if(fInterval > 0L)
+        {
+            long last = System.currentTimeMillis();
+            if(fSize > 0L)
+            {
+                last = Math.min(last, fFile.lastModified());
+            }
+            fNextRotation = getNextRotation(last);
+        }
+    }
+    
+    private void rotate(long now) throws IOException
+    {
+        fChannel.close();
+        
+        //segments need unique names, even when rotating in quick succession
+        long time = now;
+        File segment = LogArchiver.getSegment(fFile, time);
+        while(segment.exists()
+            || new File(segment.getPath() + LogArchiver.GZIP_SUFFIX).exists())
+        {
+            segment = LogArchiver.getSegment(fFile, ++time);
+        }
+        
+        try
+        {
+            Files.move(fFile.toPath(), segment.toPath());
+            fNextRetry = 0L;
+        }
+        catch(IOException e)
+        {
+            //keep writing to the current file for now
+            fNextRetry = now + RETRY_DELAY;
+            LOG.error("rotating log file failed", e);
+        }
+        
+        open();
+        
+        if(fNextRetry == 0L)
+        {
+            fArchiver.schedule();
+        }
+    }
+    
+    private long getNextRotation(long time)
+    {
+        long local = time + TimeZone.getDefault().getOffset(time);
+        return time - local % fInterval + fInterval;
+    }
+}
@@ -0,0 +1,54 @@
+package de.hofuniversity.iisys.ox.activitystreams.logging;
+
+import java.nio.charset.Charset;
+
+/**
+ * Formatted log record, encoded on the logging thread.
+ * Records are numbered by the output they are written to, in the order they
+ * are written, so the number is placed between the record's head and body
+ * only once the output has taken the record.
+ */
+public class LogRecord
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private final byte[] fHead;
+    private final byte[] fBody;
+    
+    /**
+     * Creates a record from the text before and after its number.
+     * The given strings must not be null.
+     *
+     * @param head text before the number
+     * @param body text after the number, including line breaks
+     */
+    public LogRecord(String head, String body)
+    {
+        fHead = head.getBytes(UTF_8);
+        fBody = body.getBytes(UTF_8);
+    }
+    
+    /**
+     * @return UTF-8 encoded text before the number
+     */
+    public byte[] getHead()
+    {
+        return fHead;
+    }
+    
+    /**
+     * @return UTF-8 encoded text after the number
+     */
+    public byte[] getBody()
+    {
+        return fBody;
+    }
+    
+    /**
+     * @return number of bytes of the record without its number
+     */
+    public int getLength()
+    {
+        return fHead.length + fBody.length;
+    }
+}
@@ -0,0 +1,70 @@
+package de.hofuniversity.iisys.ox.activitystreams.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Log output writing every record to its file right away on the calling
+ * thread. Writers are serialized by a lock, which also numbers the records,
+ * so this output should only be used for debugging.
+ */
+public class SyncLogOutput implements ILogOutput
+{
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(SyncLogOutput.class);
+    
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    
+    private final LogFile fFile;
+    private final AtomicLong fDropped;
+    
+    private long fNumber;
+    
+    /**
+     * Creates an output writing to the given file.
+     *
+     * @param file file to write to
+     */
+    public SyncLogOutput(LogFile file)
+    {
+        fFile = file;
+        fDropped = new AtomicLong();
+    }
+    
+    @Override
+    public synchronized void write(LogRecord record)
+    {
+        byte[] number = Long.toString(++fNumber).getBytes(ASCII);
+        
+        ByteBuffer buffer = ByteBuffer.allocate(record.getLength()
+            + number.length);
+        buffer.put(record.getHead()).put(number).put(record.getBody());
+        buffer.flip();
+        
+        try
+        {
+            fFile.write(buffer);
+        }
+        catch(IOException e)
+        {
+            if(fDropped.incrementAndGet() % 1000 == 1)
+            {
+                LOG.error("writing log record failed", e);
+            }
+        }
+    }
+    
+    @Override
+    public long getDropped()
+    {
+        return fDropped.get();
+    }
+    
+    @Override
+    public synchronized void close()
+    {
+        fFile.close();
+    }
+}
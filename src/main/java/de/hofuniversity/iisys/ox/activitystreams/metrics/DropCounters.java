@@ -0,0 +1,63 @@
+package de.hofuniversity.iisys.ox.activitystreams.metrics;
+
+import java.util.Map;
+
+/**
+ * Thread-safe counters for events and activities that were dropped,
+ * recording the reason and what was dropped (for example a verb).
+ * Counters are striped, so that dropping under load does not turn into a
+ * point of contention.
+ */
+public class DropCounters
+{
+    private final KeyedCounters fCounters;
+    
+    /**
+     * Creates a set of counters, all at zero.
+     */
+    public DropCounters()
+    {
+        fCounters = new KeyedCounters();
+    }
+    
+    /**
+     * Counts a dropped item.
+     *
+     * @param reason reason the item was dropped for
+     * @param what kind of item that was dropped
+     */
+    public void increment(String reason, String what)
+    {
+        fCounters.increment(reason + "/" + what);
+    }
+    
+    /**
+     * Counts a number of dropped items.
+     *
+     * @param reason reason the items were dropped for
+     * @param what kind of items that were dropped
+     * @param count number of dropped items
+     */
+    public void add(String reason, String what, long count)
+    {
+        fCounters.add(reason + "/" + what, count);
+    }
+    
+    /**
+     * @param reason reason items were dropped for
+     * @param what kind of items that were dropped
+     * @return number of items dropped
+     */
+    public long get(String reason, String what)
+    {
+        return fCounters.get(reason + "/" + what);
+    }
+    
+    /**
+     * @return sorted copy of all counters, keyed by "reason/what"
+     */
+    public Map<String, Long> snapshot()
+    {
+        return fCounters.snapshot();
+    }
+}
@@ -0,0 +1,116 @@
+package de.hofuniversity.iisys.ox.activitystreams.metrics;
+
+/**
+ * Immutable snapshot of a latency histogram, providing count, mean, maximum
+ * and common percentiles in microseconds.
+ * Percentiles are reported as the upper bound of the bucket they fall into,
+ * but never above the maximum.
+ */
+public class HistogramSnapshot
+{
+    private static final double NANOS_PER_MICRO = 1000.0;
+    
+    private final long[] fCounts;
+    private final long fCount;
+    private final long fSum;
+    private final long fMax;
+    
+    /**
+     * Creates a snapshot from the given bucket counts of a LatencyHistogram.
+     *
+     * @param counts number of values per bucket
+     * @param sum sum of all values in nanoseconds
+     * @param max maximum value in nanoseconds
+     */
+    public HistogramSnapshot(long[] counts, long sum, long max)
+    {
+        fCounts = counts;
+        fSum = sum;
+        fMax = max;
+        
+        long count = 0L;
+        for(long c : counts)
+        {
+            count += c;
+        }
+        fCount = count;
+    }
+    
+    /**
+     * @return number of recorded values
+     */
+    public long getCount()
+    {
+        return fCount;
+    }
+    
+    /**
+     * @return mean value in microseconds
+     */
+    public double getMean()
+    {
+        return fCount > 0L ? fSum / (fCount * NANOS_PER_MICRO) : 0.0;
+    }
+    
+    /**
+     * @return maximum value in microseconds
+     */
+    public double getMax()
+    {
+        return fMax / NANOS_PER_MICRO;
+    }
+    
+    /**
+     * @return median in microseconds
+     */
+    public double getP50()
+    {
+        return getPercentile(50.0);
+    }
+    
+    /**
+     * @return 90th percentile in microseconds
+     */
+    public double getP90()
+    {
+        return getPercentile(90.0);
+    }
+    
+    /**
+     * @return 99th percentile in microseconds
+     */
+    public double getP99()
+    {
+        return getPercentile(99.0);
+    }
+    
+    /**
+     * Returns the value below which the given percentage of values fall.
+     *
+     * @param percent percentage between 0 and 100
+     * @return percentile in microseconds
+     */
+    public double getPercentile(double percent)
+    {
+        if(fCount == 0L)
+        {
+            return 0.0;
+        }
+        
+        long rank = (long) Math.ceil(fCount * Math.min(100.0, percent) / 100.0);
+        rank = Math.max(1L, rank);
+        
+        long seen = 0L;
+        for(int i = 0; i < fCounts.length; ++i)
+        {
+            seen += fCounts[i];
+            if(seen >= rank)
+            {
+                return Math.min(LatencyHistogram.getUpperBound(i), fMax)
+                    / NANOS_PER_MICRO;
+            }
+        }
+        
+        return getMax();
+    }
+}
@@ -0,0 +1,85 @@
+package de.hofuniversity.iisys.ox.activitystreams.metrics;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread-safe set of striped counters keyed by name, such as events per
+ * topic or activities per verb. Counters are created on first use.
+ */
+public class KeyedCounters
+{
+    private final ConcurrentMap<String, StripedCounter> fCounters;
+    
+    /**
+     * Creates an empty set of counters.
+     */
+    public KeyedCounters()
+    {
+        fCounters = new ConcurrentHashMap<String, StripedCounter>();
+    }
+    
+    /**
+     * Increments the counter for the given key by one.
+     *
+     * @param key key to count
+     */
+    public void increment(String key)
+    {
+        getCounter(key).increment();
+    }
+    
+    /**
+     * Adds the given value to the counter for the given key.
+     *
+     * @param key key to count
+     * @param value value to add
+     */
+    public void add(String key, long value)
+    {
+        getCounter(key).add(value);
+    }
+    
+    /**
+     * @param key key of a counter
+     * @return value of the counter for the given key
+     */
+    public long get(String key)
+    {
+        StripedCounter counter = fCounters.get(key);
+        return counter != null ? counter.get() : 0L;
+    }
+    
+    /**
+     * @return sorted copy of all counters
+     */
+    public Map<String, Long> snapshot()
+    {
+        Map<String, Long> snapshot = new TreeMap<String, Long>();
+        
+        for(Entry<String, StripedCounter> counter : fCounters.entrySet())
+        {
+            snapshot.put(counter.getKey(), counter.getValue().get());
+        }
+        
+        return snapshot;
+    }
+    
+    private StripedCounter getCounter(String key)
+    {
+        StripedCounter counter = fCounters.get(key);
+        if(counter == null)
+        {
+            counter = new StripedCounter();
+            StripedCounter existing = fCounters.putIfAbsent(key, counter);
+            if(existing != null)
+            {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+}
@@ -0,0 +1,124 @@
+package de.hofuniversity.iisys.ox.activitystreams.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds with logarithmic buckets
+ * in the manner of HdrHistogram.
+ * Each power of two range is split into eight linear sub-buckets, so that
+ * percentiles computed from a snapshot are accurate to 12.5%, from single
+ * nanoseconds up to several hours. Recording takes two atomic additions on
+ * cells of the calling thread's stripe, so concurrent threads rarely
+ * contend. Instances are thread-safe.
+ */
+public class LatencyHistogram
+{
+    //linear sub-buckets per power of two
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    
+    //values are capped at 2^44 nanoseconds, almost five hours
+    private static final int MAX_BITS = 44;
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1L;
+    
+    private static final int BUCKETS = (MAX_BITS - SUB_BITS + 1) * SUB_COUNT;
+    
+    //bucket counts and sum of a stripe, padded to separate cache lines
+    private static final int SUM = BUCKETS;
+    private static final int STRIPE_SIZE = BUCKETS + 8;
+    
+    private final AtomicLongArray fCells;
+    private final int fMask;
+    
+    private final AtomicLong fMax;
+    
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram()
+    {
+        int stripes = StripedCounter.getStripes();
+        fCells = new AtomicLongArray(stripes * STRIPE_SIZE);
+        fMask = stripes - 1;
+        
+        fMax = new AtomicLong();
+    }
+    
+    /**
+     * Records a latency.
+     *
+     * @param nanos latency in nanoseconds
+     */
+    public void record(long nanos)
+    {
+        if(nanos < 0L)
+        {
+            nanos = 0L;
+        }
+        
+        int base = StripedCounter.getStripe(fMask) * STRIPE_SIZE;
+        fCells.incrementAndGet(base + getBucket(Math.min(nanos, MAX_VALUE)));
+        fCells.addAndGet(base + SUM, nanos);
+        
+        //the maximum rarely changes once warmed up
+        long max = fMax.get();
+        while(nanos > max
+            && !fMax.compareAndSet(max, nanos))
+        {
+            max = fMax.get();
+        }
+    }
+    
+    /**
+     * Takes a snapshot of the histogram. Latencies recorded concurrently
+     * may or may not be included.
+     *
+     * @return snapshot of the recorded latencies
+     */
+    public HistogramSnapshot snapshot()
+    {
+        long[] counts = new long[BUCKETS];
+        long sum = 0L;
+        
+        for(int base = 0; base < fCells.length(); base += STRIPE_SIZE)
+        {
+            for(int i = 0; i < BUCKETS; ++i)
+            {
+                counts[i] += fCells.get(base + i);
+            }
+            sum += fCells.get(base + SUM);
+        }
+        
+        return new HistogramSnapshot(counts, sum, fMax.get());
+    }
+    
+    private static int getBucket(long nanos)
+    {
+        //small values map to their own buckets
+        if(nanos < 2 * SUB_COUNT)
+        {
+            return (int) nanos;
+        }
+        
+        //otherwise keep the top bits below the highest one as sub-bucket
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS;
+        return shift * SUB_COUNT + (int) (nanos >>> shift);
+    }
+    
+    /**
+     * @param bucket index of a bucket
+     * @return highest value in nanoseconds falling into the bucket
+     */
+    static long getUpperBound(int bucket)
+    {
+        if(bucket < 2 * SUB_COUNT)
+        {
+            return bucket;
+        }
+        
+        int shift = bucket / SUB_COUNT - 1;
+        long sub = bucket % SUB_COUNT + SUB_COUNT;
+        return ((sub + 1L) << shift) - 1L;
+    }
+}
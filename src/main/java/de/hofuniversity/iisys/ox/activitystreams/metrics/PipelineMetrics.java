@@ -0,0 +1,200 @@
+package de.hofuniversity.iisys.ox.activitystreams.metrics;
+
+import java.util.Map;
+
+/**
+ * Counters and latency histograms for the way from incoming events to sent
+ * activities, recorded on the hot path and read through JMX, as well as the
+ * tracer timing the stages of sampled events and requests.
+ * All counters are striped and histograms are lock-free, so recording never
+ * makes processing threads wait for each other. Instances are thread-safe.
+ */
+public class PipelineMetrics
+{
+    private final KeyedCounters fTopics;
+    private final KeyedCounters fModules;
+    private final KeyedCounters fVerbs;
+    
+    private final StripedCounter fFailures;
+    private final StripedCounter fInvites;
+    private final StripedCounter fSendsSucceeded;
+    private final StripedCounter fSendsFailed;
+    
+    private final LatencyHistogram fHandleLatency;
+    private final LatencyHistogram fSendLatency;
+    
+    private final StageTracer fTracer;
+    
+    /**
+     * Creates a set of metrics, all at zero.
+     *
+     * @param sampling percentage of events and requests to trace stages of
+     * @param slowThreshold time in nanoseconds above which traces are kept
+     *  as exemplars, 0 to keep none
+     */
+    public PipelineMetrics(int sampling, long slowThreshold)
+    {
+        fTopics = new KeyedCounters();
+        fModules = new KeyedCounters();
+        fVerbs = new KeyedCounters();
+        
+        fFailures = new StripedCounter();
+        fInvites = new StripedCounter();
+        fSendsSucceeded = new StripedCounter();
+        fSendsFailed = new StripedCounter();
+        
+        fHandleLatency = new LatencyHistogram();
+        fSendLatency = new LatencyHistogram();
+        
+        fTracer = new StageTracer(sampling, slowThreshold);
+    }
+    
+    /**
+     * @return tracer timing the stages of sampled events and requests
+     */
+    public StageTracer getTracer()
+    {
+        return fTracer;
+    }
+    
+    /**
+     * Records a received event and the time it took to handle it.
+     *
+     * @param topic topic the event was posted under
+     * @param nanos time in nanoseconds spent handling the event
+     */
+    public void eventHandled(String topic, long nanos)
+    {
+        fTopics.increment(topic);
+        fHandleLatency.record(nanos);
+    }
+    
+    /**
+     * Records an event that was routed to a module for processing.
+     *
+     * @param module type of the module as defined in TopicTable
+     */
+    public void eventRouted(String module)
+    {
+        fModules.increment(module);
+    }
+    
+    /**
+     * Records an event whose processing failed with an exception.
+     */
+    public void eventFailed()
+    {
+        fFailures.increment();
+    }
+    
+    /**
+     * Records an activity that was generated and handed to delivery.
+     *
+     * @param verb verb of the activity
+     */
+    public void activityGenerated(String verb)
+    {
+        fVerbs.increment(verb);
+    }
+    
+    /**
+     * Records invitation activities generated for an appointment.
+     *
+     * @param count number of invitations
+     */
+    public void invitesGenerated(int count)
+    {
+        fInvites.add(count);
+    }
+    
+    /**
+     * Records a completed request to the activity server.
+     *
+     * @param nanos time in nanoseconds the request took
+     * @param success whether the request succeeded
+     */
+    public void sendCompleted(long nanos, boolean success)
+    {
+        if(success)
+        {
+            fSendsSucceeded.increment();
+        }
+        else
+        {
+            fSendsFailed.increment();
+        }
+        fSendLatency.record(nanos);
+    }
+    
+    /**
+     * @return number of received events per topic
+     */
+    public Map<String, Long> getEventsPerTopic()
+    {
+        return fTopics.snapshot();
+    }
+    
+    /**
+     * @return number of processed events per module
+     */
+    public Map<String, Long> getEventsPerModule()
+    {
+        return fModules.snapshot();
+    }
+    
+    /**
+     * @return number of generated activities per verb
+     */
+    public Map<String, Long> getActivitiesPerVerb()
+    {
+        return fVerbs.snapshot();
+    }
+    
+    /**
+     * @return number of events whose processing failed
+     */
+    public long getEventsFailed()
+    {
+        return fFailures.get();
+    }
+    
+    /**
+     * @return number of generated invitations
+     */
+    public long getInvitesGenerated()
+    {
+        return fInvites.get();
+    }
+    
+    /**
+     * @return number of successful requests to the activity server
+     */
+    public long getSendsSucceeded()
+    {
+        return fSendsSucceeded.get();
+    }
+    
+    /**
+     * @return number of failed requests to the activity server
+     */
+    public long getSendsFailed()
+    {
+        return fSendsFailed.get();
+    }
+    
+    /**
+     * @return latencies of handling incoming events
+     */
+    public HistogramSnapshot getHandleLatency()
+    {
+        return fHandleLatency.snapshot();
+    }
+    
+    /**
+     * @return latencies of requests to the activity server
+     */
+    public HistogramSnapshot getSendLatency()
+    {
+        return fSendLatency.snapshot();
+    }
+}
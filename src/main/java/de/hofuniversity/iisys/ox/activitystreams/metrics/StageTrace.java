@@ -0,0 +1,140 @@
+package de.hofuniversity.iisys.ox.activitystreams.metrics;
+
+/**
+ * Timings of the processing stages of a single sampled event or request.
+ * Stages are timed by taking a mark before a stage and passing it on
+ * completion, which returns the mark for the following stage:
+ * <pre>
+ * long mark = trace.mark();
+ * ...
+ * mark = trace.stage(StageTrace.LOOKUP, mark);
+ * </pre>
+ * Traces of events that were not sampled are disabled and do not read the
+ * clock at all. A stage may be passed multiple times, adding up its times.
+ * Instances are not thread-safe and only used by the thread processing the
+ * traced event or request.
+ */
+public class StageTrace
+{
+    public static final int LOOKUP = 0;
+    public static final int EXTRACT = 1;
+    public static final int BUILD = 2;
+    public static final int FILTER = 3;
+    public static final int SERIALIZE = 4;
+    public static final int CONNECT = 5;
+    public static final int WRITE = 6;
+    public static final int READ = 7;
+    
+    static final String[] NAMES = {"lookup", "extract", "build", "filter",
+        "serialize", "connect", "write", "read"};
+    
+    /**
+     * Trace not recording anything, for events that are not sampled.
+     */
+    public static final StageTrace DISABLED =
+        new StageTrace(null, null, null);
+    
+    private final StageTracer fTracer;
+    private final String fLabel;
+    private final Object fDetail;
+    private final long fStart;
+    private final long[] fNanos;
+    
+    /**
+     * Creates a trace starting now, which is reported to the given tracer
+     * when finished. A trace without a tracer is disabled.
+     *
+     * @param tracer tracer to report to or null
+     * @param label description of the traced event
+     * @param detail details of the traced event or null
+     */
+    StageTrace(StageTracer tracer, String label, Object detail)
+    {
+        fTracer = tracer;
+        fLabel = label;
+        fDetail = detail;
+        
+        if(tracer != null)
+        {
+            fNanos = new long[NAMES.length];
+            fStart = System.nanoTime();
+        }
+        else
+        {
+            fNanos = null;
+            fStart = 0L;
+        }
+    }
+    
+    /**
+     * @return whether this trace records stage timings
+     */
+    public boolean isEnabled()
+    {
+        return fNanos != null;
+    }
+    
+    /**
+     * @return mark for starting a stage now
+     */
+    public long mark()
+    {
+        return fNanos != null ? System.nanoTime() : 0L;
+    }
+    
+    /**
+     * Completes a stage that started at the given mark.
+     *
+     * @param stage stage as defined in this class
+     * @param mark mark taken at the start of the stage
+     * @return mark for starting the following stage now
+     */
+    public long stage(int stage, long mark)
+    {
+        if(fNanos == null)
+        {
+            return 0L;
+        }
+        
+        long now = System.nanoTime();
+        fNanos[stage] += now - mark;
+        return now;
+    }
+    
+    /**
+     * Completes the trace, recording its stages. Has no effect on disabled
+     * traces.
+     */
+    public void finish()
+    {
+        if(fTracer != null)
+        {
+            fTracer.finish(this, System.nanoTime() - fStart);
+        }
+    }
+    
+    /**
+     * @return description of the traced event
+     */
+    public String getLabel()
+    {
+        return fLabel;
+    }
+    
+    /**
+     * @return details of the traced event or null
+     */
+    public Object getDetail()
+    {
+        return fDetail;
+    }
+    
+    /**
+     * @param stage stage as defined in this class
+     * @return time spent in the stage in nanoseconds
+     */
+    public long getNanos(int stage)
+    {
+        return fNanos != null ? fNanos[stage] : 0L;
+    }
+}
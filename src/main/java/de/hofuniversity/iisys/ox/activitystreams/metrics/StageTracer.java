@@ -0,0 +1,179 @@
+package de.hofuniversity.iisys.ox.activitystreams.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Samples events and requests for tracing their processing stages,
+ * recording the time of each stage in a histogram of its own.
+ * Only the configured percentage of traces is recorded, so that tracing
+ * costs nothing for the rest. Traces taking longer than the slow threshold
+ * are kept as exemplars together with their stage breakdown and are logged,
+ * at most once per second. Instances are thread-safe.
+ */
+public class StageTracer
+{
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(StageTracer.class);
+    
+    private static final int EXEMPLARS = 16;
+    private static final long DUMP_INTERVAL = 1000000000L;
+    private static final double NANOS_PER_MILLI = 1000000.0;
+    
+    private final int fSampling;
+    private final long fSlowThreshold;
+    
+    private final LatencyHistogram[] fStages;
+    
+    private final AtomicReferenceArray<String> fExemplars;
+    private final AtomicLong fExemplarCount;
+    private final AtomicLong fNextDump;
+    
+    /**
+     * Creates a tracer sampling the given percentage of traces.
+     *
+     * @param sampling percentage of traces to record, 0 to disable tracing
+     * @param slowThreshold time in nanoseconds above which traces are kept
+     *  as exemplars, 0 to keep none
+     */
+    public StageTracer(int sampling, long slowThreshold)
+    {
+        fSampling = sampling;
+        fSlowThreshold = slowThreshold;
+        
+        fStages = new LatencyHistogram[StageTrace.NAMES.length];
+        for(int i = 0; i < fStages.length; ++i)
+        {
+            fStages[i] = new LatencyHistogram();
+        }
+        
+        fExemplars = new AtomicReferenceArray<String>(EXEMPLARS);
+        fExemplarCount = new AtomicLong();
+        fNextDump = new AtomicLong(System.nanoTime());
+    }
+    
+    /**
+     * Starts a trace if it is sampled, otherwise returns a disabled trace.
+     * Label and details are only turned into text for exemplars, so passing
+     * them costs nothing for traces that are not slow.
+     *
+     * @param label description of the traced event or request
+     * @param detail details of the traced event or request or null
+     * @return trace to record stages in, never null
+     */
+    public StageTrace start(String label, Object detail)
+    {
+        if(fSampling >= 100
+            || fSampling > 0
+            && ThreadLocalRandom.current().nextInt(100) < fSampling)
+        {
+            return new StageTrace(this, label, detail);
+        }
+        return StageTrace.DISABLED;
+    }
+    
+    /**
+     * Records the stages of a completed trace.
+     *
+     * @param trace completed trace
+     * @param total total time of the trace in nanoseconds
+     */
+    void finish(StageTrace trace, long total)
+    {
+        for(int i = 0; i < fStages.length; ++i)
+        {
+            long nanos = trace.getNanos(i);
+            if(nanos > 0L)
+            {
+                fStages[i].record(nanos);
+            }
+        }
+        
+        if(fSlowThreshold > 0L
+            && total > fSlowThreshold)
+        {
+            String exemplar = format(trace, total);
+            long number = fExemplarCount.getAndIncrement();
+            fExemplars.set((int) (number % EXEMPLARS), exemplar);
+            
+            //limit the log to one exemplar per second
+            long now = System.nanoTime();
+            long next = fNextDump.get();
+            if(now - next >= 0L
+                && fNextDump.compareAndSet(next, now + DUMP_INTERVAL))
+            {
+                LOG.warn("slow trace, {} so far: {}", number + 1, exemplar);
+            }
+        }
+    }
+    
+    /**
+     * @return latencies of all stages, by stage name
+     */
+    public Map<String, HistogramSnapshot> snapshot()
+    {
+        Map<String, HistogramSnapshot> stages =
+            new TreeMap<String, HistogramSnapshot>();
+        for(int i = 0; i < fStages.length; ++i)
+        {
+            stages.put(StageTrace.NAMES[i], fStages[i].snapshot());
+        }
+        return stages;
+    }
+    
+    /**
+     * @return most recent slow traces with their stage breakdown, newest
+     *  first
+     */
+    public List<String> getSlowTraces()
+    {
+        List<String> exemplars = new ArrayList<String>();
+        
+        long count = fExemplarCount.get();
+        for(long i = count - 1; i >= 0 && i >= count - EXEMPLARS; --i)
+        {
+            String exemplar = fExemplars.get((int) (i % EXEMPLARS));
+            if(exemplar != null)
+            {
+                exemplars.add(exemplar);
+            }
+        }
+        
+        return exemplars;
+    }
+    
+    private static String format(StageTrace trace, long total)
+    {
+        StringBuilder buffer = new StringBuilder(128);
+        buffer.append(trace.getLabel());
+        if(trace.getDetail() != null)
+        {
+            buffer.append(' ').append(trace.getDetail());
+        }
+        buffer.append(": ");
+        appendMillis(buffer, total);
+        
+        for(int i = 0; i < StageTrace.NAMES.length; ++i)
+        {
+            long nanos = trace.getNanos(i);
+            if(nanos > 0L)
+            {
+                buffer.append(' ').append(StageTrace.NAMES[i]).append('=');
+                appendMillis(buffer, nanos);
+            }
+        }
+        
+        return buffer.toString();
+    }
+    
+    private static void appendMillis(StringBuilder buffer, long nanos)
+    {
+        buffer.append(Math.round(nanos / NANOS_PER_MILLI * 10.0) / 10.0)
+            .append("ms");
+    }
+}
@@ -0,0 +1,83 @@
+package de.hofuniversity.iisys.ox.activitystreams.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spreading increments across several cells, so that threads
+ * counting concurrently rarely touch the same cache line.
+ * Each thread always uses the same cell, chosen by its ID. Reading the
+ * counter sums up all cells and is therefore slower than incrementing it,
+ * which suits counters that are updated on every event and only read by
+ * monitoring. Instances are thread-safe.
+ */
+public class StripedCounter
+{
+    //cells are spread 64 bytes apart
+    private static final int PADDING = 8;
+    
+    private static final int MAX_STRIPES = 64;
+    
+    private final AtomicLongArray fCells;
+    private final int fMask;
+    
+    /**
+     * Creates a counter at zero, using a number of cells suited to the
+     * number of available processors.
+     */
+    public StripedCounter()
+    {
+        int stripes = getStripes();
+        fCells = new AtomicLongArray(stripes * PADDING);
+        fMask = stripes - 1;
+    }
+    
+    /**
+     * Increments the counter by one.
+     */
+    public void increment()
+    {
+        add(1L);
+    }
+    
+    /**
+     * Adds the given value to the counter.
+     *
+     * @param value value to add
+     */
+    public void add(long value)
+    {
+        fCells.addAndGet(getStripe(fMask) * PADDING, value);
+    }
+    
+    /**
+     * @return current value of the counter
+     */
+    public long get()
+    {
+        long sum = 0L;
+        for(int i = 0; i < fCells.length(); i += PADDING)
+        {
+            sum += fCells.get(i);
+        }
+        return sum;
+    }
+    
+    /**
+     * @return power of two number of stripes to use for striped metrics
+     */
+    static int getStripes()
+    {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        return Math.min(MAX_STRIPES, Integer.highestOneBit(cpus * 2 - 1) << 1);
+    }
+    
+    /**
+     * @param mask number of stripes minus one
+     * @return stripe of the calling thread
+     */
+    static int getStripe(int mask)
+    {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & mask;
+    }
+}
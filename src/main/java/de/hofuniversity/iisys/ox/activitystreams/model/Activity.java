@@ -0,0 +1,228 @@
+package de.hofuniversity.iisys.ox.activitystreams.model;
+
+import org.json.JSONObject;
+
+/**
+ * Immutable activity consisting of an actor, a verb, an object, a target, a
+ * generator and an optional publishing time, held in fixed fields instead
+ * of generic JSON objects.
+ * Activities are created through a Builder and serialized by the
+ * ActivityWriter. Instances are thread-safe and can be shared between
+ * sinks.
+ */
+public final class Activity
+{
+    /**
+     * Publishing time of activities that leave it to the server.
+     */
+    public static final long NOT_PUBLISHED = 0L;
+    
+    private final ActivityObject fActor;
+    private final String fVerb;
+    private final ActivityObject fObject;
+    private final ActivityObject fTarget;
+    private final ActivityObject fGenerator;
+    private final long fPublished;
+    
+    private Activity(ActivityObject actor, String verb, ActivityObject object,
+        ActivityObject target, ActivityObject generator, long published)
+    {
+        fActor = actor;
+        fVerb = verb;
+        fObject = object;
+        fTarget = target;
+        fGenerator = generator;
+        fPublished = published;
+    }
+    
+    /**
+     * Restores an activity from its JSON representation, such as an
+     * activity recovered from the outbox.
+     *
+     * @param json JSON representation of the activity
+     * @return restored activity
+     */
+    public static Activity fromJSON(JSONObject json)
+    {
+        return new Activity(
+            ActivityObject.fromJSON(json.optJSONObject("actor")),
+            json.has("verb") ? json.optString("verb") : null,
+            ActivityObject.fromJSON(json.optJSONObject("object")),
+            ActivityObject.fromJSON(json.optJSONObject("target")),
+            ActivityObject.fromJSON(json.optJSONObject("generator")),
+            ActivityWriter.parseTime(json.optString("published", null)));
+    }
+    
+    /**
+     * Returns a copy of this activity with a different verb.
+     *
+     * @param verb verb of the copy
+     * @return copy with the given verb
+     */
+    public Activity withVerb(String verb)
+    {
+        return new Activity(fActor, verb, fObject, fTarget, fGenerator,
+            fPublished);
+    }
+    
+    /**
+     * @return actor performing the activity or null
+     */
+    public ActivityObject getActor()
+    {
+        return fActor;
+    }
+    
+    /**
+     * @return verb of the activity or null
+     */
+    public String getVerb()
+    {
+        return fVerb;
+    }
+    
+    /**
+     * @return object of the activity or null
+     */
+    public ActivityObject getObject()
+    {
+        return fObject;
+    }
+    
+    /**
+     * @return target of the activity or null
+     */
+    public ActivityObject getTarget()
+    {
+        return fTarget;
+    }
+    
+    /**
+     * @return application that generated the activity or null
+     */
+    public ActivityObject getGenerator()
+    {
+        return fGenerator;
+    }
+    
+    /**
+     * @return publishing time in milliseconds or NOT_PUBLISHED
+     */
+    public long getPublished()
+    {
+        return fPublished;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return ActivityWriter.toString(this);
+    }
+    
+    /**
+     * Mutable builder for activities, filled step by step while processing
+     * an event. Instances are not thread-safe.
+     */
+    public static class Builder
+    {
+        private ActivityObject fActor;
+        private String fVerb;
+        private ActivityObject fObject;
+        private ActivityObject fTarget;
+        private ActivityObject fGenerator;
+        private long fPublished = NOT_PUBLISHED;
+        
+        /**
+         * @param actor actor performing the activity
+         * @return this builder
+         */
+        public Builder setActor(ActivityObject actor)
+        {
+            fActor = actor;
+            return this;
+        }
+        
+        /**
+         * @param verb verb of the activity
+         * @return this builder
+         */
+        public Builder setVerb(String verb)
+        {
+            fVerb = verb;
+            return this;
+        }
+        
+        /**
+         * @param object object of the activity
+         * @return this builder
+         */
+        public Builder setObject(ActivityObject object)
+        {
+            fObject = object;
+            return this;
+        }
+        
+        /**
+         * @param target target of the activity
+         * @return this builder
+         */
+        public Builder setTarget(ActivityObject target)
+        {
+            fTarget = target;
+            return this;
+        }
+        
+        /**
+         * @param generator application that generated the activity
+         * @return this builder
+         */
+        public Builder setGenerator(ActivityObject generator)
+        {
+            fGenerator = generator;
+            return this;
+        }
+        
+        /**
+         * @param published publishing time in milliseconds or NOT_PUBLISHED
+         * @return this builder
+         */
+        public Builder setPublished(long published)
+        {
+            fPublished = published;
+            return this;
+        }
+        
+        /**
+         * @return actor set so far or null
+         */
+        public ActivityObject getActor()
+        {
+            return fActor;
+        }
+        
+        /**
+         * @return verb set so far or null
+         */
+        public String getVerb()
+        {
+            return fVerb;
+        }
+        
+        /**
+         * @return object set so far or null
+         */
+        public ActivityObject getObject()
+        {
+            return fObject;
+        }
+        
+        /**
+         * @return activity consisting of the values set so far
+         */
+        public Activity build()
+        {
+            return new Activity(fActor, fVerb, fObject, fTarget, fGenerator,
+                fPublished);
+        }
+    }
+}
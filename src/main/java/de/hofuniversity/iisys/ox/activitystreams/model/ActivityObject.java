@@ -0,0 +1,165 @@
+package de.hofuniversity.iisys.ox.activitystreams.model;
+
+import org.json.JSONObject;
+
+/**
+ * Immutable entity appearing in activities as actor, object, target or
+ * generator, consisting of an ID, an object type, a name to display and a
+ * link.
+ * Entities shared by many activities, such as cached actors and folders,
+ * can be encoded once using encode(), so that writing them only copies the
+ * encoded bytes. Instances are thread-safe.
+ */
+public final class ActivityObject
+{
+    private final String fId;
+    private final boolean fNumericId;
+    private final ObjectType fType;
+    private final String fDisplayName;
+    private final String fUrl;
+    
+    private final byte[] fEncoded;
+    
+    /**
+     * Creates an entity with a textual ID. All values but the type may be
+     * null, in which case they are omitted.
+     * The given type must not be null.
+     *
+     * @param id ID of the entity
+     * @param type object type of the entity
+     * @param displayName name to display
+     * @param url link to the entity
+     */
+    public ActivityObject(String id, ObjectType type, String displayName,
+        String url)
+    {
+        this(id, false, type, displayName, url, null);
+    }
+    
+    /**
+     * Creates an entity with a numeric ID, such as the ID of a groupware
+     * object. All values but the type may be null, in which case they are
+     * omitted.
+     * The given type must not be null.
+     *
+     * @param id ID of the entity
+     * @param type object type of the entity
+     * @param displayName name to display
+     * @param url link to the entity
+     */
+    public ActivityObject(int id, ObjectType type, String displayName,
+        String url)
+    {
+        this(Integer.toString(id), true, type, displayName, url, null);
+    }
+    
+    private ActivityObject(String id, boolean numericId, ObjectType type,
+        String displayName, String url, byte[] encoded)
+    {
+        fId = id;
+        fNumericId = numericId;
+        fType = type;
+        fDisplayName = displayName;
+        fUrl = url;
+        fEncoded = encoded;
+    }
+    
+    /**
+     * Restores an entity from its JSON representation, such as an activity
+     * recovered from the outbox.
+     *
+     * @param json JSON representation of the entity
+     * @return restored entity or null if the given JSON object is null
+     */
+    public static ActivityObject fromJSON(JSONObject json)
+    {
+        if(json == null)
+        {
+            return null;
+        }
+        
+        Object id = json.opt("id");
+        return new ActivityObject(id == null ? null : id.toString(),
+            id instanceof Number, new ObjectType(json.optString("objectType",
+            "")), optString(json, "displayName"), optString(json, "url"),
+            null);
+    }
+    
+    private static String optString(JSONObject json, String key)
+    {
+        Object value = json.opt(key);
+        return value == null || value == JSONObject.NULL ? null
+            : value.toString();
+    }
+    
+    /**
+     * Returns a copy of this entity that is written from its encoded form.
+     * Only worthwhile for entities that appear in several activities.
+     *
+     * @return encoded copy of this entity
+     */
+    public ActivityObject encode()
+    {
+        if(fEncoded != null)
+        {
+            return this;
+        }
+        
+        return new ActivityObject(fId, fNumericId, fType, fDisplayName, fUrl,
+            ActivityWriter.encode(this));
+    }
+    
+    /**
+     * @return ID of the entity or null
+     */
+    public String getId()
+    {
+        return fId;
+    }
+    
+    /**
+     * @return whether the ID is written as a number
+     */
+    public boolean isNumericId()
+    {
+        return fNumericId;
+    }
+    
+    /**
+     * @return object type of the entity
+     */
+    public ObjectType getType()
+    {
+        return fType;
+    }
+    
+    /**
+     * @return name to display or null
+     */
+    public String getDisplayName()
+    {
+        return fDisplayName;
+    }
+    
+    /**
+     * @return link to the entity or null
+     */
+    public String getUrl()
+    {
+        return fUrl;
+    }
+    
+    /**
+     * @return encoded entity or null if it has not been encoded
+     */
+    byte[] getEncoded()
+    {
+        return fEncoded;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return ActivityWriter.toString(this);
+    }
+}
@@ -0,0 +1,271 @@
+package de.hofuniversity.iisys.ox.activitystreams.model;
+
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import de.hofuniversity.iisys.ox.activitystreams.transport.JsonBuffer;
+
+/**
+ * Streaming writer serializing activities directly into a JsonBuffer.
+ * Member names are written from constant byte arrays, object types and
+ * encoded entities are copied as they are, so only the values that differ
+ * between activities are escaped and encoded. Members without a value are
+ * omitted.
+ */
+public final class ActivityWriter
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private static final String TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+    
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+    
+    //member names, including their colon
+    private static final byte[] ACTOR = "\"actor\":".getBytes(UTF_8);
+    private static final byte[] VERB = "\"verb\":".getBytes(UTF_8);
+    private static final byte[] OBJECT = "\"object\":".getBytes(UTF_8);
+    private static final byte[] TARGET = "\"target\":".getBytes(UTF_8);
+    private static final byte[] GENERATOR = "\"generator\":".getBytes(UTF_8);
+    private static final byte[] PUBLISHED = "\"published\":".getBytes(UTF_8);
+    
+    private static final byte[] ID = "\"id\":".getBytes(UTF_8);
+    private static final byte[] DISPLAY_NAME =
+        "\"displayName\":".getBytes(UTF_8);
+    private static final byte[] URL = "\"url\":".getBytes(UTF_8);
+    
+    static final byte[] OBJECT_TYPE = "\"objectType\":".getBytes(UTF_8);
+    
+    private ActivityWriter()
+    {
+        //static methods only
+    }
+    
+    /**
+     * Appends an activity to the given buffer.
+     *
+     * @param json buffer to write to
+     * @param activity activity to write
+     * @return the given buffer
+     */
+    public static JsonBuffer write(JsonBuffer json, Activity activity)
+    {
+        json.writeRaw('{');
+        
+        boolean first = true;
+        first = writeMember(json, ACTOR, activity.getActor(), first);
+        
+        if(activity.getVerb() != null)
+        {
+            first = writeName(json, VERB, first);
+            json.writeString(activity.getVerb());
+        }
+        
+        first = writeMember(json, OBJECT, activity.getObject(), first);
+        first = writeMember(json, TARGET, activity.getTarget(), first);
+        first = writeMember(json, GENERATOR, activity.getGenerator(), first);
+        
+        if(activity.getPublished() != Activity.NOT_PUBLISHED)
+        {
+            writeName(json, PUBLISHED, first);
+            writeTime(json, activity.getPublished());
+        }
+        
+        return json.writeRaw('}');
+    }
+    
+    /**
+     * Appends an entity to the given buffer, copying its encoded form if
+     * there is one.
+     *
+     * @param json buffer to write to
+     * @param object entity to write
+     * @return the given buffer
+     */
+    public static JsonBuffer write(JsonBuffer json, ActivityObject object)
+    {
+        if(object.getEncoded() != null)
+        {
+            return json.writeRaw(object.getEncoded());
+        }
+        
+        json.writeRaw('{');
+        
+        boolean first = true;
+        if(object.getId() != null)
+        {
+            first = writeName(json, ID, first);
+            
+            if(object.isNumericId())
+            {
+                final String id = object.getId();
+                for(int i = 0; i < id.length(); ++i)
+                {
+                    json.writeRaw(id.charAt(i));
+                }
+            }
+            else
+            {
+                json.writeString(object.getId());
+            }
+        }
+        
+        if(!first)
+        {
+            json.writeRaw(',');
+        }
+        json.writeRaw(object.getType().getEncoded());
+        
+        if(object.getDisplayName() != null)
+        {
+            json.writeRaw(',').writeRaw(DISPLAY_NAME);
+            json.writeString(object.getDisplayName());
+        }
+        
+        if(object.getUrl() != null)
+        {
+            json.writeRaw(',').writeRaw(URL);
+            json.writeString(object.getUrl());
+        }
+        
+        return json.writeRaw('}');
+    }
+    
+    /**
+     * Serializes an activity into a new String, for logging.
+     *
+     * @param activity activity to serialize
+     * @return JSON representation of the activity
+     */
+    public static String toString(Activity activity)
+    {
+        JsonBuffer json = write(new JsonBuffer(), activity);
+        return new String(json.getData(), 0, json.getLength(), UTF_8);
+    }
+    
+    /**
+     * Serializes an entity into a new String, for logging.
+     *
+     * @param object entity to serialize
+     * @return JSON representation of the entity
+     */
+    public static String toString(ActivityObject object)
+    {
+        JsonBuffer json = write(new JsonBuffer(), object);
+        return new String(json.getData(), 0, json.getLength(), UTF_8);
+    }
+    
+    /**
+     * Parses a publishing time as written by this class.
+     *
+     * @param time time to parse or null
+     * @return time in milliseconds or Activity.NOT_PUBLISHED
+     */
+    public static long parseTime(String time)
+    {
+        if(time == null)
+        {
+            return Activity.NOT_PUBLISHED;
+        }
+        
+        try
+        {
+            SimpleDateFormat format = new SimpleDateFormat(TIME_FORMAT);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return format.parse(time).getTime();
+        }
+        catch(Exception e)
+        {
+            return Activity.NOT_PUBLISHED;
+        }
+    }
+    
+    static byte[] encode(ActivityObject object)
+    {
+        JsonBuffer json = write(new JsonBuffer(), object);
+        return Arrays.copyOf(json.getData(), json.getLength());
+    }
+    
+    static byte[] encodeMember(byte[] name, String value)
+    {
+        JsonBuffer json = new JsonBuffer().writeRaw(name).writeString(value);
+        return Arrays.copyOf(json.getData(), json.getLength());
+    }
+    
+    private static boolean writeName(JsonBuffer json, byte[] name,
+        boolean first)
+    {
+        if(!first)
+        {
+            json.writeRaw(',');
+        }
+        json.writeRaw(name);
+        return false;
+    }
+    
+    private static boolean writeMember(JsonBuffer json, byte[] name,
+        ActivityObject object, boolean first)
+    {
+        if(object == null)
+        {
+            return first;
+        }
+        
+        writeName(json, name, first);
+        write(json, object);
+        return false;
+    }
+    
+    private static void writeTime(JsonBuffer json, long millis)
+    {
+        //civil date from days since the epoch, proleptic Gregorian calendar
+        long days = millis / DAY;
+        long ofDay = millis % DAY;
+        if(ofDay < 0L)
+        {
+            ofDay += DAY;
+            --days;
+        }
+        
+        long z = days + 719468L;
+        long era = (z >= 0L ? z : z - 146096L) / 146097L;
+        long doe = z - era * 146097L;
+        long yoe = (doe - doe / 1460L + doe / 36524L - doe / 146096L) / 365L;
+        long doy = doe - (365L * yoe + yoe / 4L - yoe / 100L);
+        long mp = (5L * doy + 2L) / 153L;
+        long day = doy - (153L * mp + 2L) / 5L + 1L;
+        long month = mp < 10L ? mp + 3L : mp - 9L;
+        long year = yoe + era * 400L + (month <= 2L ? 1L : 0L);
+        
+        json.writeRaw('"');
+        writeDigits(json, year, 4);
+        json.writeRaw('-');
+        writeDigits(json, month, 2);
+        json.writeRaw('-');
+        writeDigits(json, day, 2);
+        json.writeRaw('T');
+        writeDigits(json, ofDay / 3600000L, 2);
+        json.writeRaw(':');
+        writeDigits(json, ofDay / 60000L % 60L, 2);
+        json.writeRaw(':');
+        writeDigits(json, ofDay / 1000L % 60L, 2);
+        json.writeRaw('.');
+        writeDigits(json, ofDay % 1000L, 3);
+        json.writeRaw('Z').writeRaw('"');
+    }
+    
+    private static void writeDigits(JsonBuffer json, long value, int digits)
+    {
+        long divisor = 1L;
+        for(int i = 1; i < digits; ++i)
+        {
+            divisor *= 10L;
+        }
+        
+        for(; divisor > 0L; divisor /= 10L)
+        {
+            json.writeRaw((char) ('0' + value / divisor % 10L));
+        }
+    }
+}
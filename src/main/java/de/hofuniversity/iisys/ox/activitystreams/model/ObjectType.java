@@ -0,0 +1,59 @@
+package de.hofuniversity.iisys.ox.activitystreams.model;
+
+/**
+ * Object type of entities appearing in activities, including its JSON
+ * member encoded once as UTF-8, so that constant type names are never
+ * escaped and encoded again.
+ * Instances are immutable and are meant to be kept in constants.
+ */
+public final class ObjectType
+{
+    /**
+     * Type of users appearing as actors or invited participants.
+     */
+    public static final ObjectType PERSON = new ObjectType("person");
+    
+    /**
+     * Type of the generating application.
+     */
+    public static final ObjectType APPLICATION =
+        new ObjectType("application");
+    
+    private final String fName;
+    private final byte[] fEncoded;
+    
+    /**
+     * Creates an object type with the given name and encodes it.
+     * The given name must not be null.
+     *
+     * @param name name of the type
+     */
+    public ObjectType(String name)
+    {
+        fName = name;
+        fEncoded = ActivityWriter.encodeMember(ActivityWriter.OBJECT_TYPE,
+            name);
+    }
+    
+    /**
+     * @return name of the type
+     */
+    public String getName()
+    {
+        return fName;
+    }
+    
+    /**
+     * @return encoded "objectType" member, must not be modified
+     */
+    byte[] getEncoded()
+    {
+        return fEncoded;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return fName;
+    }
+}
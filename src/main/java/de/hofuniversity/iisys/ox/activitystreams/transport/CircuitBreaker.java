@@ -0,0 +1,166 @@
+package de.hofuniversity.iisys.ox.activitystreams.transport;
+
+/**
+ * Circuit breaker stopping requests to a failing server.
+ * The breaker opens after a number of consecutive failures or if the share
+ * of failures among the most recent requests exceeds a threshold. While
+ * open, no requests are allowed. After the open time has passed, a single
+ * trial request is let through, closing the breaker on success and opening
+ * it again on failure.
+ */
+public class CircuitBreaker
+{
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(CircuitBreaker.class);
+    
+    private final int fFailureThreshold;
+    private final int fFailureRate;
+    private final long fOpenTime;
+    
+    //outcomes of the most recent requests, true for failures
+    private final boolean[] fWindow;
+    private int fWindowPos;
+    private int fWindowCount;
+    private int fWindowFailures;
+    
+    private int fConsecutiveFailures;
+    
+    private long fOpenUntil;
+    private boolean fTrialRunning;
+    
+    /**
+     * Creates a closed circuit breaker.
+     *
+     * @param failureThreshold number of consecutive failures opening the
+     *  breaker
+     * @param failureRate percentage of failures within the window opening the
+     *  breaker, values above 100 disable the check
+     * @param window number of recent requests considered for the failure rate
+     * @param openTime time in milliseconds the breaker stays open
+     */
+    public CircuitBreaker(int failureThreshold, int failureRate, int window,
+        long openTime)
+    {
+        fFailureThreshold = Math.max(1, failureThreshold);
+        fFailureRate = failureRate;
+        fOpenTime = openTime;
+        
+        fWindow = new boolean[Math.max(1, window)];
+    }
+    
+    /**
+     * Checks whether a request may be sent, reserving the trial request if
+     * the breaker's open time has passed.
+     *
+     * @return whether the request may be sent
+     */
+    public synchronized boolean allowRequest()
+    {
+        if(fOpenUntil == 0)
+        {
+            return true;
+        }
+        
+        if(fTrialRunning
+            || System.currentTimeMillis() < fOpenUntil)
+        {
+            return false;
+        }
+        
+        fTrialRunning = true;
+        return true;
+    }
+    
+    /**
+     * Records a successful request, closing the breaker if it was open.
+     */
+    public synchronized void recordSuccess()
+    {
+        if(fOpenUntil != 0)
+        {
+            LOG.info("server reachable again, closing circuit");
+            fOpenUntil = 0;
+            fTrialRunning = false;
+            clearWindow();
+        }
+        
+        fConsecutiveFailures = 0;
+        record(false);
+    }
+    
+    /**
+     * Records a failed request, opening the breaker if a threshold is
+     * reached.
+     */
+    public synchronized void recordFailure()
+    {
+        ++fConsecutiveFailures;
+        record(true);
+        
+        if(fOpenUntil != 0)
+        {
+            //failed trial request
+            fOpenUntil = System.currentTimeMillis() + fOpenTime;
+            fTrialRunning = false;
+        }
+        else if(fConsecutiveFailures >= fFailureThreshold
+            || (fWindowCount == fWindow.length
+            && fWindowFailures * 100 >= fFailureRate * fWindowCount))
+        {
+            LOG.warn("opening circuit after {} consecutive failures, {} of "
+                + "the last {} requests failed", fConsecutiveFailures,
+                fWindowFailures, fWindowCount);
+            fOpenUntil = System.currentTimeMillis() + fOpenTime;
+        }
+    }
+    
+    /**
+     * @return whether the breaker is currently open
+     */
+    public synchronized boolean isOpen()
+    {
+        return fOpenUntil != 0;
+    }
+    
+    /**
+     * @return time in milliseconds until a trial request is allowed, 0 if
+     *  requests are allowed now
+     */
+    public synchronized long getRemainingOpenTime()
+    {
+        if(fOpenUntil == 0)
+        {
+            return 0L;
+        }
+        return Math.max(0L, fOpenUntil - System.currentTimeMillis());
+    }
+    
+    private void record(boolean failure)
+    {
+        if(fWindowCount == fWindow.length)
+        {
+            if(fWindow[fWindowPos])
+            {
+                --fWindowFailures;
+            }
+        }
+        else
+        {
+            ++fWindowCount;
+        }
+        
+        fWindow[fWindowPos] = failure;
+        if(failure)
+        {
+            ++fWindowFailures;
+        }
+        fWindowPos = (fWindowPos + 1) % fWindow.length;
+    }
+    
+    private void clearWindow()
+    {
+        fWindowPos = 0;
+        fWindowCount = 0;
+        fWindowFailures = 0;
+    }
+}
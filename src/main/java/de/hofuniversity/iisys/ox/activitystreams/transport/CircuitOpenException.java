@@ -0,0 +1,33 @@
+package de.hofuniversity.iisys.ox.activitystreams.transport;
+
+import java.io.IOException;
+
+/**
+ * Exception signaling that a request was not attempted because the circuit
+ * breaker guarding the server is open.
+ */
+public class CircuitOpenException extends IOException
+{
+    private static final long serialVersionUID = 1L;
+    
+    private final long fRemaining;
+    
+    /**
+     * Creates an exception for a breaker staying open for the given time.
+     *
+     * @param remaining time in milliseconds until a request is tried again
+     */
+    public CircuitOpenException(long remaining)
+    {
+        super("circuit open, next attempt in " + remaining + " ms");
+        fRemaining = remaining;
+    }
+    
+    /**
+     * @return time in milliseconds until a request is tried again
+     */
+    public long getRemaining()
+    {
+        return fRemaining;
+    }
+}
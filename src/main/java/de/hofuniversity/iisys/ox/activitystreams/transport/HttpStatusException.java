@@ -0,0 +1,54 @@
+package de.hofuniversity.iisys.ox.activitystreams.transport;
+
+import java.io.IOException;
+
+/**
+ * Exception signaling that a server answered with an unsuccessful HTTP
+ * status code.
+ */
+public class HttpStatusException extends IOException
+{
+    private static final long serialVersionUID = 1L;
+    
+    private final int fStatus;
+    
+    /**
+     * Creates an exception for the given status code and request URL.
+     *
+     * @param status HTTP status code received
+     * @param url URL that was requested
+     */
+    public HttpStatusException(int status, String url)
+    {
+        super("HTTP " + status + " for " + url);
+        fStatus = status;
+    }
+    
+    /**
+     * @return HTTP status code received
+     */
+    public int getStatus()
+    {
+        return fStatus;
+    }
+    
+    /**
+     * @return whether the status indicates a server side error that may go
+     *  away when retrying
+     */
+    public boolean isServerError()
+    {
+        return fStatus >= 500;
+    }
+    
+    /**
+     * @return whether the request may succeed when retried, which is the
+     *  case for server errors, timeouts and rate limiting
+     */
+    public boolean isRetryable()
+    {
+        return isServerError()
+            || fStatus == 408
+            || fStatus == 429;
+    }
+}
@@ -0,0 +1,375 @@
+package de.hofuniversity.iisys.ox.activitystreams.transport;
+
+import java.util.Iterator;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Growable byte buffer serializing JSON values directly to UTF-8, without
+ * creating intermediate Strings.
+ * Each thread has its own buffer, obtained through forThread(), which is
+ * reused for all requests sent by that thread. A buffer's content is only
+ * valid until the thread's next call to reset().
+ */
+public class JsonBuffer
+{
+    private static final int INITIAL_SIZE = 4096;
+    
+    //buffers grown beyond this size are shrunk again on reset
+    private static final int RETAINED_SIZE = 256 * 1024;
+    
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] NULL = "null".getBytes();
+    private static final byte[] TRUE = "true".getBytes();
+    private static final byte[] FALSE = "false".getBytes();
+    
+    private static final ThreadLocal<JsonBuffer> BUFFERS =
+        new ThreadLocal<JsonBuffer>()
+        {
+            @Override
+            protected JsonBuffer initialValue()
+            {
+                return new JsonBuffer();
+            }
+        };
+    
+    private byte[] fData;
+    private int fLength;
+    
+    /**
+     * Returns the calling thread's buffer, emptied.
+     *
+     * @return empty buffer
+     */
+    public static JsonBuffer forThread()
+    {
+        JsonBuffer buffer = BUFFERS.get();
+        buffer.reset();
+        return buffer;
+    }
+    
+    /**
+     * Creates an empty buffer.
+     */
+    public JsonBuffer()
+    {
+        fData = new byte[INITIAL_SIZE];
+    }
+    
+    /**
+     * Empties the buffer.
+     */
+    public void reset()
+    {
+        if(fData.length > RETAINED_SIZE)
+        {
+            fData = new byte[INITIAL_SIZE];
+        }
+        fLength = 0;
+    }
+    
+    /**
+     * @return backing array, valid up to getLength()
+     */
+    public byte[] getData()
+    {
+        return fData;
+    }
+    
+    /**
+     * @return number of bytes written
+     */
+    public int getLength()
+    {
+        return fLength;
+    }
+    
+    /**
+     * Appends raw bytes, which must already be valid UTF-8 encoded JSON.
+     *
+     * @param bytes bytes to append
+     * @return this buffer
+     */
+    public JsonBuffer writeRaw(byte[] bytes)
+    {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, fData, fLength, bytes.length);
+        fLength += bytes.length;
+        return this;
+    }
+    
+    /**
+     * Appends a single ASCII character without escaping.
+     *
+     * @param c character to append
+     * @return this buffer
+     */
+    public JsonBuffer writeRaw(char c)
+    {
+        ensure(1);
+        fData[fLength++] = (byte) c;
+        return this;
+    }
+    
+    /**
+     * Appends a JSON value - a JSONObject, JSONArray, String, Number,
+     * Boolean or null.
+     *
+     * @param value value to serialize
+     * @return this buffer
+     * @throws Exception if the value cannot be serialized
+     */
+    public JsonBuffer writeValue(Object value) throws Exception
+    {
+        if(value == null
+            || value == JSONObject.NULL)
+        {
+            writeRaw(NULL);
+        }
+        else if(value instanceof String)
+        {
+            writeString((String) value);
+        }
+        else if(value instanceof JSONObject)
+        {
+            writeObject((JSONObject) value);
+        }
+        else if(value instanceof JSONArray)
+        {
+            writeArray((JSONArray) value);
+        }
+        else if(value instanceof Integer
+            || value instanceof Long)
+        {
+            writeLong(((Number) value).longValue());
+        }
+        else if(value instanceof Number)
+        {
+            writeAscii(JSONObject.numberToString((Number) value));
+        }
+        else if(value instanceof Boolean)
+        {
+            writeRaw(((Boolean) value).booleanValue() ? TRUE : FALSE);
+        }
+        else
+        {
+            writeUtf8(JSONObject.valueToString(value), false);
+        }
+        
+        return this;
+    }
+    
+    /**
+     * Appends a JSON object.
+     *
+     * @param object object to serialize
+     * @return this buffer
+     * @throws Exception if the object cannot be serialized
+     */
+    public JsonBuffer writeObject(JSONObject object) throws Exception
+    {
+        writeRaw('{');
+        
+        boolean first = true;
+        Iterator<?> keys = object.keys();
+        while(keys.hasNext())
+        {
+            String key = keys.next().toString();
+            
+            if(!first)
+            {
+                writeRaw(',');
+            }
+            first = false;
+            
+            writeString(key);
+            writeRaw(':');
+            writeValue(object.opt(key));
+        }
+        
+        writeRaw('}');
+        return this;
+    }
+    
+    /**
+     * Appends a JSON array.
+     *
+     * @param array array to serialize
+     * @return this buffer
+     * @throws Exception if the array cannot be serialized
+     */
+    public JsonBuffer writeArray(JSONArray array) throws Exception
+    {
+        writeRaw('[');
+        
+        for(int i = 0; i < array.length(); ++i)
+        {
+            if(i > 0)
+            {
+                writeRaw(',');
+            }
+            writeValue(array.opt(i));
+        }
+        
+        writeRaw(']');
+        return this;
+    }
+    
+    /**
+     * Appends a quoted and escaped JSON string.
+     *
+     * @param value string to serialize
+     * @return this buffer
+     */
+    public JsonBuffer writeString(String value)
+    {
+        writeRaw('"');
+        writeUtf8(value, true);
+        writeRaw('"');
+        return this;
+    }
+    
+    /**
+     * Appends a number.
+     *
+     * @param value number to serialize
+     * @return this buffer
+     */
+    public JsonBuffer writeLong(long value)
+    {
+        if(value == Long.MIN_VALUE)
+        {
+            writeAscii(Long.toString(value));
+            return this;
+        }
+        
+        ensure(20);
+        if(value < 0)
+        {
+            fData[fLength++] = '-';
+            value = -value;
+        }
+        
+        //write digits backwards, then reverse them
+        int start = fLength;
+        do
+        {
+            fData[fLength++] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        while(value > 0);
+        
+        byte tmp = 0;
+        for(int i = start, j = fLength - 1; i < j; ++i, --j)
+        {
+            tmp = fData[i];
+            fData[i] = fData[j];
+            fData[j] = tmp;
+        }
+        
+        return this;
+    }
+    
+    private void writeAscii(String value)
+    {
+        ensure(value.length());
+        for(int i = 0; i < value.length(); ++i)
+        {
+            fData[fLength++] = (byte) value.charAt(i);
+        }
+    }
+    
+    private void writeUtf8(String value, boolean escape)
+    {
+        //worst case: 6 byte escape sequence per character
+        ensure(value.length() * 6);
+        
+        final byte[] data = fData;
+        int pos = fLength;
+        char c = 0;
+        for(int i = 0; i < value.length(); ++i)
+        {
+            c = value.charAt(i);
+            
+            if(escape
+                && (c < 0x20 || c == '"' || c == '\\' || c == '/'
+                    && i > 0 && value.charAt(i - 1) == '<'))
+            {
+                data[pos++] = '\\';
+                switch(c)
+                {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        data[pos++] = (byte) c;
+                        break;
+                    case '\b':
+                        data[pos++] = 'b';
+                        break;
+                    case '\f':
+                        data[pos++] = 'f';
+                        break;
+                    case '\n':
+                        data[pos++] = 'n';
+                        break;
+                    case '\r':
+                        data[pos++] = 'r';
+                        break;
+                    case '\t':
+                        data[pos++] = 't';
+                        break;
+                    default:
+                        data[pos++] = 'u';
+                        data[pos++] = '0';
+                        data[pos++] = '0';
+                        data[pos++] = HEX[(c >> 4) & 0xF];
+                        data[pos++] = HEX[c & 0xF];
+                        break;
+                }
+            }
+            else if(c < 0x80)
+            {
+                data[pos++] = (byte) c;
+            }
+            else if(c < 0x800)
+            {
+                data[pos++] = (byte) (0xC0 | (c >> 6));
+                data[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if(Character.isHighSurrogate(c)
+                && i + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                data[pos++] = (byte) (0xF0 | (cp >> 18));
+                data[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                data[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                data[pos++] = (byte) (0x80 | (cp & 0x3F));
+            }
+            else if(Character.isSurrogate(c))
+            {
+                //unpaired surrogate
+                data[pos++] = '?';
+            }
+            else
+            {
+                data[pos++] = (byte) (0xE0 | (c >> 12));
+                data[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                data[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        fLength = pos;
+    }
+    
+    private void ensure(int additional)
+    {
+        if(fLength + additional > fData.length)
+        {
+            byte[] data = new byte[Math.max(fLength + additional,
+                fData.length * 2)];
+            System.arraycopy(fData, 0, data, 0, fLength);
+            fData = data;
+        }
+    }
+}
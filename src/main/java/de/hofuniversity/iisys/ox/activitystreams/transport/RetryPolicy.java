@@ -0,0 +1,70 @@
+package de.hofuniversity.iisys.ox.activitystreams.transport;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry policy with exponentially growing, jittered delays between
+ * attempts. Connection problems, timeouts and server side errors are
+ * retried, requests rejected by the server as invalid are not.
+ */
+public class RetryPolicy
+{
+    private final int fMaxAttempts;
+    private final long fBaseDelay;
+    private final long fMaxDelay;
+    
+    /**
+     * Creates a retry policy.
+     *
+     * @param maxAttempts maximum number of attempts including the first one
+     * @param baseDelay delay in milliseconds before the first retry
+     * @param maxDelay upper limit for delays in milliseconds
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay)
+    {
+        fMaxAttempts = Math.max(1, maxAttempts);
+        fBaseDelay = Math.max(1L, baseDelay);
+        fMaxDelay = Math.max(fBaseDelay, maxDelay);
+    }
+    
+    /**
+     * @param attempts number of attempts made so far
+     * @return whether another attempt may be made
+     */
+    public boolean hasAttemptsLeft(int attempts)
+    {
+        return attempts < fMaxAttempts;
+    }
+    
+    /**
+     * Determines whether a failed request may succeed when retried.
+     *
+     * @param e exception the request failed with
+     * @return whether to retry
+     */
+    public boolean isRetryable(Exception e)
+    {
+        if(e instanceof HttpStatusException)
+        {
+            return ((HttpStatusException) e).isRetryable();
+        }
+        
+        return e instanceof java.io.IOException;
+    }
+    
+    /**
+     * Calculates the delay before the next attempt, randomly chosen between
+     * half and the full exponential delay.
+     *
+     * @param attempts number of attempts made so far
+     * @return delay in milliseconds
+     */
+    public long getDelay(int attempts)
+    {
+        int shift = Math.min(Math.max(0, attempts - 1), 30);
+        long delay = Math.min(fMaxDelay, fBaseDelay << shift);
+        
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+}
@@ -0,0 +1,22 @@
+package de.hofuniversity.iisys.ox.activitystreams.transport;
+
+import java.io.IOException;
+
+/**
+ * Exception signaling that the server's reply to a JSON-RPC batch was not a
+ * JSON-RPC response, so the server does not seem to offer batches.
+ */
+public class RpcUnsupportedException extends IOException
+{
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * Creates an exception with the given description of the reply.
+     *
+     * @param message description of the unexpected reply
+     */
+    public RpcUnsupportedException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,273 @@
+package de.hofuniversity.iisys.ox.activitystreams.transport;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import de.hofuniversity.iisys.ox.activitystreams.dispatch.OutgoingActivity;
+import de.hofuniversity.iisys.ox.activitystreams.metrics.PipelineMetrics;
+import de.hofuniversity.iisys.ox.activitystreams.metrics.StageTrace;
+import de.hofuniversity.iisys.ox.activitystreams.model.Activity;
+import de.hofuniversity.iisys.ox.activitystreams.model.ActivityWriter;
+
+/**
+ * Client for Apache Shindig's activitystreams service, posting activities
+ * either individually through the REST API or in batches through the
+ * JSON-RPC endpoint.
+ * All requests pass an optional circuit breaker, which is informed about
+ * their outcome, as are the optional metrics along with the request's
+ * latency. Payloads are serialized directly into the sending thread's
+ * JsonBuffer. Sampled requests are traced from serialization to reading
+ * the response.
+ */
+public class ShindigClient
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private static final String ACT_STR_FRAG = "social/rest/activitystreams/";
+    private static final String RPC_FRAG = "social/rpc";
+    
+    //constant parts of JSON-RPC calls
+    private static final byte[] CALL_START =
+        "{\"method\":\"activitystreams.create\",\"id\":".getBytes(UTF_8);
+    private static final byte[] PARAMS_START =
+        ",\"params\":{\"groupId\":\"@self\",\"userId\":".getBytes(UTF_8);
+    private static final byte[] ACTIVITY_START =
+        ",\"activity\":".getBytes(UTF_8);
+    private static final byte[] CALL_END = "}}".getBytes(UTF_8);
+    
+    private final ShindigTransport fTransport;
+    private final CircuitBreaker fBreaker;
+    private final PipelineMetrics fMetrics;
+    
+    /**
+     * Creates a client sending requests through the given transport.
+     * The given transport must not be null.
+     *
+     * @param transport transport to use
+     * @param breaker circuit breaker guarding requests or null
+     * @param metrics metrics to record requests in or null
+     */
+    public ShindigClient(ShindigTransport transport, CircuitBreaker breaker,
+        PipelineMetrics metrics)
+    {
+        fTransport = transport;
+        fBreaker = breaker;
+        fMetrics = metrics;
+    }
+    
+    /**
+     * Sends a single activity in the name of the given user.
+     *
+     * @param activity activity to send
+     * @param user user the activity is for
+     * @throws Exception if sending fails
+     */
+    public void sendActivity(Activity activity, String user) throws Exception
+    {
+        StageTrace trace = startTrace("send for", user);
+        long mark = trace.mark();
+        
+        JsonBuffer json = ActivityWriter.write(JsonBuffer.forThread(),
+            activity);
+        trace.stage(StageTrace.SERIALIZE, mark);
+        
+        //send JSON activity, fails for unsuccessful status codes
+        checkBreaker();
+        long start = System.nanoTime();
+        try
+        {
+            fTransport.post(ACT_STR_FRAG + user + "/@self", json.getData(), 0,
+                json.getLength(), trace);
+            recordSuccess(start);
+        }
+        catch(Exception e)
+        {
+            recordFailure(start, e);
+            throw e;
+        }
+        finally
+        {
+            trace.finish();
+        }
+    }
+    
+    /**
+     * Sends multiple activities as a single JSON-RPC batch call.
+     * Activities without a successful result in the server's reply, whether
+     * rejected, missing or given an unreadable result, are returned in their
+     * original order, so they can be retried through the REST API.
+     *
+     * @param batch activities to send
+     * @return activities that were not accepted, never null
+     * @throws HttpStatusException if the server rejected the whole batch
+     * @throws RpcUnsupportedException if the reply is not a JSON-RPC response
+     * @throws CircuitOpenException if the circuit breaker is open
+     * @throws Exception if sending fails
+     */
+    public List<OutgoingActivity> sendBatch(List<OutgoingActivity> batch)
+        throws Exception
+    {
+        StageTrace trace = startTrace("batch of", batch.size());
+        long mark = trace.mark();
+        
+        JsonBuffer json = JsonBuffer.forThread();
+        json.writeRaw('[');
+        
+        int id = 0;
+        for(OutgoingActivity outgoing : batch)
+        {
+            if(id > 0)
+            {
+                json.writeRaw(',');
+            }
+            
+            json.writeRaw(CALL_START);
+            json.writeRaw('"').writeLong(id++).writeRaw('"');
+            json.writeRaw(PARAMS_START);
+            json.writeValue(outgoing.getUser());
+            json.writeRaw(ACTIVITY_START);
+            ActivityWriter.write(json, outgoing.getActivity());
+            json.writeRaw(CALL_END);
+        }
+        json.writeRaw(']');
+        trace.stage(StageTrace.SERIALIZE, mark);
+        
+        String response = null;
+        
+        checkBreaker();
+        long start = System.nanoTime();
+        try
+        {
+            response = fTransport.postForString(RPC_FRAG, json.getData(), 0,
+                json.getLength(), trace);
+            recordSuccess(start);
+        }
+        catch(Exception e)
+        {
+            recordFailure(start, e);
+            throw e;
+        }
+        finally
+        {
+            trace.finish();
+        }
+        
+        //a reply other than an array of results is no JSON-RPC response
+        JSONArray results = null;
+        String reply = response.trim();
+        try
+        {
+            if(reply.startsWith("["))
+            {
+                results = new JSONArray(reply);
+            }
+        }
+        catch(JSONException e)
+        {
+            results = null;
+        }
+        if(results == null)
+        {
+            throw new RpcUnsupportedException("unexpected JSON-RPC reply: "
+                + reply.substring(0, Math.min(100, reply.length())));
+        }
+        
+        //index results by call, an error for a call outweighs any success
+        boolean[] succeeded = new boolean[batch.size()];
+        boolean[] rejected = new boolean[batch.size()];
+        JSONObject result = null;
+        for(int i = 0; i < results.length(); ++i)
+        {
+            result = results.optJSONObject(i);
+            id = result != null ? result.optInt("id", -1) : -1;
+            if(id < 0
+                || id >= batch.size())
+            {
+                continue;
+            }
+            
+            if(result.has("error"))
+            {
+                rejected[id] = true;
+            }
+            else if(result.has("result")
+                || result.has("data"))
+            {
+                succeeded[id] = true;
+            }
+        }
+        
+        //calls without an explicit success are not known to be delivered
+        List<OutgoingActivity> failed = new ArrayList<OutgoingActivity>();
+        for(int i = 0; i < succeeded.length; ++i)
+        {
+            if(rejected[i]
+                || !succeeded[i])
+            {
+                failed.add(batch.get(i));
+            }
+        }
+        
+        return failed;
+    }
+    
+    private StageTrace startTrace(String label, Object detail)
+    {
+        if(fMetrics == null)
+        {
+            return StageTrace.DISABLED;
+        }
+        return fMetrics.getTracer().start(label, detail);
+    }
+    
+    private void checkBreaker() throws CircuitOpenException
+    {
+        if(fBreaker != null
+            && !fBreaker.allowRequest())
+        {
+            throw new CircuitOpenException(fBreaker.getRemainingOpenTime());
+        }
+    }
+    
+    private void recordSuccess(long start)
+    {
+        if(fMetrics != null)
+        {
+            fMetrics.sendCompleted(System.nanoTime() - start, true);
+        }
+        
+        if(fBreaker != null)
+        {
+            fBreaker.recordSuccess();
+        }
+    }
+    
+    private void recordFailure(long start, Exception e)
+    {
+        if(fMetrics != null)
+        {
+            fMetrics.sendCompleted(System.nanoTime() - start, false);
+        }
+        
+        if(fBreaker == null)
+        {
+            return;
+        }
+        
+        //the server is reachable if it rejects a request as invalid
+        if(e instanceof HttpStatusException
+            && !((HttpStatusException) e).isServerError())
+        {
+            fBreaker.recordSuccess();
+        }
+        else
+        {
+            fBreaker.recordFailure();
+        }
+    }
+}
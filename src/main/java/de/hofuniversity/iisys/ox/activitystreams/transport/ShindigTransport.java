@@ -0,0 +1,238 @@
+package de.hofuniversity.iisys.ox.activitystreams.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.concurrent.Semaphore;
+
+import de.hofuniversity.iisys.ox.activitystreams.metrics.StageTrace;
+
+/**
+ * HTTP transport posting JSON payloads to an Apache Shindig server.
+ * Connections are kept alive and reused through the JVM's keep-alive cache,
+ * which requires every response to be read completely - this is done using
+ * a reusable per-thread buffer. The number of concurrently open connections
+ * is limited to the configured pool size, all connections use connect and
+ * read timeouts.
+ * Requests may be traced, timing connection setup (including waiting for a
+ * free connection), writing the payload and reading the response.
+ */
+public class ShindigTransport
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private static final int BUFFER_SIZE = 8192;
+    
+    private final String fBaseUrl;
+    private final int fConnectTimeout;
+    private final int fReadTimeout;
+    
+    private final Semaphore fPool;
+    
+    private final ThreadLocal<ResponseBuffer> fBuffers;
+    
+    /**
+     * Creates a transport for the Shindig instance at the given base URL.
+     * The URL should not be null and end with a slash.
+     *
+     * @param baseUrl base URL of the Shindig server
+     * @param poolSize maximum number of concurrent connections
+     * @param connectTimeout connect timeout in milliseconds
+     * @param readTimeout read timeout in milliseconds
+     */
+    public ShindigTransport(String baseUrl, int poolSize, int connectTimeout,
+        int readTimeout)
+    {
+        fBaseUrl = baseUrl;
+        fConnectTimeout = connectTimeout;
+        fReadTimeout = readTimeout;
+        
+        fPool = new Semaphore(Math.max(1, poolSize), true);
+        
+        fBuffers = new ThreadLocal<ResponseBuffer>()
+        {
+            @Override
+            protected ResponseBuffer initialValue()
+            {
+                return new ResponseBuffer();
+            }
+        };
+    }
+    
+    /**
+     * Posts a JSON payload to the given path below the base URL, discarding
+     * the response.
+     *
+     * @param path path relative to the base URL
+     * @param body buffer containing the UTF-8 encoded payload
+     * @param offset offset of the payload within the buffer
+     * @param length length of the payload in bytes
+     * @param trace trace to record stages in, never null
+     * @return HTTP status code received
+     * @throws HttpStatusException if the server answered with an error code
+     * @throws IOException if the request fails
+     */
+    public int post(String path, byte[] body, int offset, int length,
+        StageTrace trace) throws IOException
+    {
+        return execute(path, body, offset, length, false, trace).fStatus;
+    }
+    
+    /**
+     * Posts a JSON payload to the given path below the base URL, returning
+     * the response body.
+     *
+     * @param path path relative to the base URL
+     * @param body buffer containing the UTF-8 encoded payload
+     * @param offset offset of the payload within the buffer
+     * @param length length of the payload in bytes
+     * @param trace trace to record stages in, never null
+     * @return response body
+     * @throws HttpStatusException if the server answered with an error code
+     * @throws IOException if the request fails
+     */
+    public String postForString(String path, byte[] body, int offset,
+        int length, StageTrace trace) throws IOException
+    {
+        ResponseBuffer response = execute(path, body, offset, length, true,
+            trace);
+        return new String(response.fData, 0, response.fCount, UTF8);
+    }
+    
+    private ResponseBuffer execute(String path, byte[] body, int offset,
+        int length, boolean keep, StageTrace trace) throws IOException
+    {
+        long mark = trace.mark();
+        try
+        {
+            fPool.acquire();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for a connection");
+        }
+        
+        try
+        {
+            URL url = new URL(fBaseUrl + path);
+            HttpURLConnection connection =
+                (HttpURLConnection) url.openConnection();
+            
+            connection.setRequestMethod("POST");
+            connection.setDoInput(true);
+            connection.setDoOutput(true);
+            connection.setUseCaches(false);
+            connection.setConnectTimeout(fConnectTimeout);
+            connection.setReadTimeout(fReadTimeout);
+            connection.setFixedLengthStreamingMode(length);
+            connection.setRequestProperty("Content-Type",
+                "application/json; charset=UTF-8");
+            
+            //connect explicitly to tell setup from sending
+            connection.connect();
+            mark = trace.stage(StageTrace.CONNECT, mark);
+            
+            //send payload
+            OutputStream out = connection.getOutputStream();
+            try
+            {
+                out.write(body, offset, length);
+                out.flush();
+            }
+            finally
+            {
+                out.close();
+            }
+            mark = trace.stage(StageTrace.WRITE, mark);
+            
+            //read complete reply so the connection can be reused
+            ResponseBuffer response = fBuffers.get();
+            response.fStatus = connection.getResponseCode();
+            
+            InputStream in = null;
+            if(response.fStatus >= 400)
+            {
+                in = connection.getErrorStream();
+            }
+            else
+            {
+                in = connection.getInputStream();
+            }
+            drain(in, response, keep);
+            trace.stage(StageTrace.READ, mark);
+            
+            if(response.fStatus < 200
+                || response.fStatus >= 300)
+            {
+                throw new HttpStatusException(response.fStatus,
+                    url.toString());
+            }
+            
+            return response;
+        }
+        finally
+        {
+            fPool.release();
+        }
+    }
+    
+    private void drain(InputStream in, ResponseBuffer response, boolean keep)
+        throws IOException
+    {
+        response.fCount = 0;
+        if(in == null)
+        {
+            return;
+        }
+        
+        try
+        {
+            int read = 0;
+            while(read >= 0)
+            {
+                if(keep)
+                {
+                    response.ensureSpace();
+                    read = in.read(response.fData, response.fCount,
+                        response.fData.length - response.fCount);
+                    if(read > 0)
+                    {
+                        response.fCount += read;
+                    }
+                }
+                else
+                {
+                    read = in.read(response.fData);
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+    
+    /**
+     * Per-thread buffer responses are drained into.
+     */
+    private static class ResponseBuffer
+    {
+        private byte[] fData = new byte[BUFFER_SIZE];
+        private int fCount;
+        private int fStatus;
+        
+        private void ensureSpace()
+        {
+            if(fCount == fData.length)
+            {
+                byte[] data = new byte[fData.length * 2];
+                System.arraycopy(fData, 0, data, 0, fCount);
+                fData = data;
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package de.hofuniversity.iisys.ox.activitystreams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Tests refilling, returning and removing the rate limiter's buckets.
+ */
+public class ActivityRateLimiterTest
+{
+    //rates per minute refilling a token every 100 milliseconds or never
+    private static final int FAST = 600;
+    private static final int SLOW = 1;
+    
+    private static final int LARGE = 1000;
+    
+    @Test
+    public void refillsActorBucketOverTime() throws InterruptedException
+    {
+        ActivityRateLimiter limiter = new ActivityRateLimiter(FAST, 2, FAST,
+            LARGE);
+        
+        assertNull(limiter.acquire(1, 1));
+        assertNull(limiter.acquire(1, 1));
+        assertEquals(ActivityRateLimiter.ACTOR, limiter.acquire(1, 1));
+        
+        //other actors have buckets of their own
+        assertNull(limiter.acquire(1, 2));
+        assertNull(limiter.acquire(2, 1));
+        
+        Thread.sleep(150L);
+        assertNull(limiter.acquire(1, 1));
+        assertEquals(ActivityRateLimiter.ACTOR, limiter.acquire(1, 1));
+        
+        assertEquals(2, limiter.takeRejected(1, 1));
+        assertEquals(0, limiter.takeRejected(1, 1));
+    }
+    
+    @Test
+    public void limitsContextAcrossActors()
+    {
+        ActivityRateLimiter limiter = new ActivityRateLimiter(FAST, LARGE,
+            SLOW, 2);
+        
+        assertNull(limiter.acquire(1, 1));
+        assertNull(limiter.acquire(1, 2));
+        assertEquals(ActivityRateLimiter.CONTEXT, limiter.acquire(1, 3));
+        
+        //activities of unknown users only take context tokens
+        assertEquals(ActivityRateLimiter.CONTEXT, limiter.acquire(1, -1));
+        assertNull(limiter.acquire(2, -1));
+    }
+    
+    @Test
+    public void returnsActorTokenOnContextRejection()
+        throws InterruptedException
+    {
+        ActivityRateLimiter limiter = new ActivityRateLimiter(SLOW, 2, FAST,
+            1);
+        
+        assertNull(limiter.acquire(1, 1));
+        assertEquals(ActivityRateLimiter.CONTEXT, limiter.acquire(1, 1));
+        
+        //the actor still has the token the rejected activity did not use
+        Thread.sleep(150L);
+        assertNull(limiter.acquire(1, 1));
+        assertEquals(ActivityRateLimiter.ACTOR, limiter.acquire(1, 1));
+        
+        assertEquals(2, limiter.takeRejected(1, 1));
+    }
+    
+    @Test
+    public void removesIdleBuckets() throws InterruptedException
+    {
+        //buckets are full again within 100 milliseconds
+        ActivityRateLimiter limiter = new ActivityRateLimiter(FAST, 1, FAST,
+            1, 50L);
+        
+        assertNull(limiter.acquire(1, 1));
+        assertNull(limiter.acquire(2, 1));
+        assertEquals(ActivityRateLimiter.ACTOR, limiter.acquire(2, 1));
+        assertEquals(4, limiter.size());
+        
+        Thread.sleep(250L);
+        assertNull(limiter.acquire(3, 1));
+        
+        //unsummarized rejections are removed along with their bucket
+        assertEquals(2, limiter.size());
+        assertEquals(0, limiter.takeRejected(2, 1));
+    }
+}
@@ -0,0 +1,75 @@
+package de.hofuniversity.iisys.ox.activitystreams.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests starting cooldowns and expiring them on the timer wheel.
+ */
+public class CooldownTableTest
+{
+    private static final long TIMEOUT = 2000L;
+    
+    @Test
+    public void keysCooldownsByObjectAndUser()
+    {
+        CooldownTable table = new CooldownTable(60000L);
+        
+        table.start(1, 2);
+        table.start(2, -1);
+        
+        assertTrue(table.isActive(1, 2));
+        assertTrue(table.isActive(2, -1));
+        assertFalse(table.isActive(2, 1));
+        assertFalse(table.isActive(1, -1));
+        assertEquals(2, table.size());
+    }
+    
+    @Test
+    public void expiresAfterSkippingMoreTicksThanSlots()
+        throws InterruptedException
+    {
+        CooldownTable table = new CooldownTable(10L);
+        
+        table.start(1, 1);
+        table.start(2, 1);
+        
+        //nobody touches the table for far more than a full turn of the wheel
+        Thread.sleep(200L);
+        
+        assertFalse(table.isActive(1, 1));
+        assertFalse(table.isActive(2, 1));
+        
+        //removed by one of the next sweeps at the latest
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while(table.size() > 0
+            && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(5L);
+            table.isActive(1, 1);
+        }
+        assertEquals(0, table.size());
+        
+        //the wheel keeps turning after the gap
+        table.start(3, 1);
+        assertTrue(table.isActive(3, 1));
+    }
+    
+    @Test
+    public void keepsRestartedCooldown() throws InterruptedException
+    {
+        CooldownTable table = new CooldownTable(1000L);
+        
+        table.start(1, 1);
+        Thread.sleep(600L);
+        table.start(1, 1);
+        
+        //past the first expiry, its slot must not remove the restarted one
+        Thread.sleep(600L);
+        assertTrue(table.isActive(1, 1));
+        assertEquals(1, table.size());
+    }
+}
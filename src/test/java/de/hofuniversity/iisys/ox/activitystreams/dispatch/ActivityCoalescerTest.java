@@ -0,0 +1,166 @@
+package de.hofuniversity.iisys.ox.activitystreams.dispatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.hofuniversity.iisys.ox.activitystreams.model.Activity;
+import de.hofuniversity.iisys.ox.activitystreams.model.ActivityObject;
+import de.hofuniversity.iisys.ox.activitystreams.model.ObjectType;
+
+/**
+ * Tests holding, replacing and cancelling activities in the coalescer.
+ */
+public class ActivityCoalescerTest
+{
+    private static final ObjectType APPOINTMENT =
+        new ObjectType("appointment");
+    
+    //long enough for nothing to be released before shutting down
+    private static final long WINDOW = 60000L;
+    
+    private RecordingSink fSink;
+    private ActivityCoalescer fCoalescer;
+    
+    @Before
+    public void setUp()
+    {
+        fSink = new RecordingSink();
+        fCoalescer = new ActivityCoalescer(fSink, WINDOW, null);
+    }
+    
+    @After
+    public void tearDown()
+    {
+        fCoalescer.shutdown();
+    }
+    
+    @Test
+    public void removeCancelsHeldAdd()
+    {
+        assertTrue(submit("add", 1, "first"));
+        assertEquals(1, fCoalescer.size());
+        
+        //neither activity is sent
+        assertTrue(submit("remove", 1, "first"));
+        assertEquals(0, fCoalescer.size());
+        assertEquals(1L, fCoalescer.getCoalesced());
+        
+        fCoalescer.shutdown();
+        assertEquals(Collections.<String>emptyList(), fSink.getDelivered());
+    }
+    
+    @Test
+    public void removeReplacesHeldUpdate()
+    {
+        assertTrue(submit("update", 1, "first"));
+        
+        //the caller sends the remove itself
+        assertFalse(submit("remove", 1, "first"));
+        assertEquals(0, fCoalescer.size());
+        
+        fCoalescer.shutdown();
+        assertEquals(Collections.<String>emptyList(), fSink.getDelivered());
+    }
+    
+    @Test
+    public void removeWithoutHeldActivityIsNotTaken()
+    {
+        assertTrue(submit("add", 1, "first"));
+        
+        assertFalse(submit("remove", 2, "second"));
+        assertEquals(1, fCoalescer.size());
+        assertEquals(0L, fCoalescer.getCoalesced());
+    }
+    
+    @Test
+    public void updateReplacesHeldAddKeepingVerb()
+    {
+        assertTrue(submit("add", 1, "first"));
+        assertTrue(submit("update", 1, "renamed"));
+        assertTrue(submit("update", 2, "second"));
+        assertEquals(2, fCoalescer.size());
+        
+        fCoalescer.shutdown();
+        assertEquals(Arrays.asList("add 1 renamed", "update 2 second"),
+            fSink.getDelivered());
+    }
+    
+    @Test
+    public void activityWithFollowUpsReleasesHeldActivity()
+    {
+        assertTrue(submit("add", 1, "first"));
+        
+        ActivityBundle followUps = new ActivityBundle();
+        followUps.add(activity("invite", 1, "first"), "jane");
+        assertFalse(fCoalescer.submit(1, "calendar",
+            activity("update", 1, "first"), "john", followUps));
+        
+        assertEquals(0, fCoalescer.size());
+        assertEquals(Arrays.asList("add 1 first"), fSink.getDelivered());
+    }
+    
+    private boolean submit(String verb, int id, String name)
+    {
+        return fCoalescer.submit(1, "calendar", activity(verb, id, name),
+            "john", new ActivityBundle());
+    }
+    
+    private Activity activity(String verb, int id, String name)
+    {
+        return new Activity.Builder().setVerb(verb)
+            .setObject(new ActivityObject(id, APPOINTMENT, name, null))
+            .build();
+    }
+    
+    private static class RecordingSink implements IActivitySink
+    {
+        private final List<String> fDelivered = new ArrayList<String>();
+        
+        @Override
+        public String getName()
+        {
+            return "recording";
+        }
+        
+        @Override
+        public synchronized void deliver(Activity activity, String user)
+        {
+            ActivityObject object = activity.getObject();
+            fDelivered.add(activity.getVerb() + " " + object.getId() + " "
+                + object.getDisplayName());
+        }
+        
+        @Override
+        public void deliverAll(ActivityBundle bundle)
+        {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public int size()
+        {
+            return 0;
+        }
+        
+        @Override
+        public void shutdown()
+        {
+            //nothing to release
+        }
+        
+        public synchronized List<String> getDelivered()
+        {
+            return new ArrayList<String>(fDelivered);
+        }
+    }
+}
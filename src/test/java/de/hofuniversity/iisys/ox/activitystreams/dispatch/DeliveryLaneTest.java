@@ -0,0 +1,164 @@
+package de.hofuniversity.iisys.ox.activitystreams.dispatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.hofuniversity.iisys.ox.activitystreams.metrics.DropCounters;
+import de.hofuniversity.iisys.ox.activitystreams.model.Activity;
+import de.hofuniversity.iisys.ox.activitystreams.transport.HttpStatusException;
+import de.hofuniversity.iisys.ox.activitystreams.transport.RetryPolicy;
+import de.hofuniversity.iisys.ox.activitystreams.transport.ShindigClient;
+
+/**
+ * Tests that a lane retries failed activities before sending later ones and
+ * counts the activities it drops.
+ */
+public class DeliveryLaneTest
+{
+    private static final long TIMEOUT = 5000L;
+    
+    private DeliveryLane fLane;
+    private DropCounters fDrops;
+    private FakeClient fClient;
+    
+    @After
+    public void tearDown()
+    {
+        if(fLane != null)
+        {
+            fLane.shutdown(TIMEOUT);
+        }
+    }
+    
+    @Test
+    public void retriesFailedActivityBeforeLaterOnes() throws Exception
+    {
+        start(3, 3, 5);
+        fClient.fail("update", 2, new IOException("connection reset"));
+        
+        offer("post", "update", "delete");
+        
+        assertTrue(fClient.await());
+        assertEquals(Arrays.asList("post", "update", "update", "update",
+            "delete"), fClient.getAttempts());
+    }
+    
+    @Test
+    public void givesUpAfterLastAttempt() throws Exception
+    {
+        start(2, 2, 5);
+        fClient.fail("update", 2, new IOException("connection reset"));
+        
+        offer("post", "update", "delete");
+        
+        assertTrue(fClient.await());
+        assertEquals(Arrays.asList("post", "update", "update", "delete"),
+            fClient.getAttempts());
+        assertEquals(1L, fDrops.get(DeliveryLane.DROP_GIVEN_UP, "update"));
+    }
+    
+    @Test
+    public void dropsRejectedActivityWithoutRetrying() throws Exception
+    {
+        start(2, 3, 5);
+        fClient.fail("update", 1, new HttpStatusException(400, "url"));
+        
+        offer("post", "update", "delete");
+        
+        assertTrue(fClient.await());
+        assertEquals(Arrays.asList("post", "update", "delete"),
+            fClient.getAttempts());
+        assertEquals(1L, fDrops.get(DeliveryLane.DROP_REJECTED, "update"));
+    }
+    
+    private void start(int delivered, int maxAttempts, int capacity)
+    {
+        fDrops = new DropCounters();
+        fClient = new FakeClient(delivered);
+        fLane = new DeliveryLane("lane-test", capacity, capacity, 0, fDrops,
+            new ActivityBatcher(fClient, 1),
+            new RetryPolicy(maxAttempts, 1L, 1L), null, 0L, null);
+        fLane.start();
+    }
+    
+    private void offer(String... verbs)
+    {
+        for(String verb : verbs)
+        {
+            Activity activity = new Activity.Builder().setVerb(verb).build();
+            assertTrue(fLane.offer(new OutgoingActivity(activity, "john")));
+        }
+    }
+    
+    /*
+     * Client recording every attempt instead of sending, failing the
+     * activities with a given verb a number of times.
+     */
+    private static class FakeClient extends ShindigClient
+    {
+        private final List<String> fAttempts;
+        private final Map<String, Exception> fErrors;
+        private final Map<String, Integer> fFailures;
+        private final CountDownLatch fDelivered;
+        
+        public FakeClient(int delivered)
+        {
+            super(null, null, null);
+            
+            fAttempts = new ArrayList<String>();
+            fErrors = new HashMap<String, Exception>();
+            fFailures = new HashMap<String, Integer>();
+            fDelivered = new CountDownLatch(delivered);
+        }
+        
+        public synchronized void fail(String verb, int times, Exception e)
+        {
+            fErrors.put(verb, e);
+            fFailures.put(verb, times);
+        }
+        
+        @Override
+        public void sendActivity(Activity activity, String user)
+            throws Exception
+        {
+            String verb = activity.getVerb();
+            
+            synchronized(this)
+            {
+                fAttempts.add(verb);
+                
+                Integer left = fFailures.get(verb);
+                if(left != null
+                    && left > 0)
+                {
+                    fFailures.put(verb, left - 1);
+                    throw fErrors.get(verb);
+                }
+            }
+            
+            fDelivered.countDown();
+        }
+        
+        public boolean await() throws InterruptedException
+        {
+            return fDelivered.await(TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        
+        public synchronized List<String> getAttempts()
+        {
+            return new ArrayList<String>(fAttempts);
+        }
+    }
+}
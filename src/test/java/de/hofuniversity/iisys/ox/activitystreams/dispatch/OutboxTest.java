@@ -0,0 +1,242 @@
+package de.hofuniversity.iisys.ox.activitystreams.dispatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests recovering, truncating and deleting outbox segments.
+ */
+public class OutboxTest
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private static final long SEGMENT_SIZE = 16 * 1024 * 1024;
+    
+    @Rule
+    public TemporaryFolder fFolder = new TemporaryFolder();
+    
+    private File fDirectory;
+    private Outbox fOutbox;
+    
+    @Before
+    public void setUp() throws IOException
+    {
+        fDirectory = fFolder.newFolder("outbox");
+    }
+    
+    @After
+    public void tearDown()
+    {
+        if(fOutbox != null)
+        {
+            fOutbox.close();
+        }
+    }
+    
+    @Test
+    public void recoversUnacknowledgedRecordsInOrder() throws IOException
+    {
+        fOutbox = open(SEGMENT_SIZE);
+        long first = append("john", "{\"verb\":\"add\"}");
+        long second = append("jane", "{\"verb\":\"update\"}");
+        long third = append("john", "{\"verb\":\"delete\"}");
+        fOutbox.acknowledge(second);
+        fOutbox.close();
+        
+        fOutbox = open(SEGMENT_SIZE);
+        List<Outbox.Entry> recovered = fOutbox.getRecovered();
+        
+        assertEquals(2, recovered.size());
+        assertEquals(first, recovered.get(0).getSeq());
+        assertEquals("john", recovered.get(0).getUser());
+        assertEquals("{\"verb\":\"add\"}", recovered.get(0).getJson());
+        assertEquals(third, recovered.get(1).getSeq());
+        assertEquals("{\"verb\":\"delete\"}", recovered.get(1).getJson());
+        
+        //sequence numbers continue after the recovered records
+        assertTrue(append("jane", "{}") > third);
+    }
+    
+    @Test
+    public void truncatesTornRecord() throws IOException
+    {
+        fOutbox = open(SEGMENT_SIZE);
+        append("john", "{\"verb\":\"add\"}");
+        append("john", "{\"verb\":\"update\"}");
+        fOutbox.close();
+        
+        //simulate a crash in the middle of writing a record
+        File segment = getSegment(1);
+        long intact = segment.length();
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try
+        {
+            file.seek(intact);
+            file.writeInt(100);
+            file.writeInt(0);
+            file.writeLong(3);
+            file.write("john\n{\"ve".getBytes(UTF8));
+        }
+        finally
+        {
+            file.close();
+        }
+        
+        fOutbox = open(SEGMENT_SIZE);
+        assertEquals(2, fOutbox.getRecovered().size());
+        assertEquals(intact, segment.length());
+        
+        //the torn record's sequence number is used again
+        assertEquals(3, append("john", "{\"verb\":\"delete\"}"));
+        fOutbox.close();
+        
+        fOutbox = open(SEGMENT_SIZE);
+        List<Outbox.Entry> recovered = fOutbox.getRecovered();
+        assertEquals(3, recovered.size());
+        assertEquals("{\"verb\":\"delete\"}", recovered.get(2).getJson());
+    }
+    
+    @Test
+    public void truncatesPartialHeader() throws IOException
+    {
+        fOutbox = open(SEGMENT_SIZE);
+        append("john", "{\"verb\":\"add\"}");
+        fOutbox.close();
+        
+        File segment = getSegment(1);
+        long intact = segment.length();
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try
+        {
+            file.seek(intact);
+            file.write(new byte[] {0, 0, 1});
+        }
+        finally
+        {
+            file.close();
+        }
+        
+        fOutbox = open(SEGMENT_SIZE);
+        assertEquals(1, fOutbox.getRecovered().size());
+        assertEquals(intact, segment.length());
+    }
+    
+    @Test
+    public void truncatesRecordWithBadChecksum() throws IOException
+    {
+        fOutbox = open(SEGMENT_SIZE);
+        append("john", "{\"verb\":\"add\"}");
+        append("john", "{\"verb\":\"update\"}");
+        fOutbox.close();
+        
+        //damage the last byte of the second record
+        File segment = getSegment(1);
+        long size = segment.length();
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try
+        {
+            file.seek(size - 1);
+            file.write('X');
+        }
+        finally
+        {
+            file.close();
+        }
+        
+        fOutbox = open(SEGMENT_SIZE);
+        List<Outbox.Entry> recovered = fOutbox.getRecovered();
+        assertEquals(1, recovered.size());
+        assertEquals("{\"verb\":\"add\"}", recovered.get(0).getJson());
+        assertTrue(segment.length() < size);
+    }
+    
+    @Test
+    public void deletesAcknowledgedSegmentsOnRecovery() throws IOException
+    {
+        //roll over after every record
+        fOutbox = open(1);
+        long first = append("john", "{\"verb\":\"add\"}");
+        long second = append("john", "{\"verb\":\"update\"}");
+        append("john", "{\"verb\":\"delete\"}");
+        fOutbox.acknowledge(first);
+        fOutbox.acknowledge(second);
+        assertFalse(getSegment(first).exists());
+        assertFalse(getSegment(second).exists());
+        fOutbox.close();
+        
+        fOutbox = open(1);
+        assertEquals(1, fOutbox.getRecovered().size());
+    }
+    
+    @Test
+    public void compactsAcknowledgedActiveSegment() throws IOException
+    {
+        fOutbox = open(SEGMENT_SIZE);
+        
+        StringBuilder json = new StringBuilder("{\"content\":\"");
+        while(json.length() < 70 * 1024)
+        {
+            json.append("0123456789");
+        }
+        json.append("\"}");
+        
+        long seq = append("john", json.toString());
+        assertTrue(getSegment(1).exists());
+        
+        //fully acknowledged, the segment is replaced before its rollover
+        fOutbox.acknowledge(seq);
+        assertFalse(getSegment(1).exists());
+        
+        append("john", "{}");
+        fOutbox.close();
+        
+        fOutbox = open(SEGMENT_SIZE);
+        assertEquals(1, fOutbox.getRecovered().size());
+    }
+    
+    @Test
+    public void ignoresAcknowledgementsAfterClose() throws IOException
+    {
+        fOutbox = open(SEGMENT_SIZE);
+        long seq = append("john", "{\"verb\":\"add\"}");
+        fOutbox.close();
+        
+        //a lane still sending after shutdown must not reopen the segment
+        fOutbox.acknowledge(seq);
+        assertFalse(new File(fDirectory, String.format("%020d", 1L)
+            + ".ack").exists());
+        
+        fOutbox = open(SEGMENT_SIZE);
+        assertEquals(1, fOutbox.getRecovered().size());
+    }
+    
+    private Outbox open(long segmentSize) throws IOException
+    {
+        return new Outbox(fDirectory, segmentSize, 0L);
+    }
+    
+    private long append(String user, String json) throws IOException
+    {
+        byte[] bytes = json.getBytes(UTF8);
+        return fOutbox.append(user, bytes, 0, bytes.length);
+    }
+    
+    private File getSegment(long firstSeq)
+    {
+        return new File(fDirectory, String.format("%020d", firstSeq)
+            + ".seg");
+    }
+}
@@ -0,0 +1,77 @@
+package de.hofuniversity.iisys.ox.activitystreams.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import de.hofuniversity.iisys.ox.activitystreams.transport.JsonBuffer;
+
+/**
+ * Tests writing publishing times as ISO 8601 dates in UTC.
+ */
+public class ActivityWriterTest
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    @Test
+    public void writesEpochAndTimesBeforeIt()
+    {
+        assertEquals("1970-01-01T00:00:00.001Z", writeTime(1L));
+        assertEquals("1969-12-31T23:59:59.999Z", writeTime(-1L));
+        assertEquals("1969-12-31T00:00:00.000Z", writeTime(-86400000L));
+    }
+    
+    @Test
+    public void writesLeapDays()
+    {
+        //2000 is a leap year, 1900 and 2100 are not
+        assertEquals("2000-02-29T12:34:56.789Z",
+            writeTime(951827696789L));
+        assertEquals("1900-03-01T00:00:00.000Z",
+            writeTime(-2203891200000L));
+        assertEquals("2100-02-28T23:59:59.999Z",
+            writeTime(4107542399999L));
+        assertEquals("2100-03-01T00:00:00.000Z",
+            writeTime(4107542400000L));
+    }
+    
+    @Test
+    public void matchesDateFormat()
+    {
+        SimpleDateFormat format =
+            new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        
+        //between 1600 and 2400, after the switch to the Gregorian calendar
+        final long min = -11676096000000L;
+        final long range = 13569465600000L - min;
+        
+        Random random = new Random(42L);
+        for(int i = 0; i < 10000; ++i)
+        {
+            long millis = min + (long) (random.nextDouble() * range);
+            assertEquals(format.format(new Date(millis)), writeTime(millis));
+        }
+    }
+    
+    private String writeTime(long millis)
+    {
+        Activity activity = new Activity.Builder().setPublished(millis)
+            .build();
+        
+        JsonBuffer json = new JsonBuffer();
+        ActivityWriter.write(json, activity);
+        String written = new String(json.getData(), 0, json.getLength(),
+            UTF8);
+        
+        String prefix = "{\"published\":\"";
+        assertEquals(prefix, written.substring(0, prefix.length()));
+        return written.substring(prefix.length(), written.length() - 2);
+    }
+}
@@ -0,0 +1,99 @@
+package de.hofuniversity.iisys.ox.activitystreams.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests opening, trial requests and closing of the circuit breaker.
+ */
+public class CircuitBreakerTest
+{
+    private static final long LONG_OPEN_TIME = 60000L;
+    
+    @Test
+    public void opensAfterConsecutiveFailures()
+    {
+        CircuitBreaker breaker = new CircuitBreaker(3, 101, 10,
+            LONG_OPEN_TIME);
+        
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+        
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.getRemainingOpenTime() > 0);
+    }
+    
+    @Test
+    public void successResetsConsecutiveFailures()
+    {
+        CircuitBreaker breaker = new CircuitBreaker(3, 101, 10,
+            LONG_OPEN_TIME);
+        
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        
+        assertFalse(breaker.isOpen());
+    }
+    
+    @Test
+    public void opensOnFailureRateOnceWindowIsFull()
+    {
+        CircuitBreaker breaker = new CircuitBreaker(100, 50, 4,
+            LONG_OPEN_TIME);
+        
+        //failure rate reached before the window is full
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        assertFalse(breaker.isOpen());
+        
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+    }
+    
+    @Test
+    public void allowsSingleTrialAfterOpenTime()
+    {
+        CircuitBreaker breaker = new CircuitBreaker(1, 101, 10, 0L);
+        
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        assertEquals(0L, breaker.getRemainingOpenTime());
+        
+        //only one trial request at a time
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+    
+    @Test
+    public void failedTrialOpensAgain()
+    {
+        CircuitBreaker breaker = new CircuitBreaker(1, 101, 10,
+            LONG_OPEN_TIME);
+        
+        breaker.recordFailure();
+        assertFalse(breaker.allowRequest());
+        
+        //a failed trial request keeps the breaker open for the full time
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.getRemainingOpenTime() > LONG_OPEN_TIME / 2);
+    }
+}
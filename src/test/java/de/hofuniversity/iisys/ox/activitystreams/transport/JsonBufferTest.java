@@ -0,0 +1,89 @@
+package de.hofuniversity.iisys.ox.activitystreams.transport;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+/**
+ * Tests escaping and UTF-8 encoding of JSON strings.
+ */
+public class JsonBufferTest
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    @Test
+    public void escapesQuotesAndBackslashes()
+    {
+        assertEquals("\"say \\\"hi\\\" \\\\o/\"", write("say \"hi\" \\o/"));
+    }
+    
+    @Test
+    public void escapesControlCharacters()
+    {
+        assertEquals("\"a\\nb\\tc\\r\\b\\f\"", write("a\nb\tc\r\b\f"));
+        assertEquals("\"\\u0000\\u0001\\u001f\"", write("\u0000\u0001\u001f"));
+        
+        //DEL is not a control character for JSON
+        assertEquals("\"\u007f\"", write("\u007f"));
+    }
+    
+    @Test
+    public void escapesSlashAfterLessThan()
+    {
+        assertEquals("\"<\\/script>\"", write("</script>"));
+        assertEquals("\"a/b\"", write("a/b"));
+        assertEquals("\"/<\"", write("/<"));
+    }
+    
+    @Test
+    public void encodesMultiByteCharacters()
+    {
+        assertEquals("\"\u00e9\u20ac\"", write("\u00e9\u20ac"));
+        
+        //supplementary character from a surrogate pair
+        byte[] bytes = writeBytes("\ud83d\ude00");
+        assertEquals(6, bytes.length);
+        assertEquals((byte) 0xF0, bytes[1]);
+        assertEquals((byte) 0x9F, bytes[2]);
+        assertEquals((byte) 0x98, bytes[3]);
+        assertEquals((byte) 0x80, bytes[4]);
+    }
+    
+    @Test
+    public void replacesUnpairedSurrogates()
+    {
+        assertEquals("\"a?b\"", write("a\ud83db"));
+        assertEquals("\"a?b\"", write("a\ude00b"));
+        assertEquals("\"a?\"", write("a\ud83d"));
+        assertEquals("\"??\"", write("\ude00\ud83d"));
+    }
+    
+    @Test
+    public void growsBeyondInitialSize()
+    {
+        StringBuilder value = new StringBuilder();
+        for(int i = 0; i < 10000; ++i)
+        {
+            value.append('\u20ac');
+        }
+        
+        assertEquals("\"" + value + "\"", write(value.toString()));
+    }
+    
+    private String write(String value)
+    {
+        return new String(writeBytes(value), UTF8);
+    }
+    
+    private byte[] writeBytes(String value)
+    {
+        JsonBuffer json = new JsonBuffer();
+        json.writeString(value);
+        
+        byte[] bytes = new byte[json.getLength()];
+        System.arraycopy(json.getData(), 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+}
@@ -0,0 +1,63 @@
+package de.hofuniversity.iisys.ox.activitystreams.transport;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests attempt limits, retryable errors and delays of the retry policy.
+ */
+public class RetryPolicyTest
+{
+    @Test
+    public void limitsAttempts()
+    {
+        RetryPolicy policy = new RetryPolicy(3, 100L, 1000L);
+        
+        assertTrue(policy.hasAttemptsLeft(1));
+        assertTrue(policy.hasAttemptsLeft(2));
+        assertFalse(policy.hasAttemptsLeft(3));
+    }
+    
+    @Test
+    public void retriesServerAndConnectionErrorsOnly()
+    {
+        RetryPolicy policy = new RetryPolicy(3, 100L, 1000L);
+        
+        assertTrue(policy.isRetryable(new IOException("reset")));
+        assertTrue(policy.isRetryable(new HttpStatusException(500, "url")));
+        assertTrue(policy.isRetryable(new HttpStatusException(503, "url")));
+        assertTrue(policy.isRetryable(new HttpStatusException(408, "url")));
+        assertTrue(policy.isRetryable(new HttpStatusException(429, "url")));
+        
+        assertFalse(policy.isRetryable(new HttpStatusException(400, "url")));
+        assertFalse(policy.isRetryable(new HttpStatusException(404, "url")));
+        assertFalse(policy.isRetryable(new IllegalStateException()));
+    }
+    
+    @Test
+    public void growsDelaysUpToLimit()
+    {
+        RetryPolicy policy = new RetryPolicy(10, 100L, 1000L);
+        
+        for(int i = 0; i < 100; ++i)
+        {
+            assertBetween(50L, 100L, policy.getDelay(1));
+            assertBetween(100L, 200L, policy.getDelay(2));
+            assertBetween(200L, 400L, policy.getDelay(3));
+            assertBetween(500L, 1000L, policy.getDelay(5));
+            
+            //no overflow for many attempts
+            assertBetween(500L, 1000L, policy.getDelay(100));
+        }
+    }
+    
+    private void assertBetween(long min, long max, long value)
+    {
+        assertTrue(value + " < " + min, value >= min);
+        assertTrue(value + " > " + max, value <= max);
+    }
+}